@@ -20,7 +20,10 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 
+import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
@@ -32,6 +35,8 @@ import datafu.pig.util.SimpleEvalFunc;
 /**
  * Appends a tuple to a bag.
  * <p>
+ * The output is a lazily iterated view of the input bag followed by the tuple, so the bag is not copied.
+ * <p>
  * Example:
  * <pre>
  * {@code
@@ -53,8 +58,8 @@ public class AppendToBag extends SimpleEvalFunc<DataBag>
 {
   public DataBag call(DataBag inputBag, Tuple t) throws IOException
   {
-    inputBag.add(t);
-    return inputBag;
+    DataBag tupleBag = BagFactory.getInstance().newDefaultBag(Collections.singletonList(t));
+    return new ConcatenatedBag(Arrays.asList(DataBagView.reiterable(inputBag), tupleBag));
   }
 
   @Override
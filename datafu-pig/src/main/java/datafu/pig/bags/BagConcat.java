@@ -20,9 +20,10 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.pig.EvalFunc;
-import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
@@ -39,6 +40,8 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  *  <li>a single bag where each element of that bag is a bag and all of these bags have the same schema</li>
  * </ol>
  * <p>
+ * The output is a lazily iterated view of the input bags, so their tuples are not copied.
+ * <p>
  * Example 1:
  * <pre>
  * {@code
@@ -82,7 +85,7 @@ public class BagConcat extends EvalFunc<DataBag>
   @Override
   public DataBag exec(Tuple input) throws IOException
   {
-    DataBag output = BagFactory.getInstance().newDefaultBag();
+    List<DataBag> bags = new ArrayList<DataBag>();
     if (input.size() > 1) {
       // tuple of bags
       for (int i=0; i < input.size(); i++) {
@@ -91,22 +94,16 @@ public class BagConcat extends EvalFunc<DataBag>
           throw new RuntimeException("Expected a TUPLE of BAGs as input");
         }
 
-        DataBag inputBag = (DataBag) o;
-        for (Tuple elem : inputBag) {
-          output.add(elem);
-        }
+        bags.add(DataBagView.reiterable((DataBag) o));
       }
     } else {
       // bag of bags
       DataBag outerBag = (DataBag)input.get(0);
       for (Tuple outerTuple : outerBag) {
-        DataBag innerBag = (DataBag)outerTuple.get(0);
-        for (Tuple innerTuple : innerBag) {
-          output.add(innerTuple);
-        }
+        bags.add(DataBagView.reiterable((DataBag)outerTuple.get(0)));
       }
     }
-    return output;
+    return new ConcatenatedBag(bags);
   }
 
   @Override
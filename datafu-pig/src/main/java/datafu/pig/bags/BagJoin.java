@@ -42,6 +42,13 @@ import java.util.*;
  * </p> 
  * 
  * <p>
+ * By default each bag is loaded into a hash table keyed on the join key.  When the bags are already sorted
+ * on their join keys, specifying 'merge' as a second parameter (e.g. BagJoin('left', 'merge')) performs a
+ * sort-merge join instead, which streams through the bags together without building hash tables.  The joined
+ * tuples are then output in key order.  An error is raised if a bag is found not to be sorted.
+ * </p>
+ * 
+ * <p>
  * Example:
  * <code>
  * define BagJoin datafu.pig.bags.BagJoin(); -- inner join
@@ -64,6 +71,7 @@ public class BagJoin extends AliasableEvalFunc<DataBag>
   private static final String BAG_NAME_TO_SIZE_PROPERTY = "BagFullOuterJoin_BAG_NAME_TO_SIZE_PROPERTY";
 
   private final JoinType joinType;
+  private final boolean merge;
 
   ArrayList<String> bagNames;
   Map<String, String> bagNameToJoinKeyPrefix;
@@ -77,6 +85,10 @@ public class BagJoin extends AliasableEvalFunc<DataBag>
   }
 
   public BagJoin(String joinType) {
+    this(joinType, "hash");
+  }
+
+  public BagJoin(String joinType, String algorithm) {
       if ("left".equals(joinType.toLowerCase())) {
           this.joinType = JoinType.LEFT;
       } else if ("full".equals(joinType.toLowerCase())) {
@@ -86,6 +98,13 @@ public class BagJoin extends AliasableEvalFunc<DataBag>
     } else {
           throw new IllegalArgumentException("Invalid constructor argument.  Valid values are 'left' or 'full', found: " + joinType);
     }
+      if ("merge".equals(algorithm.toLowerCase())) {
+          this.merge = true;
+      } else if ("hash".equals(algorithm.toLowerCase())) {
+          this.merge = false;
+      } else {
+          throw new IllegalArgumentException("Invalid constructor argument.  Valid values are 'hash' or 'merge', found: " + algorithm);
+      }
   }
 
   @SuppressWarnings("unchecked")
@@ -220,6 +239,10 @@ public class BagJoin extends AliasableEvalFunc<DataBag>
       joinKeyNames.put(bagNames.get(i / 2), (String) input.get(i));
     }
 
+    if (merge) {
+      return mergeJoin(input, joinKeyNames);
+    }
+
     JoinCollector collector = new JoinCollector(this.joinType);
 
     for (String bagName: bagNames) {
@@ -245,6 +268,156 @@ public class BagJoin extends AliasableEvalFunc<DataBag>
     return outputBag;
   }
 
+  /**
+   * Reads the tuples of a bag sorted on its join key one run of equal keys at a time.
+   */
+  class MergeCursor
+  {
+    private final String bagName;
+    private final String keyName;
+    private final Iterator<Tuple> tuples;
+    private final List<Tuple> run = new ArrayList<Tuple>();
+    private Tuple next;
+    private Object nextKey;
+
+    public MergeCursor(String bagName, DataBag bag, String keyName) throws ExecException {
+      this.bagName = bagName;
+      this.keyName = keyName;
+      this.tuples = bag.iterator();
+      advance();
+    }
+
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    public Object peekKey() {
+      return nextKey;
+    }
+
+    /**
+     * Returns the tuples having the next key, which remain valid until the following call.
+     */
+    public List<Tuple> nextRun() throws ExecException {
+      run.clear();
+      Object key = nextKey;
+      do {
+        run.add(next);
+        advance();
+      } while (next != null && DataType.compare(key, nextKey) == 0);
+      if (next != null && DataType.compare(key, nextKey) > 0) {
+        throw new ExecException("Error in instance: " + getInstanceName()
+                + " -- Bag " + bagName + " is not sorted on " + keyName
+                + ", found " + nextKey + " after " + key);
+      }
+      return run;
+    }
+
+    private void advance() throws ExecException {
+      if (tuples.hasNext()) {
+        next = tuples.next();
+        nextKey = getObject(next, keyName);
+      } else {
+        next = null;
+        nextKey = null;
+      }
+    }
+  }
+
+  /**
+   * Joins bags sorted on their join keys by advancing through all of them together, one key at a time.
+   */
+  private DataBag mergeJoin(Tuple input, Map<String,String> joinKeyNames) throws IOException
+  {
+    int numBags = bagNames.size();
+    MergeCursor[] cursors = new MergeCursor[numBags];
+    int[] offsets = new int[numBags + 1];
+    for (int i = 0; i < numBags; i++) {
+      String bagName = bagNames.get(i);
+      DataBag bag = getBag(input, bagName);
+      if (bag == null) throw new IOException("Error in instance: "+getInstanceName()
+              + " with properties: " + getInstanceProperties()
+              + " and tuple: " + input.toDelimitedString(", ")
+              + " -- Expected bag, got null");
+      String joinKeyName = getPrefixedAliasName(bagNameToJoinKeyPrefix.get(bagName), joinKeyNames.get(bagName));
+      cursors[i] = new MergeCursor(bagName, bag, joinKeyName);
+      offsets[i + 1] = offsets[i] + bagNameToSize.get(bagName);
+    }
+
+    DataBag outputBag = BagFactory.getInstance().newDefaultBag();
+    List<List<Tuple>> runs = new ArrayList<List<Tuple>>(Collections.<List<Tuple>>nCopies(numBags, null));
+
+    while (true) {
+      // find the smallest key among the bags that have not been exhausted
+      Object key = null;
+      boolean found = false;
+      for (MergeCursor cursor : cursors) {
+        if (cursor.hasNext() && (!found || DataType.compare(cursor.peekKey(), key) < 0)) {
+          key = cursor.peekKey();
+          found = true;
+        }
+      }
+      if (!found) {
+        break;
+      }
+
+      // a null run means the bag has no tuples with the key, so its fields are left null
+      int present = 0;
+      for (int i = 0; i < numBags; i++) {
+        MergeCursor cursor = cursors[i];
+        if (cursor.hasNext() && DataType.compare(cursor.peekKey(), key) == 0) {
+          runs.set(i, cursor.nextRun());
+          present++;
+        } else {
+          runs.set(i, null);
+        }
+      }
+
+      if ((joinType == JoinType.INNER && present < numBags) || (joinType == JoinType.LEFT && runs.get(0) == null)) {
+        continue;
+      }
+
+      addJoinedTuples(outputBag, runs, offsets, TupleFactory.getInstance().newTuple(offsets[numBags]), 0);
+    }
+
+    return outputBag;
+  }
+
+  /**
+   * Adds the cross product of the runs of the given bag and those after it, with the fields
+   * of each bag written at its offset in tuples allocated at their final size.
+   */
+  private void addJoinedTuples(DataBag outputBag, List<List<Tuple>> runs, int[] offsets, Tuple joined, int bag)
+      throws ExecException
+  {
+    if (bag == runs.size()) {
+      outputBag.add(joined);
+      return;
+    }
+    List<Tuple> run = runs.get(bag);
+    if (run == null) {
+      addJoinedTuples(outputBag, runs, offsets, joined, bag + 1);
+      return;
+    }
+    int size = offsets[bag + 1] - offsets[bag];
+    for (int r = 0; r < run.size(); r++) {
+      // the last tuple of the run fills in the given tuple, the others fill in copies of its fields so far
+      Tuple target = joined;
+      if (r < run.size() - 1) {
+        target = TupleFactory.getInstance().newTuple(offsets[runs.size()]);
+        for (int i = 0; i < offsets[bag]; i++) {
+          target.set(i, joined.get(i));
+        }
+      }
+      Tuple t = run.get(r);
+      int n = Math.min(size, t.size());
+      for (int i = 0; i < n; i++) {
+        target.set(offsets[bag] + i, t.get(i));
+      }
+      addJoinedTuples(outputBag, runs, offsets, target, bag + 1);
+    }
+  }
+
   @Override
   public Schema getOutputSchema(Schema input)
   {
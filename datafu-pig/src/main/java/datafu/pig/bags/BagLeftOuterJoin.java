@@ -47,6 +47,8 @@ import datafu.pig.util.AliasableEvalFunc;
  * The format for invocation is BagLeftOuterJoin(bag, 'key',....).  
  * This UDF expects that all bags are non-null and that there is a corresponding key for each bag.  
  * The <em>key</em> that is expected is the alias of the key inside of the preceding bag.
+ * Bags already sorted on their keys can be joined with a streaming sort-merge join by passing 'merge'
+ * in the definition, as described in {@link BagJoin}.
  * </p> 
  * 
  * <p>
@@ -72,5 +74,9 @@ public class BagLeftOuterJoin extends BagJoin
     super("left");
   }
 
+  public BagLeftOuterJoin(String algorithm) {
+    super("left", algorithm);
+  }
+
 }
 
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A read-only view of the tuples of several bags, one bag after another.
+ */
+class ConcatenatedBag extends DataBagView
+{
+  private static final long serialVersionUID = 1L;
+
+  private final List<DataBag> bags;
+
+  public ConcatenatedBag(List<DataBag> bags)
+  {
+    this.bags = bags;
+  }
+
+  @Override
+  protected long viewSize()
+  {
+    long size = 0;
+    for (DataBag bag : bags) {
+      size += bag.size();
+    }
+    return size;
+  }
+
+  @Override
+  protected Iterator<Tuple> viewIterator()
+  {
+    return new Iterator<Tuple>()
+    {
+      private final Iterator<DataBag> bagIterator = bags.iterator();
+      private Iterator<Tuple> current;
+
+      @Override
+      public boolean hasNext()
+      {
+        while (current == null || !current.hasNext()) {
+          if (!bagIterator.hasNext()) {
+            return false;
+          }
+          current = bagIterator.next().iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public Tuple next()
+      {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
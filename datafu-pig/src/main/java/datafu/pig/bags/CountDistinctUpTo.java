@@ -19,6 +19,7 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -27,9 +28,11 @@ import org.apache.commons.logging.Log;
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -37,6 +40,14 @@ import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import datafu.pig.util.FieldHashing;
+
 /**
  * Generates a count of the number of distinct tuples in a bag, up to a preset limit.
  *
@@ -45,11 +56,23 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  * Use this UDF when your threshold is low, and some records have a distinct count that is much higher. In such cases this UDF will prevent memory problems
  * and perform an order of magnitude faster than using pure Pig.
  *
+ * <p>
+ * By default the distinct tuples themselves are kept, and passed between the combiner and reducer, which becomes
+ * expensive for thresholds in the thousands or more. An optional second parameter selects a hashed mode, in which
+ * only a 64-bit hash of each tuple, computed from its typed fields, is kept in a primitive set:
+ * </p>
+ * <ul>
+ * <li>'exact' keeps the hashes up to the limit, so the count is exact up to it (barring hash collisions)</li>
+ * <li>'approximate' keeps the hashes until there are more than 4096 of them, and then moves to a HyperLogLog++
+ * sketch, so counts beyond that are estimates with an error of about 1%</li>
+ * </ul>
+ *
  * Example:
  * <pre>
  * {@code
  * DEFINE CountDistinctUpTo10 datafu.pig.bags.CountDistinctUpTo('10');
  * DEFINE CountDistinctUpTo3 datafu.pig.bags.CountDistinctUpTo('3');
+ * DEFINE CountDistinctUpTo100K datafu.pig.bags.CountDistinctUpTo('100000', 'approximate');
  *
  * -- input:
  * -- {(A),(B),(D),(A),(C),(E),(A),(B),(A),(B)}
@@ -70,8 +93,17 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 	private static final TupleFactory tupleFactory = TupleFactory.getInstance();
 	private static final BagFactory bagFactory = BagFactory.getInstance();
 
+	private static final String EXACT = "exact";
+	private static final String APPROXIMATE = "approximate";
+
+	// number of hashes beyond which the approximate mode moves to a sketch
+	private static final int SKETCH_CUTOVER = 4096;
+	private static final int SKETCH_PRECISION = 14;
+	private static final int SKETCH_SPARSE_PRECISION = 25;
+
 	// for accumulator implementation
 	private Set<Tuple> set;
+	private DistinctHashes hashes;
 	private final int max;
 
 	public CountDistinctUpTo(String maxAmount) {
@@ -79,8 +111,27 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 		set = new HashSet<Tuple>(max);
 	}
 
+	public CountDistinctUpTo(String maxAmount, String mode) {
+		max = Integer.valueOf(maxAmount);
+		hashes = new DistinctHashes(max, isExact(mode));
+	}
+
+	private static boolean isExact(String mode) {
+		if (EXACT.equalsIgnoreCase(mode)) {
+			return true;
+		}
+		if (APPROXIMATE.equalsIgnoreCase(mode)) {
+			return false;
+		}
+		throw new IllegalArgumentException("Expected mode to be '" + EXACT + "' or '" + APPROXIMATE + "' but found: " + mode);
+	}
+
 	@Override
 	public void accumulate(Tuple tuple) throws IOException {
+		if (hashes != null) {
+			hashes.addAll(tuple);
+			return;
+		}
 		count(set, tuple, max, log);
 	}
 
@@ -139,13 +190,56 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 		return set;
 	}
 
+	/**
+	 * Merges the hashes and partial results in the input bag (output by the initial and intermediate
+	 * implementations in hashed mode)
+	 *
+	 * Used by the algebraic implementation. Returns null if the maximum was reached
+	 */
+	private static DistinctHashes makeDistinctHashes(Tuple input, int max, boolean exact) throws ExecException {
+		DistinctHashes hashes = new DistinctHashes(max, exact);
+
+		DataBag bag = (DataBag) input.get(0);
+
+		for (Tuple t : bag) {
+			Object partial = t.get(0);
+
+			// the maximum has already been reached in the combiner
+			if (partial == null) {
+				return null;
+			}
+
+			if (partial instanceof Long) {
+				hashes.add((Long) partial);
+				// checking a sketch is not cheap, so it is only checked after merging partial results
+				if (!hashes.isSketch() && hashes.isFull()) {
+					return null;
+				}
+			} else {
+				hashes.merge((DataByteArray) partial);
+				if (hashes.isFull()) {
+					return null;
+				}
+			}
+		}
+
+		return hashes.isFull() ? null : hashes;
+	}
+
 	@Override
 	public void cleanup() {
+		if (hashes != null) {
+			hashes.clear();
+			return;
+		}
 		set.clear();
 	}
 
 	@Override
 	public Integer getValue() {
+		if (hashes != null) {
+			return hashes.count();
+		}
 		return set.size();
 	}
 
@@ -167,6 +261,8 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 	/**
 	 * Outputs a tuple containing a DataBag containing a single tuple T (the original schema) or an empty bag
 	 *
+	 * In hashed mode outputs a tuple containing the hash of T instead, or an empty partial result.
+	 *
 	 * <pre>
      * {@code
 	 *  T -> ({T})
@@ -175,17 +271,41 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 	 */
 	public static class Initial extends EvalFunc<Tuple> {
 
-		public Initial() {}
-		public Initial(String maxAmount) {}
+		private final boolean hashed;
+
+		public Initial() {
+			hashed = false;
+		}
+
+		public Initial(String maxAmount) {
+			hashed = false;
+		}
+
+		public Initial(String maxAmount, String mode) {
+			isExact(mode);
+			hashed = true;
+		}
 
 		@Override
 		public Tuple exec(Tuple input) throws IOException {
 			DataBag inputBag = (DataBag) input.get(0);
 			Iterator<Tuple> it = inputBag.iterator();
+
+			if (hashed) {
+				// in hashed mode the tuple is replaced by its hash, or by an empty partial result
+				if (it.hasNext()) {
+					Tuple t = it.next();
+					if ((t != null) && (t.size() > 0) && (t.get(0) != null)) {
+						return tupleFactory.newTuple((Object) FieldHashing.hash64(t));
+					}
+				}
+				return tupleFactory.newTuple(new DistinctHashes(0, true).toBytes());
+			}
+
 			DataBag outputBag = bagFactory.newDefaultBag();
 
 			if (it.hasNext()) {
-				Tuple t = (Tuple) it.next();
+				Tuple t = it.next();
 				if ((t != null) && (t.size() > 0) && (t.get(0) != null)) {
 					outputBag.add(t);
 				}
@@ -213,10 +333,13 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 	 * {({T}),({T}),({T}) ..} -> (null)
 	 * }
 	 * </pre>
+	 *
+	 * In hashed mode the hashes and partial results are merged, and output as a single serialized partial result.
 	 */
 	public static class Intermediate extends EvalFunc<Tuple> {
 
 		private final int max;
+		private final Boolean exact;
 
 		public Intermediate() {
 			this("0");
@@ -224,10 +347,21 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 
 		public Intermediate(String maxAmount) {
 			max = Integer.valueOf(maxAmount);
+			exact = null;
+		}
+
+		public Intermediate(String maxAmount, String mode) {
+			max = Integer.valueOf(maxAmount);
+			exact = isExact(mode);
 		}
 
 		@Override
 		public Tuple exec(Tuple input) throws IOException {
+			if (exact != null) {
+				DistinctHashes hashes = makeDistinctHashes(input, max, exact);
+				return tupleFactory.newTuple(hashes == null ? null : hashes.toBytes());
+			}
+
 			Set<Tuple> set = makeDistinctSet(input, max, log);
 
 			// this is the optimistic case, in which we already have enough distinct tuples in the combiner to stop counting
@@ -265,6 +399,7 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 	public static class Final extends EvalFunc<Integer> {
 
 		private final int max;
+		private final Boolean exact;
 
 		public Final() {
 			this("0");
@@ -272,10 +407,21 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 
 		public Final(String maxAmount) {
 			max = Integer.valueOf(maxAmount);
+			exact = null;
+		}
+
+		public Final(String maxAmount, String mode) {
+			max = Integer.valueOf(maxAmount);
+			exact = isExact(mode);
 		}
 
 		@Override
 		public Integer exec(Tuple input) throws IOException {
+			if (exact != null) {
+				DistinctHashes hashes = makeDistinctHashes(input, max, exact);
+				return hashes == null ? max : hashes.count();
+			}
+
 			Set<Tuple> set = makeDistinctSet(input, max, log);
 
 			if (set == null) {
@@ -306,4 +452,127 @@ public class CountDistinctUpTo extends AccumulatorEvalFunc<Integer> implements A
 
 		return new Schema(new FieldSchema("CountDistinctUpTo", DataType.INTEGER));
 	}
+
+	/**
+	 * Distinct 64-bit tuple hashes, held in a primitive set up to the maximum, or in the approximate mode up to
+	 * a cutover, beyond which they are moved to a HyperLogLog++ sketch.
+	 */
+	private static class DistinctHashes {
+
+		private static final byte SET = 0;
+		private static final byte SKETCH = 1;
+
+		private final int max;
+		private final boolean exact;
+		private final LongOpenHashSet set = new LongOpenHashSet();
+		private HyperLogLogPlus sketch;
+
+		DistinctHashes(int max, boolean exact) {
+			this.max = max;
+			this.exact = exact;
+		}
+
+		/**
+		 * Adds the hashes of the tuples in the bag in the first field of the input, stopping once the maximum is reached
+		 */
+		void addAll(Tuple input) throws ExecException {
+			if (input == null || isFull()) {
+				return;
+			}
+
+			DataBag bag = (DataBag) input.get(0);
+
+			if (bag == null) {
+				return;
+			}
+
+			for (Tuple t : bag) {
+				add(FieldHashing.hash64(t));
+				// checking a sketch is not cheap, so it is only checked once per bag
+				if (sketch == null && set.size() == max) {
+					return;
+				}
+			}
+		}
+
+		void add(long hash) {
+			if (sketch != null) {
+				sketch.offerHashed(hash);
+			} else if (set.add(hash) && !exact && set.size() > SKETCH_CUTOVER) {
+				toSketch();
+			}
+		}
+
+		/**
+		 * Merges a partial result serialized by {@link #toBytes()}
+		 */
+		void merge(DataByteArray partial) throws ExecException {
+			ByteBuffer buffer = ByteBuffer.wrap(partial.get());
+			if (buffer.get() == SKETCH) {
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				try {
+					HyperLogLogPlus other = HyperLogLogPlus.Builder.build(bytes);
+					if (sketch == null) {
+						toSketch();
+					}
+					sketch.addAll(other);
+				} catch (IOException e) {
+					throw new ExecException("Error while deserializing sketch", 2106, PigException.BUG, e);
+				} catch (CardinalityMergeException e) {
+					throw new ExecException("Error while merging sketches", 2106, PigException.BUG, e);
+				}
+			} else {
+				while (buffer.hasRemaining()) {
+					add(buffer.getLong());
+				}
+			}
+		}
+
+		boolean isSketch() {
+			return sketch != null;
+		}
+
+		boolean isFull() {
+			return count() >= max;
+		}
+
+		int count() {
+			if (sketch != null) {
+				return (int) Math.min(sketch.cardinality(), max);
+			}
+			return Math.min(set.size(), max);
+		}
+
+		DataByteArray toBytes() throws ExecException {
+			if (sketch != null) {
+				try {
+					byte[] bytes = sketch.getBytes();
+					return new DataByteArray(ByteBuffer.allocate(bytes.length + 1).put(SKETCH).put(bytes).array());
+				} catch (IOException e) {
+					throw new ExecException("Error while serializing sketch", 2106, PigException.BUG, e);
+				}
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(set.size() * 8 + 1).put(SET);
+			for (LongIterator it = set.iterator(); it.hasNext();) {
+				buffer.putLong(it.nextLong());
+			}
+			return new DataByteArray(buffer.array());
+		}
+
+		void clear() {
+			set.clear();
+			set.trim();
+			sketch = null;
+		}
+
+		private void toSketch() {
+			sketch = new HyperLogLogPlus(SKETCH_PRECISION, SKETCH_SPARSE_PRECISION);
+			for (LongIterator it = set.iterator(); it.hasNext();) {
+				sketch.offerHashed(it.nextLong());
+			}
+			set.clear();
+			set.trim();
+		}
+	}
 }
@@ -19,11 +19,18 @@
 
 package datafu.pig.bags;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
@@ -35,11 +42,20 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 /**
  * Generates a count of the number of times each distinct tuple appears in a bag.
  *
+ * <p>
+ * This UDF implements {@link org.apache.pig.Algebraic}, so when possible the counts are partially computed on the
+ * mappers and merged in the combiner, and only one (tuple, count) pair per distinct tuple is shuffled.
+ * It implements the {@link org.apache.pig.Accumulator} interface as well.
+ * The counts are kept in memory for up to 100000 distinct tuples by default.  Beyond that they are spilled
+ * to disk and merged when the output is generated.  The limit can be set with the optional second argument.
+ * </p>
+ *
  * Example:
  * <pre>
  * {@code
  * DEFINE CountEach datafu.pig.bags.CountEach();
  * DEFINE CountEachFlatten datafu.pig.bags.CountEach('flatten');
+ * DEFINE CountEachSmall datafu.pig.bags.CountEach('flatten', '10000');
  * 
  * -- input: 
  * -- ({(A),(A),(C),(B)})
@@ -55,19 +71,37 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * } 
  * </pre>
  */
-public class CountEach extends AccumulatorEvalFunc<DataBag>
+public class CountEach extends AccumulatorEvalFunc<DataBag> implements Algebraic
 {
+  private static final String DEFAULT_MAX_IN_MEMORY = "100000";
+
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+
   private boolean flatten = false;
-  private Map<Tuple, Integer> counts = new HashMap<Tuple, Integer>();
+  private String arg;
+  private String maxInMemory;
+  private Counts counts;
   
   public CountEach() {
-    
+    this("");
   }
   
   public CountEach(String arg) {
+    this(arg, DEFAULT_MAX_IN_MEMORY);
+  }
+
+  /**
+   * @param arg 'flatten' to flatten the counted tuples in the output
+   * @param maxInMemory number of distinct tuples to count in memory before spilling to disk
+   */
+  public CountEach(String arg, String maxInMemory) {
     if (arg != null && arg.toLowerCase().equals("flatten")) {
       flatten = true;
     }
+    this.arg = arg == null ? "" : arg;
+    this.maxInMemory = maxInMemory;
+    this.counts = new Counts(Integer.parseInt(maxInMemory));
   }
 
   @Override
@@ -77,38 +111,244 @@ public class CountEach extends AccumulatorEvalFunc<DataBag>
     if (inputBag == null) throw new IllegalArgumentException("Expected a bag, got null");
     
     for (Tuple tuple : inputBag) {
-      if (!counts.containsKey(tuple)) {
-        counts.put(tuple, 0);
-      }
-      counts.put(tuple, counts.get(tuple)+1);
+      counts.add(tuple, 1);
     }
   }
 
   @Override
   public DataBag getValue()
   {
-    DataBag output = BagFactory.getInstance().newDefaultBag();
-    for (Tuple tuple : counts.keySet()) {
+    try {
+      return counts.toBag(flatten);
+    }
+    catch (ExecException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void cleanup()
+  {
+    counts.clear();
+  }
+
+  private String getParam()
+  {
+    // the EvalFunc constructor validates the algebraic functions before the arguments are set
+    if (maxInMemory == null) {
+      return "";
+    }
+    return String.format("('%s','%s')", arg, maxInMemory);
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+    public Initial(String arg) {}
+    public Initial(String arg, String maxInMemory) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // the input is a bag with a single tuple, whose partial count is 1
+      DataBag output = bagFactory.newDefaultBag();
+      for (Tuple tuple : (DataBag)input.get(0)) {
+        Tuple counted = tupleFactory.newTuple(2);
+        counted.set(0, tuple);
+        counted.set(1, 1);
+        output.add(counted);
+      }
+      return tupleFactory.newTuple(output);
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int maxInMemory;
+
+    public Intermediate()
+    {
+      this("", DEFAULT_MAX_IN_MEMORY);
+    }
+
+    public Intermediate(String arg)
+    {
+      this(arg, DEFAULT_MAX_IN_MEMORY);
+    }
+
+    public Intermediate(String arg, String maxInMemory)
+    {
+      this.maxInMemory = Integer.parseInt(maxInMemory);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return tupleFactory.newTuple(combine(input, maxInMemory, false, this));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataBag>
+  {
+    private final boolean flatten;
+    private final int maxInMemory;
+
+    public Final()
+    {
+      this("", DEFAULT_MAX_IN_MEMORY);
+    }
+
+    public Final(String arg)
+    {
+      this(arg, DEFAULT_MAX_IN_MEMORY);
+    }
+
+    public Final(String arg, String maxInMemory)
+    {
+      this.flatten = arg != null && arg.toLowerCase().equals("flatten");
+      this.maxInMemory = Integer.parseInt(maxInMemory);
+    }
+
+    @Override
+    public DataBag exec(Tuple input) throws IOException
+    {
+      return combine(input, maxInMemory, flatten, this);
+    }
+  }
+
+  /**
+   * Merges the bags of partial (tuple, count) pairs produced by Initial and Intermediate.
+   */
+  static private DataBag combine(Tuple input, int maxInMemory, boolean flatten, EvalFunc<?> func) throws IOException
+  {
+    try {
+      Counts counts = new Counts(maxInMemory);
+      for (Tuple partial : (DataBag)input.get(0)) {
+        for (Tuple counted : (DataBag)partial.get(0)) {
+          counts.add((Tuple)counted.get(0), (Integer)counted.get(1));
+        }
+      }
+      return counts.toBag(flatten);
+    } catch (ExecException ee) {
+      throw ee;
+    } catch (Exception e) {
+      int errCode = 2106;
+      String msg = "Error while counting tuples in " + func.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+
+  /**
+   * Counts of distinct tuples, which are kept in memory up to a maximum number of distinct tuples.
+   * Beyond that the counts are written to a sorted bag that is spilled to disk, so that the partial
+   * counts of each tuple are adjacent when the bag is read back.
+   */
+  static private class Counts
+  {
+    private final int maxInMemory;
+    private final Object2IntOpenHashMap<Tuple> counts = new Object2IntOpenHashMap<Tuple>();
+    private DataBag spilled;
+
+    Counts(int maxInMemory)
+    {
+      this.maxInMemory = maxInMemory;
+    }
+
+    void add(Tuple tuple, int count) throws ExecException
+    {
+      counts.addTo(tuple, count);
+      if (counts.size() > maxInMemory) {
+        spill();
+      }
+    }
+
+    private void spill() throws ExecException
+    {
+      if (spilled == null) {
+        spilled = bagFactory.newSortedBag(null);
+      }
+      for (ObjectIterator<Object2IntMap.Entry<Tuple>> it = counts.object2IntEntrySet().fastIterator(); it.hasNext();) {
+        Object2IntMap.Entry<Tuple> entry = it.next();
+        Tuple counted = tupleFactory.newTuple(2);
+        counted.set(0, entry.getKey());
+        counted.set(1, entry.getIntValue());
+        spilled.add(counted);
+      }
+      counts.clear();
+      spilled.spill();
+    }
+
+    DataBag toBag(boolean flatten) throws ExecException
+    {
+      DataBag output = bagFactory.newDefaultBag();
+      if (spilled == null) {
+        for (ObjectIterator<Object2IntMap.Entry<Tuple>> it = counts.object2IntEntrySet().fastIterator(); it.hasNext();) {
+          Object2IntMap.Entry<Tuple> entry = it.next();
+          output.add(toOutput(entry.getKey(), entry.getIntValue(), flatten));
+        }
+        return output;
+      }
+
+      spill();
+      Tuple current = null;
+      int count = 0;
+      for (Iterator<Tuple> it = spilled.iterator(); it.hasNext();) {
+        Tuple counted = it.next();
+        Tuple tuple = (Tuple)counted.get(0);
+        if (current != null && !current.equals(tuple)) {
+          output.add(toOutput(current, count, flatten));
+          count = 0;
+        }
+        current = tuple;
+        count += (Integer)counted.get(1);
+      }
+      if (current != null) {
+        output.add(toOutput(current, count, flatten));
+      }
+      return output;
+    }
+
+    private static Tuple toOutput(Tuple tuple, int count, boolean flatten)
+    {
       Tuple outputTuple = null;
-      Tuple innerTuple = TupleFactory.getInstance().newTuple(tuple.getAll());
+      Tuple innerTuple = tupleFactory.newTuple(tuple.getAll());
       if (flatten) {        
-        innerTuple.append(counts.get(tuple));
+        innerTuple.append(count);
         outputTuple = innerTuple;
       } else {
-        outputTuple = TupleFactory.getInstance().newTuple();
+        outputTuple = tupleFactory.newTuple();
         outputTuple.append(innerTuple);
-        outputTuple.append(counts.get(tuple));
+        outputTuple.append(count);
       }
-      output.add(outputTuple);
+      return outputTuple;
     }
 
-    return output;
-  }
-
-  @Override
-  public void cleanup()
-  {
-    counts.clear();
+    void clear()
+    {
+      counts.clear();
+      if (spilled != null) {
+        spilled.clear();
+        spilled = null;
+      }
+    }
   }
   
   @Override
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.ReadOnceBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.BagFormat;
+
+/**
+ * A read-only bag whose tuples are computed lazily from other bags each time it is iterated,
+ * so that UDFs which only rearrange the tuples of their input bags need not copy them.
+ *
+ * <p>
+ * The view holds no tuples itself, so there is nothing for it to spill; the bags it is built from
+ * remain spillable.  It is serialized by iterating over it.  Should the bag be modified, its tuples
+ * are first copied into a default bag which then backs it.
+ * </p>
+ */
+abstract class DataBagView implements DataBag
+{
+  private static final long serialVersionUID = 1L;
+
+  // holds the tuples once the view has been modified or read
+  private DataBag materialized;
+
+  /**
+   * Returns the number of tuples in the view, preferably without iterating over them.
+   */
+  protected abstract long viewSize();
+
+  protected abstract Iterator<Tuple> viewIterator();
+
+  /**
+   * Returns a bag which can be iterated over more than once, copying the given bag if it
+   * can only be read once.
+   */
+  static DataBag reiterable(DataBag bag)
+  {
+    if (bag instanceof ReadOnceBag) {
+      DataBag copy = BagFactory.getInstance().newDefaultBag();
+      copy.addAll(bag);
+      return copy;
+    }
+    return bag;
+  }
+
+  @Override
+  public long size()
+  {
+    return materialized != null ? materialized.size() : viewSize();
+  }
+
+  @Override
+  public Iterator<Tuple> iterator()
+  {
+    return materialized != null ? materialized.iterator() : viewIterator();
+  }
+
+  @Override
+  public boolean isSorted()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isDistinct()
+  {
+    return false;
+  }
+
+  @Override
+  public void add(Tuple t)
+  {
+    materialize().add(t);
+  }
+
+  @Override
+  public void addAll(DataBag b)
+  {
+    materialize().addAll(b);
+  }
+
+  @Override
+  public void clear()
+  {
+    materialized = BagFactory.getInstance().newDefaultBag();
+  }
+
+  @Override
+  public void markStale(boolean stale)
+  {
+  }
+
+  @Override
+  public long spill()
+  {
+    return materialized != null ? materialized.spill() : 0;
+  }
+
+  @Override
+  public long getMemorySize()
+  {
+    return materialized != null ? materialized.getMemorySize() : 0;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException
+  {
+    InterSedesFactory.getInterSedesInstance().writeDatum(out, this);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    bag.readFields(in);
+    materialized = bag;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int compareTo(Object other)
+  {
+    // comparing bags is rare enough that it is simplest to compare a copy
+    DataBag copy = BagFactory.getInstance().newDefaultBag();
+    copy.addAll(this);
+    return copy.compareTo(other);
+  }
+
+  @Override
+  public boolean equals(Object other)
+  {
+    return other instanceof DataBag && compareTo(other) == 0;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = 1;
+    for (Tuple t : this) {
+      hash = 37 * hash + t.hashCode();
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString()
+  {
+    return BagFormat.format(this);
+  }
+
+  private DataBag materialize()
+  {
+    if (materialized == null) {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (Iterator<Tuple> it = viewIterator(); it.hasNext();) {
+        bag.add(it.next());
+      }
+      materialized = bag;
+    }
+    return materialized;
+  }
+}
@@ -20,7 +20,11 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeSet;
 
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -32,6 +36,12 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import datafu.pig.util.FieldHashing;
+
 /**
  * Get distinct elements in a bag by a given set of field positions.
  * The input and output schemas will be identical.  
@@ -41,10 +51,22 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * This operation is order preserving.  If both A and B appear in the output,
  * and A appears before B in the input, then A will appear before B in the output.
  * 
+ * <p>
+ * By default the distinct combinations of fields seen so far are kept in memory.  When 'fingerprint' is passed
+ * in addition to the field positions, only a 128-bit fingerprint of each combination is kept, in a primitive
+ * hash set.  Once the set holds 1000000 fingerprints, or the number given by an optional 'maxFingerprintsInMemory=N'
+ * argument, they are spilled to disk as a sorted run, along with the position in the output of the first tuple having
+ * each, and the set is cleared.  When the output is generated the
+ * runs are merged, and tuples whose fingerprint had already been seen in an earlier run are dropped from the output,
+ * so large bags can be processed in bounded memory.  Two distinct combinations of fields having the same
+ * fingerprint is astronomically unlikely.
+ * </p>
+ * 
  * Example:
  * <pre>
  * {@code
  * define DistinctBy datafu.pig.bags.DistinctBy('0');
+ * define DistinctByFingerprint datafu.pig.bags.DistinctBy('0', 'fingerprint');
  * 
  * -- input:
  * -- ({(a, 1),(a,1),(b, 2),(b,22),(c, 3),(d, 4)})
@@ -59,18 +81,64 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  */
 public class DistinctBy extends AccumulatorEvalFunc<DataBag>
 {
-  private HashSet<Integer> fields = new HashSet<Integer>();
+  private static final String FINGERPRINT = "fingerprint";
+  private static final String MAX_FINGERPRINTS_IN_MEMORY = "maxFingerprintsInMemory=";
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  // field positions in increasing order
+  private final int[] fields;
+  private final boolean fingerprint;
+  private int maxFingerprintsInMemory = 1000000;
+
   private HashSet<Tuple> seen = new HashSet<Tuple>();
   private DataBag outputBag;
+
+  // fingerprint mode: fingerprints of the current run, with the output position of their first tuple
+  private FingerprintSet fingerprints;
+  // fingerprint mode: spilled runs of (fingerprint high bits, fingerprint low bits, output position)
+  private DataBag runs;
+  private long position;
   
   public DistinctBy(String... fields)
   {
+    TreeSet<Integer> positions = new TreeSet<Integer>();
+    boolean fingerprint = false;
     for(String field : fields) {
-      this.fields.add(Integer.parseInt(field));
+      if (FINGERPRINT.equalsIgnoreCase(field)) {
+        fingerprint = true;
+      } else if (field.startsWith(MAX_FINGERPRINTS_IN_MEMORY)) {
+        this.maxFingerprintsInMemory = Integer.parseInt(field.substring(MAX_FINGERPRINTS_IN_MEMORY.length()));
+        if (this.maxFingerprintsInMemory <= 0) {
+          throw new IllegalArgumentException("maxFingerprintsInMemory must be positive");
+        }
+      } else {
+        positions.add(Integer.parseInt(field));
+      }
+    }
+    this.fingerprint = fingerprint;
+    this.fields = new int[positions.size()];
+    int i = 0;
+    for (Integer position : positions) {
+      this.fields[i++] = position;
     }
     cleanup();
   }
 
+  /**
+   * Sets the maximum number of fingerprints held in memory in fingerprint mode, beyond which they are spilled to disk.
+   *
+   * @param maxFingerprintsInMemory maximum number of fingerprints held in memory
+   */
+  public void setMaxFingerprintsInMemory(int maxFingerprintsInMemory)
+  {
+    if (maxFingerprintsInMemory <= 0) {
+      throw new IllegalArgumentException("maxFingerprintsInMemory must be positive");
+    }
+    this.maxFingerprintsInMemory = maxFingerprintsInMemory;
+    this.fingerprints = null;
+    cleanup();
+  }
+
   @Override
   public void accumulate(Tuple input) throws IOException
   {
@@ -82,8 +150,22 @@ public class DistinctBy extends AccumulatorEvalFunc<DataBag>
     }
     
     DataBag inputBag = (DataBag)input.get(0);
+    if (fingerprint) {
+      for (Tuple t : inputBag) {
+        byte[] hash = getFingerprint(t);
+        ByteBuffer buffer = ByteBuffer.wrap(hash);
+        if (fingerprints.add(buffer.getLong(), buffer.getLong(), position)) {
+          outputBag.add(t);
+          position++;
+          if (fingerprints.size() >= maxFingerprintsInMemory) {
+            spillFingerprints();
+          }
+        }
+      }
+      return;
+    }
     for (Tuple t : inputBag) {
-      Tuple distinctFieldTuple = getDistinctFieldTuple(t, this.fields);
+      Tuple distinctFieldTuple = getDistinctFieldTuple(t);
       if (!seen.contains(distinctFieldTuple)) {
         outputBag.add(t);
         seen.add(distinctFieldTuple);
@@ -96,13 +178,84 @@ public class DistinctBy extends AccumulatorEvalFunc<DataBag>
   {
     seen.clear();
     outputBag = BagFactory.getInstance().newDefaultBag();
+    if (fingerprint) {
+      if (fingerprints == null) {
+        fingerprints = new FingerprintSet(maxFingerprintsInMemory);
+      } else {
+        fingerprints.reset();
+      }
+      if (runs != null) {
+        runs.clear();
+      }
+      runs = null;
+      position = 0;
+    }
   }
 
   @Override
   public DataBag getValue()
   {
+    if (runs != null) {
+      try {
+        outputBag = removeDuplicatesAcrossRuns();
+      }
+      catch (ExecException e) {
+        throw new RuntimeException(e);
+      }
+    }
     return outputBag;
   }
+
+  private void spillFingerprints() throws ExecException
+  {
+    if (runs == null) {
+      runs = BagFactory.getInstance().newSortedBag(null);
+    }
+    fingerprints.addTo(runs);
+    runs.spill();
+    fingerprints.clear();
+  }
+
+  /*
+   * Merges the sorted runs, in which the occurrences of each fingerprint are adjacent and ordered by position,
+   * and drops the tuples of all occurrences but the first from the output.
+   */
+  private DataBag removeDuplicatesAcrossRuns() throws ExecException
+  {
+    spillFingerprints();
+
+    DataBag duplicates = BagFactory.getInstance().newSortedBag(null);
+    long hi = 0, lo = 0;
+    boolean first = true;
+    for (Tuple run : runs) {
+      long runHi = (Long)run.get(0);
+      long runLo = (Long)run.get(1);
+      if (!first && runHi == hi && runLo == lo) {
+        duplicates.add(TupleFactory.getInstance().newTuple(run.get(2)));
+      }
+      hi = runHi;
+      lo = runLo;
+      first = false;
+    }
+    runs.clear();
+    runs = null;
+
+    DataBag distinct = BagFactory.getInstance().newDefaultBag();
+    Iterator<Tuple> duplicateIterator = duplicates.iterator();
+    long nextDuplicate = duplicateIterator.hasNext() ? (Long)duplicateIterator.next().get(0) : -1;
+    long outputPosition = 0;
+    for (Tuple t : outputBag) {
+      if (outputPosition == nextDuplicate) {
+        nextDuplicate = duplicateIterator.hasNext() ? (Long)duplicateIterator.next().get(0) : -1;
+      } else {
+        distinct.add(t);
+      }
+      outputPosition++;
+    }
+    duplicates.clear();
+    outputBag.clear();
+    return distinct;
+  }
   
   @Override
   public Schema outputSchema(Schema input)
@@ -145,16 +298,139 @@ public class DistinctBy extends AccumulatorEvalFunc<DataBag>
     }
   }
   
-  private Tuple getDistinctFieldTuple(Tuple t, HashSet<Integer> distinctFieldPositions) throws ExecException {
-    Tuple fieldTuple = TupleFactory.getInstance().newTuple(distinctFieldPositions.size());
-    int idx = 0;
-    for(int i=0; i<t.size(); i++) {
-      if (distinctFieldPositions.contains(i)) {
-        fieldTuple.set(idx, t.get(i));
-        idx++;
-      }
+  private Tuple getDistinctFieldTuple(Tuple t) throws ExecException {
+    Tuple fieldTuple = TupleFactory.getInstance().newTuple(fields.length);
+    int size = t.size();
+    for(int idx=0; idx<fields.length && fields[idx] < size; idx++) {
+      fieldTuple.set(idx, t.get(fields[idx]));
     }
     return fieldTuple;
   }
 
+  private byte[] getFingerprint(Tuple t) throws ExecException {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    int size = t.size();
+    for(int idx=0; idx<fields.length; idx++) {
+      FieldHashing.putField(hasher, fields[idx] < size ? t.get(fields[idx]) : null);
+    }
+    return hasher.hash().asBytes();
+  }
+
+  /*
+   * Open addressing hash set of 128-bit fingerprints held in primitive arrays,
+   * recording the output position of the first tuple having each fingerprint.
+   * The arrays start small and are doubled as the set fills, up to the size
+   * needed to hold the maximum number of fingerprints.
+   */
+  private static class FingerprintSet
+  {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int maxCapacity;
+    private long[] hi;
+    private long[] lo;
+    private long[] positions;
+    private int mask;
+    private int size;
+
+    FingerprintSet(int maxSize)
+    {
+      // keep the load factor at most one half
+      maxCapacity = Integer.highestOneBit(Math.max(maxSize, 2) * 2 - 1) << 1;
+      reset();
+    }
+
+    /* returns true if the fingerprint was not already in the set */
+    boolean add(long h, long l, long position)
+    {
+      if (2 * (size + 1) > positions.length && positions.length < maxCapacity) {
+        resize(2 * positions.length);
+      }
+      int i = (int)(h ^ (h >>> 32)) & mask;
+      while (positions[i] >= 0) {
+        if (hi[i] == h && lo[i] == l) {
+          return false;
+        }
+        i = (i + 1) & mask;
+      }
+      hi[i] = h;
+      lo[i] = l;
+      positions[i] = position;
+      size++;
+      return true;
+    }
+
+    private void resize(int capacity)
+    {
+      long[] oldHi = hi;
+      long[] oldLo = lo;
+      long[] oldPositions = positions;
+      allocate(capacity);
+      if (oldPositions == null) {
+        return;
+      }
+      for (int j = 0; j < oldPositions.length; j++) {
+        if (oldPositions[j] >= 0) {
+          long h = oldHi[j];
+          int i = (int)(h ^ (h >>> 32)) & mask;
+          while (positions[i] >= 0) {
+            i = (i + 1) & mask;
+          }
+          hi[i] = h;
+          lo[i] = oldLo[j];
+          positions[i] = oldPositions[j];
+        }
+      }
+    }
+
+    private void allocate(int capacity)
+    {
+      hi = new long[capacity];
+      lo = new long[capacity];
+      positions = new long[capacity];
+      Arrays.fill(positions, -1L);
+      mask = capacity - 1;
+    }
+
+    int size()
+    {
+      return size;
+    }
+
+    void addTo(DataBag bag)
+    {
+      for (int i = 0; i < positions.length; i++) {
+        if (positions[i] >= 0) {
+          Tuple t = TupleFactory.getInstance().newTuple(3);
+          try {
+            t.set(0, hi[i]);
+            t.set(1, lo[i]);
+            t.set(2, positions[i]);
+          }
+          catch (ExecException e) {
+            throw new RuntimeException(e);
+          }
+          bag.add(t);
+        }
+      }
+    }
+
+    /* empties the set, keeping the arrays for the next run of the same bag */
+    void clear()
+    {
+      Arrays.fill(positions, -1L);
+      size = 0;
+    }
+
+    /* empties the set, releasing the arrays if they have grown */
+    void reset()
+    {
+      if (positions == null || positions.length > Math.min(INITIAL_CAPACITY, maxCapacity)) {
+        allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+      } else {
+        Arrays.fill(positions, -1L);
+      }
+      size = 0;
+    }
+  }
 }
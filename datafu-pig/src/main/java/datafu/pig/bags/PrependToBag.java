@@ -21,7 +21,6 @@ package datafu.pig.bags;
 
 import java.io.IOException;
 
-import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
@@ -33,7 +32,9 @@ import datafu.pig.util.SimpleEvalFunc;
 /**
  * Prepends a tuple to a bag.
  *
- * <p>N.B. this copies the entire input bag, so don't use it for large bags.</p>
+ * <p>
+ * The output is a lazily iterated view of the tuple followed by the input bag, so the bag is not copied.
+ * </p>
  *
  * Example:
  * <pre>
@@ -56,11 +57,7 @@ public class PrependToBag extends SimpleEvalFunc<DataBag>
 {
   public DataBag call(DataBag inputBag, Tuple t) throws IOException
   {
-    DataBag outputBag = BagFactory.getInstance().newDefaultBag();
-    outputBag.add(t);
-    for (Tuple x : inputBag)
-      outputBag.add(x);
-    return outputBag;
+    return new PrependedBag(t, DataBagView.reiterable(inputBag));
   }
 
   @Override
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A read-only view of a bag with a tuple in front of its tuples.
+ */
+class PrependedBag extends DataBagView
+{
+  private static final long serialVersionUID = 1L;
+
+  private final Tuple first;
+  private final DataBag bag;
+
+  public PrependedBag(Tuple first, DataBag bag)
+  {
+    this.first = first;
+    this.bag = bag;
+  }
+
+  @Override
+  protected long viewSize()
+  {
+    return bag.size() + 1;
+  }
+
+  @Override
+  protected Iterator<Tuple> viewIterator()
+  {
+    return new Iterator<Tuple>()
+    {
+      private Iterator<Tuple> rest;
+
+      @Override
+      public boolean hasNext()
+      {
+        return rest == null || rest.hasNext();
+      }
+
+      @Override
+      public Tuple next()
+      {
+        if (rest == null) {
+          rest = bag.iterator();
+          return first;
+        }
+        if (!rest.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return rest.next();
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -20,14 +20,16 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.apache.pig.EvalFunc;
+import org.apache.pig.builtin.Nondeterministic;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.tools.pigstats.PigStatusReporter;
 
@@ -48,11 +50,79 @@ import org.apache.pig.tools.pigstats.PigStatusReporter;
  * output = FOREACH input GENERATE UnorderedPairs(B);
  * }
  * </pre>
+ *
+ * <p>
+ * By default all of the pairs are created up front in the output bag, which for a bag of n tuples
+ * holds n(n-1)/2 pairs that Pig may have to spill before they are used.  Passing 'lazy' instead returns
+ * a bag which generates the pairs from an indexed snapshot of the input bag each time it is iterated.
+ * </p>
+ *
+ * <p>
+ * The number of pairs for each input bag can be bounded by two further optional parameters:
+ * the maximum number of pairs, where 0 means there is no maximum, and the probability of keeping each pair.
+ * Pairs are kept at random, but the same ones are kept each time a lazy bag is iterated.  The maximum
+ * keeps the first pairs in the order shown above, so use it with sampling for a less biased subset.
+ * A fourth optional parameter seeds the sampling, so that rerunning a script keeps the same pairs of each
+ * bag.  An empty seed samples without a fixed seed.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * -- at most 10000 pairs per bag, out of a 1% sample of the pairs
+ * define SampledPairs datafu.pig.bags.UnorderedPairs('lazy', '10000', '0.01');
+ * }
+ * </pre>
  */
+@Nondeterministic
 public class UnorderedPairs extends EvalFunc<DataBag>
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
-  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  private final boolean lazy;
+  private final long maxPairs;
+  private final double sampleRate;
+  private final Long seed;
+  private final Random random = new Random();
+
+  public UnorderedPairs()
+  {
+    this("eager");
+  }
+
+  public UnorderedPairs(String mode)
+  {
+    this(mode, "0");
+  }
+
+  public UnorderedPairs(String mode, String maxPairs)
+  {
+    this(mode, maxPairs, "1.0");
+  }
+
+  public UnorderedPairs(String mode, String maxPairs, String sampleRate)
+  {
+    this(mode, maxPairs, sampleRate, "");
+  }
+
+  public UnorderedPairs(String mode, String maxPairs, String sampleRate, String seed)
+  {
+    if ("lazy".equals(mode.toLowerCase())) {
+      this.lazy = true;
+    } else if ("eager".equals(mode.toLowerCase())) {
+      this.lazy = false;
+    } else {
+      throw new IllegalArgumentException("Invalid constructor argument.  Valid values are 'eager' or 'lazy', found: " + mode);
+    }
+    this.maxPairs = Long.parseLong(maxPairs);
+    if (this.maxPairs < 0) {
+      throw new IllegalArgumentException("Expected the maximum number of pairs to be 0 or more, found: " + maxPairs);
+    }
+    this.sampleRate = Double.parseDouble(sampleRate);
+    if (this.sampleRate <= 0.0 || this.sampleRate > 1.0) {
+      throw new IllegalArgumentException("Expected the sample rate to be in (0, 1], found: " + sampleRate);
+    }
+    this.seed = seed.length() > 0 ? Long.parseLong(seed) : null;
+  }
 
   @Override
   public DataBag exec(Tuple input) throws IOException
@@ -61,32 +131,39 @@ public class UnorderedPairs extends EvalFunc<DataBag>
 
     try {
       DataBag inputBag = (DataBag) input.get(0);
-      DataBag outputBag = bagFactory.newDefaultBag();
-      long i=0, j, cnt=0;
 
-      if (inputBag != null)
+      if (inputBag == null)
       {
-        for (Tuple elem1 : inputBag) {
-          j = 0; 
-          for (Tuple elem2 : inputBag) {
-            if (j > i) {
-              outputBag.add(tupleFactory.newTuple(Arrays.asList(elem1, elem2)));
-              cnt++;
-            }
-            j++;
-  
-            if (reporter != null)
-              reporter.progress();
-  
-            if (cnt % 1000000 == 0) {
-              outputBag.spill();
-              cnt = 0;
-            }
-          }
-          i++;
+        return bagFactory.newDefaultBag();
+      }
+
+      List<Tuple> snapshot = new ArrayList<Tuple>((int) inputBag.size());
+      for (Tuple elem : inputBag) {
+        snapshot.add(elem);
+      }
+      DataBag pairs = new UnorderedPairsBag(snapshot.toArray(new Tuple[snapshot.size()]),
+                                            maxPairs, sampleRate, seed != null ? seed : random.nextLong());
+
+      if (lazy)
+      {
+        return pairs;
+      }
+
+      DataBag outputBag = bagFactory.newDefaultBag();
+      long cnt=0;
+      for (Tuple pair : pairs) {
+        outputBag.add(pair);
+        cnt++;
+
+        if (reporter != null)
+          reporter.progress();
+
+        if (cnt % 1000000 == 0) {
+          outputBag.spill();
+          cnt = 0;
         }
       }
-      
+
       return outputBag;
     }
     catch (Exception e) {
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * A read-only view of the unordered pairs of the tuples in a snapshot of a bag, generated as it
+ * is iterated.
+ *
+ * <p>
+ * The pairs (i,j) with i &lt; j are generated in order of i and then j.  Each pair may be kept with
+ * a given probability, and the number of pairs may be capped, in which case the first pairs kept
+ * are the ones generated.  The pairs kept are chosen by a seeded random number generator, so the
+ * same pairs are generated each time the view is iterated.
+ * </p>
+ */
+class UnorderedPairsBag extends DataBagView
+{
+  private static final long serialVersionUID = 1L;
+
+  private final Tuple[] tuples;
+  private final long maxPairs;
+  private final double sampleRate;
+  private final long seed;
+  private long size = -1;
+
+  /**
+   * @param tuples the tuples to pair
+   * @param maxPairs the maximum number of pairs, or 0 for no maximum
+   * @param sampleRate the probability of keeping each pair
+   * @param seed the seed used to choose the pairs kept
+   */
+  public UnorderedPairsBag(Tuple[] tuples, long maxPairs, double sampleRate, long seed)
+  {
+    this.tuples = tuples;
+    this.maxPairs = maxPairs;
+    this.sampleRate = sampleRate;
+    this.seed = seed;
+  }
+
+  @Override
+  protected long viewSize()
+  {
+    if (size < 0) {
+      long n = tuples.length;
+      long pairs = n * (n - 1) / 2;
+      if (sampleRate < 1.0) {
+        // the number of pairs sampled is only known by sampling them, but not creating them is cheap
+        pairs = 0;
+        for (PairCursor cursor = new PairCursor(); cursor.advance(); ) {
+          pairs++;
+        }
+      }
+      size = maxPairs > 0 ? Math.min(pairs, maxPairs) : pairs;
+    }
+    return size;
+  }
+
+  @Override
+  protected Iterator<Tuple> viewIterator()
+  {
+    return new Iterator<Tuple>()
+    {
+      private final PairCursor cursor = new PairCursor();
+      private long count;
+      private boolean advanced;
+      private boolean hasNext;
+
+      @Override
+      public boolean hasNext()
+      {
+        if (!advanced) {
+          hasNext = (maxPairs <= 0 || count < maxPairs) && cursor.advance();
+          advanced = true;
+        }
+        return hasNext;
+      }
+
+      @Override
+      public Tuple next()
+      {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        advanced = false;
+        count++;
+        Tuple pair = TupleFactory.getInstance().newTuple(2);
+        try {
+          pair.set(0, tuples[cursor.i]);
+          pair.set(1, tuples[cursor.j]);
+        }
+        catch (ExecException e) {
+          throw new RuntimeException(e);
+        }
+        return pair;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Steps through the indexes of the pairs kept.  When sampling, the number of pairs skipped
+   * before the next one kept is drawn from a geometric distribution, rather than drawing a
+   * random number for every pair.
+   */
+  private class PairCursor
+  {
+    private final Random random = sampleRate < 1.0 ? new Random(seed) : null;
+    private final double logSkipRate = Math.log(1.0 - sampleRate);
+    int i = 0;
+    int j = 0;
+
+    boolean advance()
+    {
+      int n = tuples.length;
+      long step = 1;
+      if (random != null) {
+        double skip = Math.floor(Math.log(1.0 - random.nextDouble()) / logSkipRate);
+        if (skip >= (double) n * n) {
+          // past the last pair
+          i = n;
+          return false;
+        }
+        step += (long) skip;
+      }
+      long next = j + step;
+      while (next >= n && i < n) {
+        // move to the start of the next row, whose first pair is (i + 1, i + 2)
+        i++;
+        next = next - n + i + 1;
+      }
+      if (i >= n - 1) {
+        i = n;
+        return false;
+      }
+      j = (int) next;
+      return true;
+    }
+  }
+}
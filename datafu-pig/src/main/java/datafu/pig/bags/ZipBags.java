@@ -46,38 +46,30 @@ import java.util.*;
  * </pre>
  * For this to work as expected each bag should be the same length. It will run as long as
  * the first bag is the shortest however this may not be the desired behavior.
+ * The output is a lazily iterated view of the input bags, so the zipped tuples are
+ * only created as it is read.
  */
 public class ZipBags extends EvalFunc<DataBag> {
 
 
     @Override
     public DataBag exec(Tuple input) throws IOException {
-        DataBag outputBag = new DefaultDataBag();
         //All bags should have the same length for this to work as expected
-        List<Iterator<Tuple>> bagIterators = new ArrayList<Iterator<Tuple>>();
+        List<DataBag> bags = new ArrayList<DataBag>();
         for (int i = 0; i < input.size(); ++i) {
             Object obj = input.get(i);
             if (obj instanceof DataBag) {
-                DataBag bag = (DataBag)obj;
-                bagIterators.add(bag.iterator());
+                DataBag bag = DataBagView.reiterable((DataBag)obj);
+                if (!bags.isEmpty() && bag.size() < bags.get(0).size()) {
+                    throw new IllegalArgumentException("The first bag must be the shortest one");
+                }
+                bags.add(bag);
             }
             else {
                 throw new IllegalArgumentException("Expected all fields to be bags");
             }
         }
-        while (bagIterators.get(0).hasNext()) {
-            Tuple nextTuple = new DefaultTuple();
-            for (Iterator<Tuple> iter : bagIterators) {
-                if (!iter.hasNext()) {
-                    throw new IllegalArgumentException("The first bag must be the shortest one");
-                }
-                Tuple tempTuple = iter.next();
-                //This loop is to flatten the tuples stored in the DataBag
-                for (int i = 0; i < tempTuple.size(); ++i) nextTuple.append(tempTuple.get(i));
-            }
-            outputBag.add(nextTuple);
-        }
-        return outputBag;
+        return new ZippedBag(bags);
     }
 
     @Override
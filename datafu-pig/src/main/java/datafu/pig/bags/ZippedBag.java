@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * A read-only view of several bags zipped together, where the nth tuple holds the fields of
+ * the nth tuples of all of the bags.  The first bag must be the shortest.
+ */
+class ZippedBag extends DataBagView
+{
+  private static final long serialVersionUID = 1L;
+
+  private final List<DataBag> bags;
+
+  public ZippedBag(List<DataBag> bags)
+  {
+    this.bags = bags;
+  }
+
+  @Override
+  protected long viewSize()
+  {
+    return bags.get(0).size();
+  }
+
+  @Override
+  protected Iterator<Tuple> viewIterator()
+  {
+    final List<Iterator<Tuple>> iterators = new ArrayList<Iterator<Tuple>>(bags.size());
+    for (DataBag bag : bags) {
+      iterators.add(bag.iterator());
+    }
+    final Tuple[] tuples = new Tuple[bags.size()];
+
+    return new Iterator<Tuple>()
+    {
+      @Override
+      public boolean hasNext()
+      {
+        return iterators.get(0).hasNext();
+      }
+
+      @Override
+      public Tuple next()
+      {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int size = 0;
+        for (int i = 0; i < tuples.length; i++) {
+          Iterator<Tuple> iter = iterators.get(i);
+          if (!iter.hasNext()) {
+            throw new IllegalArgumentException("The first bag must be the shortest one");
+          }
+          tuples[i] = iter.next();
+          size += tuples[i].size();
+        }
+        // the zipped tuple is allocated at its final size and filled in
+        Tuple zipped = TupleFactory.getInstance().newTuple(size);
+        int position = 0;
+        try {
+          for (Tuple t : tuples) {
+            for (int i = 0; i < t.size(); i++) {
+              zipped.set(position++, t.get(i));
+            }
+          }
+        }
+        catch (ExecException e) {
+          throw new RuntimeException(e);
+        }
+        return zipped;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
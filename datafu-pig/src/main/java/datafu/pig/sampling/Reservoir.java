@@ -19,30 +19,175 @@
 
 package datafu.pig.sampling;
 
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.Random;
 
-class Reservoir extends PriorityQueue<ScoredTuple>
+import org.apache.pig.data.Tuple;
+
+/**
+ * Keeps the tuples with the highest scores seen so far.  The scores and tuples are held in parallel arrays
+ * arranged as a binary min-heap, so candidates that are rejected are not allocated.
+ *
+ * <p>
+ * Tuples are either offered with a score, as when merging samples whose scores were drawn earlier,
+ * or with a weight, in which case the score is drawn as u^(1/weight) for u uniform on (0,1].  Weighted
+ * offers use the exponential jumps of A-ExpJ (Efraimidis and Spirakis): once the reservoir is full, the
+ * total weight to pass over before the next insertion is drawn at once, so random numbers are only drawn
+ * for insertions.  For n tuples of similar weight this is O(k log(n/k)) draws rather than n.
+ * </p>
+ */
+class Reservoir
 {
-  private static final long serialVersionUID = 1L;
-  private int numSamples;
-  
+  private final int numSamples;
+  private final double[] scores;
+  private final Tuple[] tuples;
+  private int size;
+
+  private final Random random = new Random();
+
+  // the weight remaining to pass over before the next weighted insertion, drawn when needed
+  private double skipWeight = Double.NaN;
+
   public Reservoir(int numSamples)
   {
-    super(numSamples);
     this.numSamples = numSamples;
+    this.scores = new double[numSamples];
+    this.tuples = new Tuple[numSamples];
   }
-  
-  public boolean consider(ScoredTuple scoredTuple)
+
+  public int size()
   {
-    if (super.size() < numSamples) {
-      return super.add(scoredTuple);
-    } else {      
-      ScoredTuple head = super.peek();
-      if (scoredTuple.score > head.score) {
-        super.poll();
-        return super.add(scoredTuple);
-      }
+    return size;
+  }
+
+  public double getScore(int i)
+  {
+    return scores[i];
+  }
+
+  public Tuple getTuple(int i)
+  {
+    return tuples[i];
+  }
+
+  public void clear()
+  {
+    Arrays.fill(tuples, 0, size, null);
+    size = 0;
+    skipWeight = Double.NaN;
+  }
+
+  /**
+   * Offers a tuple with a score that has already been drawn.
+   */
+  public boolean consider(double score, Tuple tuple)
+  {
+    if (size < numSamples) {
+      add(score, tuple);
+      return true;
+    } else if (size > 0 && score > scores[0]) {
+      replaceMin(score, tuple);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Offers a tuple with a positive weight, drawing its score only if it is to be inserted.
+   */
+  public boolean considerWeighted(Tuple tuple, double weight)
+  {
+    if (size < numSamples) {
+      add(Math.pow(nextUniform(), 1.0/weight), tuple);
+      return true;
+    } else if (size == 0) {
       return false;
     }
+
+    if (Double.isNaN(skipWeight)) {
+      skipWeight = Math.log(nextUniform()) / Math.log(scores[0]);
+    }
+    skipWeight -= weight;
+    if (skipWeight > 0) {
+      return false;
+    }
+
+    // the score of the tuple is conditioned on exceeding the lowest score in the reservoir
+    double threshold = Math.pow(scores[0], weight);
+    double u = threshold + (1.0 - threshold) * random.nextDouble();
+    replaceMin(Math.pow(u, 1.0/weight), tuple);
+    return true;
+  }
+
+  /**
+   * Removes the tuple with the lowest score and returns it.
+   */
+  public Tuple poll()
+  {
+    if (size == 0) {
+      return null;
+    }
+    Tuple min = tuples[0];
+    size--;
+    if (size > 0) {
+      scores[0] = scores[size];
+      tuples[0] = tuples[size];
+      siftDown();
+    }
+    tuples[size] = null;
+    skipWeight = Double.NaN;
+    return min;
+  }
+
+  private double nextUniform()
+  {
+    return 1.0 - random.nextDouble();
+  }
+
+  private void add(double score, Tuple tuple)
+  {
+    int i = size++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (scores[parent] <= score) {
+        break;
+      }
+      scores[i] = scores[parent];
+      tuples[i] = tuples[parent];
+      i = parent;
+    }
+    scores[i] = score;
+    tuples[i] = tuple;
+    skipWeight = Double.NaN;
+  }
+
+  private void replaceMin(double score, Tuple tuple)
+  {
+    scores[0] = score;
+    tuples[0] = tuple;
+    siftDown();
+    skipWeight = Double.NaN;
+  }
+
+  private void siftDown()
+  {
+    double score = scores[0];
+    Tuple tuple = tuples[0];
+    int i = 0;
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2*i + 1;
+      if (child + 1 < size && scores[child + 1] < scores[child]) {
+        child++;
+      }
+      if (score <= scores[child]) {
+        break;
+      }
+      scores[i] = scores[child];
+      tuples[i] = tuples[child];
+      i = child;
+    }
+    scores[i] = score;
+    tuples[i] = tuple;
   }
 }
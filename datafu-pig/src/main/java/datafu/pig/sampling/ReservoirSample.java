@@ -24,6 +24,7 @@ import java.io.IOException;
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.builtin.Nondeterministic;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -47,7 +48,8 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * 
  * <p>
  * This algebraic implementation is backed by a heap and maintains the original roll in order
- * to compensate for skew.
+ * to compensate for skew.  Once the heap is full, the number of tuples to pass over before the next
+ * one enters it is drawn directly, so random numbers are not drawn for tuples that are rejected.
  * </p>
  * 
  */
@@ -58,8 +60,6 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   
   private Reservoir reservoir;
   
-  protected ScoredTuple.ScoreGenerator scoreGen;
-  
   private Reservoir getReservoir()
   {
     if (reservoir == null) {
@@ -73,37 +73,37 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
     this.numSamples = Integer.parseInt(numSamples);    
   }
   
-  protected ScoredTuple.ScoreGenerator getScoreGenerator()
+  /**
+   * Gets the weight of a sample, which is the same for all samples in a simple random sample.
+   */
+  protected double getWeight(Tuple sample) throws ExecException
   {
-      if(this.scoreGen == null)
-      {
-          this.scoreGen = new ScoredTuple.PureRandomScoreGenerator();
-      }
-      return this.scoreGen;
+    return 1.0;
   }
   
   @Override
   public void accumulate(Tuple input) throws IOException
   {
     DataBag samples = (DataBag) input.get(0);
-    ScoredTuple.ScoreGenerator scoreGen = getScoreGenerator();
+    Reservoir reservoir = getReservoir();
     for (Tuple sample : samples) {
-      getReservoir().consider(new ScoredTuple(scoreGen.generateScore(sample), sample));
+      reservoir.considerWeighted(sample, getWeight(sample));
     }  
   }
 
   @Override
   public void cleanup()
   {
-    this.reservoir.clear();
+    getReservoir().clear();
   }
 
   @Override
   public DataBag getValue()
   {
     DataBag output = BagFactory.getInstance().newDefaultBag();  
-    for (ScoredTuple sample : getReservoir()) {
-      output.add(sample.getTuple());
+    Reservoir reservoir = getReservoir();
+    for (int i = 0; i < reservoir.size(); i++) {
+      output.add(reservoir.getTuple(i));
     }
     return output;
   }
@@ -170,7 +170,6 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   {
     int numSamples;
     private Reservoir reservoir;
-    protected ScoredTuple.ScoreGenerator scoreGen;
     TupleFactory tupleFactory = TupleFactory.getInstance();
     
     public Initial(){}
@@ -188,42 +187,28 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
       return reservoir;
     }
     
-    protected ScoredTuple.ScoreGenerator getScoreGenerator()
+    protected double getWeight(Tuple sample) throws ExecException
     {
-        if(this.scoreGen == null)
-        {
-            this.scoreGen = new ScoredTuple.PureRandomScoreGenerator();
-        }
-        return this.scoreGen;
+      return 1.0;
     }
 
     @Override
     public Tuple exec(Tuple input) throws IOException {
       DataBag output = BagFactory.getInstance().newDefaultBag();
       
-      ScoredTuple.ScoreGenerator scoreGen = getScoreGenerator();
-      
       DataBag samples = (DataBag) input.get(0);
-      if (samples == null)
+      if (samples != null)
       {
-        // do nothing
-      }
-      else if (samples.size() <= numSamples) {
-        // no need to construct a reservoir, so just emit intermediate tuples
-        for (Tuple sample : samples) {
-          // add the score on to the intermediate tuple
-          output.add(new ScoredTuple(scoreGen.generateScore(sample), sample).getIntermediateTuple(tupleFactory));
-        }
-      } else {     
-        getReservoir().clear();
+        Reservoir reservoir = getReservoir();
+        reservoir.clear();
         
         for (Tuple sample : samples) {
-          getReservoir().consider(new ScoredTuple(scoreGen.generateScore(sample), sample));
+          reservoir.considerWeighted(sample, getWeight(sample));
         }    
         
-        for (ScoredTuple scoredTuple : getReservoir()) {
+        for (int i = 0; i < reservoir.size(); i++) {
           // add the score on to the intermediate tuple
-          output.add(scoredTuple.getIntermediateTuple(tupleFactory));
+          output.add(new ScoredTuple(reservoir.getScore(i), reservoir.getTuple(i)).getIntermediateTuple(tupleFactory));
         }
       }
 
@@ -263,14 +248,15 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
         
         for (Tuple sample : samples) {
           // use the same score as previously generated
-          getReservoir().consider(ScoredTuple.fromIntermediateTuple(sample));
+          getReservoir().consider((Double) sample.get(0), (Tuple) sample.get(1));
         }
       }
       
       DataBag output = BagFactory.getInstance().newDefaultBag();
-      for (ScoredTuple scoredTuple : getReservoir()) {
+      Reservoir reservoir = getReservoir();
+      for (int i = 0; i < reservoir.size(); i++) {
         // add the score on to the intermediate tuple
-        output.add(scoredTuple.getIntermediateTuple(tupleFactory));
+        output.add(new ScoredTuple(reservoir.getScore(i), reservoir.getTuple(i)).getIntermediateTuple(tupleFactory));
       }
 
       return tupleFactory.newTuple(output);
@@ -309,14 +295,15 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
         
         for (Tuple sample : samples) {
           // use the same score as previously generated
-          getReservoir().consider(ScoredTuple.fromIntermediateTuple(sample));
+          getReservoir().consider((Double) sample.get(0), (Tuple) sample.get(1));
         }
       }
       
       DataBag output = BagFactory.getInstance().newDefaultBag();  
-      for (ScoredTuple scoredTuple : getReservoir()) {
+      Reservoir reservoir = getReservoir();
+      for (int i = 0; i < reservoir.size(); i++) {
         // output the original tuple
-        output.add(scoredTuple.getTuple());
+        output.add(reservoir.getTuple(i));
       }
 
       return output;
@@ -22,8 +22,14 @@ package datafu.pig.sampling;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Map;
+
 import org.apache.pig.FilterFunc;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
+import org.joda.time.DateTime;
 
 /**
  * Provides a way of sampling tuples based on certain fields.
@@ -46,11 +52,20 @@ import org.apache.pig.data.Tuple;
  * SampleByKey will work deterministically as long as the same seed is provided.
  * </p>
  *
+ * <p>
+ * A third parameter selects how the key is hashed.  With 'sha1', the default, the fields' hash codes
+ * are combined and the result digested with SHA-1.  With 'murmur', the key fields are encoded
+ * by type and value and hashed with a seeded 64-bit Murmur hash.  This is faster and does not
+ * allocate per tuple.  It also does not depend on {@code hashCode()}, which is only 32 bits and
+ * for some types varies between JVMs.  The two modes select different keys for the same seed.
+ * </p>
+ *
  * Example:
  *
  * <pre>
  * {@code
  * DEFINE SampleByKey datafu.pig.sampling.SampleByKey('0.5');
+ * DEFINE FastSampleByKey datafu.pig.sampling.SampleByKey('0.5', 'salt', 'murmur');
  *
  *-- input: (A,1), (A,2), (A,3), (B,1), (B,3)
  *
@@ -68,6 +83,11 @@ public class SampleByKey extends FilterFunc
 
   Integer seed = null;
   double probability;
+  private boolean murmur = false;
+
+  private transient MessageDigest hasher;
+  private transient ByteBuffer buffer;
+  private transient KeyHasher keyHasher;
 
   public SampleByKey(String probability) {
     this.probability = Double.parseDouble(probability);
@@ -78,6 +98,15 @@ public class SampleByKey extends FilterFunc
     this.seed = salt.hashCode();
   }
 
+  public SampleByKey(String probability, String salt, String hash) {
+    this(probability, salt);
+    if ("murmur".equals(hash.toLowerCase())) {
+      this.murmur = true;
+    } else if (!"sha1".equals(hash.toLowerCase())) {
+      throw new IllegalArgumentException("Invalid hash.  Valid values are 'sha1' or 'murmur', found: " + hash);
+    }
+  }
+
   @Override
   public void setUDFContextSignature(String signature)
   {
@@ -90,14 +119,35 @@ public class SampleByKey extends FilterFunc
   @Override
   public Boolean exec(Tuple input) throws IOException
   {
+    return keyToRandomDouble(input, 0) <= probability;
+  }
+
+  /**
+   * Hashes the fields of the tuple from the given position on to a double that is uniformly distributed
+   * between 0 and 1.
+   */
+  protected double keyToRandomDouble(Tuple input, int start) throws IOException
+  {
+    if (murmur) {
+      if (keyHasher == null) {
+        keyHasher = new KeyHasher();
+      }
+      keyHasher.reset(seed == null ? PRIME_NUMBER : seed);
+      for (int i=start; i<input.size(); i++) {
+        keyHasher.add(input.get(i));
+      }
+      // the top 53 bits of the hash as a double in [0,1)
+      return (keyHasher.hash() >>> 11) * 0x1.0p-53;
+    }
+
     int hashCode = 0;
-    for(int i=0; i<input.size(); i++) {
+    for(int i=start; i<input.size(); i++) {
       Object each = input.get(i);
       hashCode = hashCode*PRIME_NUMBER + each.hashCode();
     }
 
     try {
-      return intToRandomDouble(hashCode) <= probability;
+      return intToRandomDouble(hashCode);
     }
     catch (Exception e) {
       e.printStackTrace();
@@ -107,21 +157,133 @@ public class SampleByKey extends FilterFunc
 
   private Double intToRandomDouble(int input) throws Exception
   {
-    MessageDigest hasher = MessageDigest.getInstance("sha-1");
+    if (hasher == null) {
+      hasher = MessageDigest.getInstance("sha-1");
+      buffer = ByteBuffer.allocate(4+4);
+    }
+
+    buffer.clear();
+    buffer.putInt(seed == null ? PRIME_NUMBER : seed);
+    buffer.putInt(input);
+    byte[] digest = hasher.digest(buffer.array());
+
+    int hash = ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8) | (digest[3] & 0xff);
+    return (((double)hash)/Integer.MAX_VALUE  + 1)/2;
+  }
+
+  /**
+   * Hashes a sequence of fields 64 bits at a time using the mixing steps of MurmurHash64A.
+   * Each field is encoded as a type tag followed by its value, so that for example the int 1 and
+   * the chararray '1' hash differently.  Numbers, chararrays and bytearrays are hashed without allocating.
+   */
+  private static class KeyHasher
+  {
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private long h;
+    private long length;
 
-    ByteBuffer b = ByteBuffer.allocate(4+4);
-    ByteBuffer b2 = ByteBuffer.allocate(20);
+    void reset(long seed)
+    {
+      h = seed;
+      length = 0;
+    }
 
-    b.putInt(seed == null ? PRIME_NUMBER : seed);
-    b.putInt(input);
-    byte[] digest = hasher.digest(b.array());
-    b.clear();
+    private void mix(long k)
+    {
+      k *= M;
+      k ^= k >>> R;
+      k *= M;
+      h ^= k;
+      h *= M;
+      length++;
+    }
 
-    b2.put(digest);
-    b2.rewind();
-    double result = (((double)b2.getInt())/Integer.MAX_VALUE  + 1)/2;
-    b2.clear();
+    long hash()
+    {
+      long result = h ^ (length * M);
+      result ^= result >>> R;
+      result *= M;
+      result ^= result >>> R;
+      return result;
+    }
 
-    return result;
+    void add(Object o) throws ExecException
+    {
+      if (o == null) {
+        mix(0);
+      } else if (o instanceof String) {
+        String s = (String) o;
+        mix(1);
+        mix(s.length());
+        long word = 0;
+        for (int i=0; i<s.length(); i++) {
+          word = (word << 16) | s.charAt(i);
+          if ((i & 3) == 3) {
+            mix(word);
+            word = 0;
+          }
+        }
+        if ((s.length() & 3) != 0) {
+          mix(word);
+        }
+      } else if (o instanceof Integer || o instanceof Long) {
+        mix(2);
+        mix(((Number) o).longValue());
+      } else if (o instanceof Float || o instanceof Double) {
+        mix(3);
+        mix(Double.doubleToLongBits(((Number) o).doubleValue()));
+      } else if (o instanceof Boolean) {
+        mix(4);
+        mix((Boolean) o ? 1 : 0);
+      } else if (o instanceof DataByteArray) {
+        byte[] bytes = ((DataByteArray) o).get();
+        mix(5);
+        mix(bytes.length);
+        long word = 0;
+        for (int i=0; i<bytes.length; i++) {
+          word = (word << 8) | (bytes[i] & 0xff);
+          if ((i & 7) == 7) {
+            mix(word);
+            word = 0;
+          }
+        }
+        if ((bytes.length & 7) != 0) {
+          mix(word);
+        }
+      } else if (o instanceof DateTime) {
+        mix(6);
+        mix(((DateTime) o).getMillis());
+      } else if (o instanceof Tuple) {
+        Tuple t = (Tuple) o;
+        mix(7);
+        mix(t.size());
+        for (int i=0; i<t.size(); i++) {
+          add(t.get(i));
+        }
+      } else if (o instanceof DataBag) {
+        mix(8);
+        mix(((DataBag) o).size());
+        for (Tuple t : (DataBag) o) {
+          add(t);
+        }
+      } else if (o instanceof Map) {
+        // the order of a map's entries is not defined, so they are combined with a commutative sum
+        long sum = 0;
+        for (Map.Entry<?,?> entry : ((Map<?,?>) o).entrySet()) {
+          KeyHasher entryHasher = new KeyHasher();
+          entryHasher.add(entry.getKey());
+          entryHasher.add(entry.getValue());
+          sum += entryHasher.hash();
+        }
+        mix(9);
+        mix(sum);
+      } else {
+        // BigInteger and BigDecimal
+        mix(10);
+        add(o.toString());
+      }
+    }
   }
 }
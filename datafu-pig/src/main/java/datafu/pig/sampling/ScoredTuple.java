@@ -89,19 +89,4 @@ class ScoredTuple implements Comparable<ScoredTuple>
     }
     return score.compareTo(o.score);
   }
-  
-  static interface ScoreGenerator
-  {      
-      double generateScore(Tuple sample) throws ExecException;
-  }
-  
-  static class PureRandomScoreGenerator implements ScoreGenerator
-  {
-      public PureRandomScoreGenerator(){}
-      
-      public double generateScore(Tuple sample)
-      {
-          return Math.random();
-      }
-  }
 }
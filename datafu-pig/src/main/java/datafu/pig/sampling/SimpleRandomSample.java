@@ -20,7 +20,6 @@
 package datafu.pig.sampling;
 
 import java.io.IOException;
-import java.util.Comparator;
 
 import org.apache.commons.math.random.RandomDataImpl;
 import org.apache.pig.AlgebraicEvalFunc;
@@ -92,6 +91,13 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * </p>
  *
  * <p>
+ * Waitlisted items are held with their scores in a primitive array, and the items are spilled to disk
+ * once they pass a memory budget, which may be set in bytes with the property
+ * datafu.sampling.waitlist.memory.bytes.  The final step chooses the items it needs from the waitlist
+ * by selecting a threshold on the scores, rather than by sorting the waitlist.
+ * </p>
+ *
+ * <p>
  * In the first version, the sampling probability is specified in the constructor. This
  * method is deprecated now and will be removed in the next release.
  * </p>
@@ -318,7 +324,7 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
       DataBag bag = (DataBag) input.get(0);
 
       DataBag selected = _BAG_FACTORY.newDefaultBag();
-      DataBag aggWaiting = _BAG_FACTORY.newDefaultBag();
+      Waitlist aggWaiting = new Waitlist();
 
       boolean first = true;
       double p = 0.0d;
@@ -347,15 +353,16 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
         double q1 = getQ1(n1, p);
         double q2 = getQ2(n1, p);
 
+        int i = 0;
         for (Tuple t : aggWaiting)
         {
-          ScoredTuple scored = ScoredTuple.fromIntermediateTuple(t);
+          double score = aggWaiting.getScore(i++);
 
-          if (scored.getScore() < q1)
+          if (score < q1)
           {
-            selected.add(scored.getTuple());
+            selected.add((Tuple) t.get(1));
           }
-          else if (scored.getScore() < q2)
+          else if (score < q2)
           {
             waiting.add(t);
           }
@@ -397,7 +404,7 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
       long n = 0L; // the size of the population (total number of items)
 
       DataBag selected = _BAG_FACTORY.newDefaultBag();
-      DataBag waiting = _BAG_FACTORY.newSortedBag(ScoredTupleComparator.getInstance());
+      Waitlist waiting = new Waitlist();
 
       for (Tuple tuple : bag)
       {
@@ -413,7 +420,7 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
       }
 
       long numSelected = selected.size();
-      long numWaiting = waiting.size();
+      int numWaiting = waiting.size();
 
       long s = (long) Math.ceil(p * n); // sample size
 
@@ -428,14 +435,19 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
             + ".");
       }
 
-      for (Tuple scored : waiting)
+      // take the waitlisted items with the lowest scores
+      if (numNeeded > 0)
       {
-        if (numNeeded <= 0)
+        boolean[] chosen = waiting.chooseLowest(numNeeded);
+        int i = 0;
+        for (Tuple scored : waiting)
         {
-          break;
+          if (chosen[i++])
+          {
+            selected.add((Tuple) scored.get(1));
+          }
         }
-        selected.add(ScoredTuple.fromIntermediateTuple(scored).getTuple());
-        numNeeded--;
+        numNeeded -= numWaiting;
       }
 
       if (numNeeded > 0)
@@ -472,29 +484,4 @@ public class SimpleRandomSample extends AlgebraicEvalFunc<DataBag>
 	}
   }
 
-  static class ScoredTupleComparator implements Comparator<Tuple>
-  {
-    public static final ScoredTupleComparator getInstance()
-    {
-      return _instance;
-    }
-
-    private static final ScoredTupleComparator _instance = new ScoredTupleComparator();
-
-    @Override
-    public int compare(Tuple o1, Tuple o2)
-    {
-      try
-      {
-        ScoredTuple t1 = ScoredTuple.fromIntermediateTuple(o1);
-        ScoredTuple t2 = ScoredTuple.fromIntermediateTuple(o2);
-        return t1.getScore().compareTo(t2.getScore());
-      }
-      catch (Throwable e)
-      {
-        throw new RuntimeException("Cannot compare " + o1 + " and " + o2 + ".", e);
-      }
-    }
-  }
-
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sampling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * Samples tuples based on certain fields, like {@link SampleByKey}, but with a sampling probability
+ * for each stratum.  This rebalances the strata in a single map-only pass, so that large strata can be
+ * sampled sparsely and rare ones kept.
+ *
+ * <p>
+ * The first field of the input is the stratum and the remaining fields are the key.  A key is
+ * selected when its hash, which is computed in the same way as by {@link SampleByKey}, falls below the
+ * rate of its stratum.  So with the same salt the selected keys are consistent across datasets, and
+ * raising the rate of a stratum only adds keys to its sample.
+ * </p>
+ *
+ * <p>
+ * The first parameter gives the rates, either inline as comma separated stratum=rate pairs, or as
+ * the path of a file with a tab separated stratum and rate on each line, which is shipped with the
+ * distributed cache.  The stratum '*' gives the rate of strata that are not listed, which is
+ * otherwise 0.  It may be followed by a salt and the hash to use, as for {@link SampleByKey}.
+ * </p>
+ *
+ * Example:
+ *
+ * <pre>
+ * {@code
+ * DEFINE StratifiedSampleByKey datafu.pig.sampling.StratifiedSampleByKey('US=0.01,CA=0.1,*=0.5', 'salt');
+ *
+ * data = LOAD 'input' AS (country:chararray, member_id:long, page:chararray);
+ * output = FILTER data BY StratifiedSampleByKey(country, member_id);
+ * }
+ * </pre>
+ */
+public class StratifiedSampleByKey extends SampleByKey
+{
+  private static final String DEFAULT_STRATUM = "*";
+  private static final String RATES_FILE = "stratified-sample-rates";
+
+  private final String rates;
+  private Map<String,Double> ratesByStratum;
+  private double defaultRate;
+
+  public StratifiedSampleByKey(String rates) {
+    // the probability is looked up for each stratum
+    super("0");
+    this.rates = rates;
+  }
+
+  public StratifiedSampleByKey(String rates, String salt) {
+    super("0", salt);
+    this.rates = rates;
+  }
+
+  public StratifiedSampleByKey(String rates, String salt, String hash) {
+    super("0", salt, hash);
+    this.rates = rates;
+  }
+
+  private boolean isInline()
+  {
+    return rates.contains("=");
+  }
+
+  @Override
+  public List<String> getCacheFiles() {
+    if (isInline()) {
+      return null;
+    }
+    List<String> list = new ArrayList<String>(1);
+    list.add(rates + "#" + RATES_FILE);
+    return list;
+  }
+
+  @Override
+  public Boolean exec(Tuple input) throws IOException
+  {
+    if (ratesByStratum == null) {
+      loadRates();
+    }
+
+    Object stratum = input.get(0);
+    Double rate = stratum == null ? null : ratesByStratum.get(stratum.toString());
+    if (rate == null) {
+      rate = defaultRate;
+    }
+    if (rate <= 0.0) {
+      return false;
+    }
+    return keyToRandomDouble(input, 1) <= rate;
+  }
+
+  private void loadRates() throws IOException
+  {
+    Map<String,Double> rates = new HashMap<String,Double>();
+    if (isInline()) {
+      for (String pair : this.rates.split(",")) {
+        addRate(rates, pair, "=");
+      }
+    } else {
+      // use the symlink from the distributed cache if it exists, otherwise the path itself, as when testing locally
+      String fileName = new File(RATES_FILE).exists() ? RATES_FILE : this.rates;
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.trim().length() > 0) {
+            addRate(rates, line, "\t");
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+
+    Double defaultRate = rates.remove(DEFAULT_STRATUM);
+    this.defaultRate = defaultRate == null ? 0.0 : defaultRate;
+    this.ratesByStratum = rates;
+  }
+
+  private static void addRate(Map<String,Double> rates, String pair, String separator)
+  {
+    int index = pair.lastIndexOf(separator);
+    if (index < 0) {
+      throw new IllegalArgumentException("Expected a stratum and rate separated by '" + separator + "' but found: " + pair);
+    }
+    String stratum = pair.substring(0, index).trim();
+    double rate = Double.parseDouble(pair.substring(index + 1).trim());
+    if (rate < 0.0 || rate > 1.0) {
+      throw new IllegalArgumentException("Expected a rate between 0 and 1 for stratum " + stratum + " but found: " + rate);
+    }
+    rates.put(stratum, rate);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sampling;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.UDFContext;
+
+/**
+ * Waitlisted candidates of {@link SimpleRandomSample}, which are intermediate tuples of a score and an item.
+ *
+ * <p>
+ * The scores are kept in a primitive array indexed by the order the candidates were added, while the
+ * candidates themselves are kept in a bag that is spilled to disk once its memory use passes a budget.
+ * The budget is set in bytes by the property {@value #MEMORY_BUDGET_PROPERTY}.  The best candidates are
+ * chosen by selecting a threshold on the scores alone, so the candidates are never sorted.
+ * </p>
+ */
+class Waitlist implements Iterable<Tuple>
+{
+  static final String MEMORY_BUDGET_PROPERTY = "datafu.sampling.waitlist.memory.bytes";
+  private static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  // how often to check the memory use of the candidates
+  private static final int CHECK_INTERVAL = 1024;
+
+  private final long memoryBudget;
+  private final DataBag candidates = BagFactory.getInstance().newDefaultBag();
+  private double[] scores = new double[CHECK_INTERVAL];
+  private int size;
+
+  Waitlist()
+  {
+    this(getMemoryBudget());
+  }
+
+  Waitlist(long memoryBudget)
+  {
+    this.memoryBudget = memoryBudget;
+  }
+
+  private static long getMemoryBudget()
+  {
+    Configuration conf = UDFContext.getUDFContext().getJobConf();
+    return conf == null ? DEFAULT_MEMORY_BUDGET : conf.getLong(MEMORY_BUDGET_PROPERTY, DEFAULT_MEMORY_BUDGET);
+  }
+
+  public void add(Tuple candidate) throws ExecException
+  {
+    if (size == scores.length) {
+      scores = Arrays.copyOf(scores, size * 2);
+    }
+    scores[size++] = (Double) candidate.get(0);
+    candidates.add(candidate);
+
+    if (size % CHECK_INTERVAL == 0 && candidates.getMemorySize() > memoryBudget) {
+      candidates.spill();
+    }
+  }
+
+  public void addAll(DataBag candidates) throws ExecException
+  {
+    for (Tuple candidate : candidates) {
+      add(candidate);
+    }
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public double getScore(int i)
+  {
+    return scores[i];
+  }
+
+  /**
+   * Iterates over the candidates in the order they were added.
+   */
+  @Override
+  public Iterator<Tuple> iterator()
+  {
+    return candidates.iterator();
+  }
+
+  /**
+   * Chooses the given number of candidates with the lowest scores.  Ties at the threshold are
+   * broken by the order the candidates were added.
+   *
+   * @return whether each candidate, by the order it was added, is chosen
+   */
+  public boolean[] chooseLowest(long count)
+  {
+    boolean[] chosen = new boolean[size];
+    if (count >= size) {
+      Arrays.fill(chosen, true);
+      return chosen;
+    } else if (count <= 0) {
+      return chosen;
+    }
+
+    double threshold = select(Arrays.copyOf(scores, size), (int) count - 1);
+
+    int numBelow = 0;
+    for (int i = 0; i < size; i++) {
+      if (scores[i] < threshold) {
+        numBelow++;
+      }
+    }
+    int numTies = (int) count - numBelow;
+    for (int i = 0; i < size; i++) {
+      if (scores[i] < threshold) {
+        chosen[i] = true;
+      } else if (scores[i] == threshold && numTies > 0) {
+        chosen[i] = true;
+        numTies--;
+      }
+    }
+    return chosen;
+  }
+
+  /**
+   * Finds the k-th smallest value by quickselect, reordering the values.
+   */
+  static double select(double[] values, int k)
+  {
+    int left = 0;
+    int right = values.length - 1;
+    while (left < right) {
+      // median of three pivot
+      int mid = (left + right) >>> 1;
+      double a = values[left], b = values[mid], c = values[right];
+      double pivot = a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b));
+
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (values[i] < pivot) {
+          i++;
+        }
+        while (values[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          double tmp = values[i];
+          values[i] = values[j];
+          values[j] = tmp;
+          i++;
+          j--;
+        }
+      }
+
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return values[k];
+      }
+    }
+    return values[k];
+  }
+}
@@ -31,7 +31,8 @@ import org.apache.pig.backend.executionengine.ExecException;
 /**
  * Performs a weighted random sample using an in-memory reservoir to produce
  * a weighted random sample of a given size based on the A-Res algorithm described in 
- * <a href="http://utopia.duth.gr/~pefraimi/research/data/2007EncOfAlg.pdf" target="_blank">paper</a>.
+ * <a href="http://utopia.duth.gr/~pefraimi/research/data/2007EncOfAlg.pdf" target="_blank">paper</a>,
+ * using the exponential jumps of A-ExpJ from the same paper to skip over tuples that would be rejected.
  *
  * <p>
  * Species with larger weight have higher probability to be selected in the final sample set.
@@ -76,13 +77,9 @@ public class WeightedReservoirSample extends ReservoirSample {
     }
     
     @Override
-    protected ScoredTuple.ScoreGenerator getScoreGenerator()
+    protected double getWeight(Tuple sample) throws ExecException
     {
-        if(super.scoreGen == null)
-        {
-            super.scoreGen = new InverseWeightScoreGenerator(this.weightIdx);
-        }
-        return this.scoreGen;
+        return getWeight(sample, this.weightIdx);
     }
     
     @Override
@@ -196,13 +193,9 @@ public class WeightedReservoirSample extends ReservoirSample {
       }
       
       @Override
-      protected ScoredTuple.ScoreGenerator getScoreGenerator()
+      protected double getWeight(Tuple sample) throws ExecException
       {
-          if(super.scoreGen == null)
-          {
-              super.scoreGen = new InverseWeightScoreGenerator(this.weightIdx);
-          }
-          return super.scoreGen;
+          return WeightedReservoirSample.getWeight(sample, this.weightIdx);
       }
     }
     
@@ -232,38 +225,25 @@ public class WeightedReservoirSample extends ReservoirSample {
         }        
     }
 
-    static class InverseWeightScoreGenerator implements ScoredTuple.ScoreGenerator
-    {        
-        //index of the weight field of the input tuple
-        private int weightIdx;
-        
-        InverseWeightScoreGenerator(Integer weightIdx) 
+    /**
+     * Reads the weight of a sample, which must be a positive number.
+     */
+    static double getWeight(Tuple sample, int weightIdx) throws ExecException
+    {
+        if(weightIdx >= sample.size())
         {
-            if(weightIdx == null || weightIdx < 0) {
-                throw new IllegalArgumentException("Invalid null or negative weight index input: " + weightIdx);
-            }
-            this.weightIdx = weightIdx;
+            throw new ExecException(String.format("Weight index %d is outside tuple bounds", weightIdx));
         }
-        
-        @Override
-        public double generateScore(Tuple sample) throws ExecException
+        if (sample.get(weightIdx) == null)
+        { 
+            throw new ExecException(String.format("null value for weight at index %d",weightIdx));
+        }
+        double weight = ((Number)sample.get(weightIdx)).doubleValue();
+        if(Double.compare(weight, 0.0) <= 0)
         {
-            if(this.weightIdx >= sample.size())
-            {
-                throw new ExecException(String.format("Weight index %d is outside tuple bounds", this.weightIdx));
-            }
-            if (sample.get(this.weightIdx) == null)
-            { 
-                throw new ExecException(String.format("null value for weight at index %d",this.weightIdx));
-            }
-            double weight = ((Number)sample.get(this.weightIdx)).doubleValue();
-            if(Double.compare(weight, 0.0) <= 0)
-            {
-                //non-positive weight should be avoided
-                throw new ExecException(String.format("Invalid sample weight [%f]. It should be a positive real number", weight));
-            }
-            //a differnt approach to try: u^(1/w) could be exp(log(u)/w) ?
-            return Math.pow(Math.random(), 1/weight);
+            //non-positive weight should be avoided
+            throw new ExecException(String.format("Invalid sample weight [%f]. It should be a positive real number", weight));
         }
+        return weight;
     }
 }
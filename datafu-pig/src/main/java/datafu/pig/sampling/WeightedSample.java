@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Random;
 
 import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.builtin.Nondeterministic;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -63,12 +64,39 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * -- ({(a,100),(c,5),(b,1)})
  * }
  * </pre>
+ *
+ * <p>
+ * An optional second constructor argument selects the sampling method.  An empty seed may be passed
+ * with it to sample without a fixed seed.
+ * <ul>
+ *   <li>'cumsum' (the default) draws each item by scanning the cumulative distribution of the remaining
+ *   scores.  This takes O(n*k) time for n items and a limit of k.</li>
+ *   <li>'exponential' samples without replacement by giving each item the key log(u)/score, with u
+ *   uniform on (0,1], and keeping the k items with the largest keys in a heap
+ *   (Efraimidis and Spirakis).  This takes O(n log k) time and does not copy the bag.  Items are
+ *   output in decreasing order of key, which is distributed as the order they would be drawn in.</li>
+ *   <li>'alias' samples with replacement, so the same item may be output more than once.  Alias tables
+ *   are built in O(n) time (Vose), after which each of the k draws takes constant time.  When no
+ *   limit is given n items are drawn.</li>
+ * </ul>
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * define WeightedSample datafu.pig.sampling.WeightedSample('', 'exponential');
+ *
+ * output3 = FOREACH input GENERATE WeightedSample(A,1,10000);
+ * }
+ * </pre>
  */
 @Nondeterministic
 public class WeightedSample extends EvalFunc<DataBag>
 {
+  private static enum Method { CUMSUM, EXPONENTIAL, ALIAS }
+
   BagFactory bagFactory = BagFactory.getInstance();
   Long seed = null;
+  private Method method = Method.CUMSUM;
 
   public WeightedSample() {
   }
@@ -77,6 +105,21 @@ public class WeightedSample extends EvalFunc<DataBag>
     this.seed = Long.parseLong(seed);
   }
 
+  public WeightedSample(String seed, String method) {
+    if (seed.length() > 0) {
+      this.seed = Long.parseLong(seed);
+    }
+    if ("cumsum".equals(method.toLowerCase())) {
+      this.method = Method.CUMSUM;
+    } else if ("exponential".equals(method.toLowerCase())) {
+      this.method = Method.EXPONENTIAL;
+    } else if ("alias".equals(method.toLowerCase())) {
+      this.method = Method.ALIAS;
+    } else {
+      throw new IllegalArgumentException("Invalid sampling method.  Valid values are 'cumsum', 'exponential' or 'alias', found: " + method);
+    }
+  }
+
   @Override
   public DataBag exec(Tuple input) throws IOException {   
     DataBag output = bagFactory.newDefaultBag();
@@ -85,6 +128,23 @@ public class WeightedSample extends EvalFunc<DataBag>
     if (samples == null || samples.size() == 0) {
       return output; // if we are given null we will return an empty bag
     }
+
+    int scoreIndex = ((Number)input.get(1)).intValue();
+    Random rng = null;
+    if (seed == null) {
+      rng = new Random();
+    } else {
+      rng = new Random(seed);
+    }
+
+    if (method == Method.EXPONENTIAL) {
+      int limitSamples = input.size() == 3 ? ((Number)input.get(2)).intValue() : Integer.MAX_VALUE;
+      return sampleExponential(samples, scoreIndex, limitSamples, rng);
+    } else if (method == Method.ALIAS) {
+      int limitSamples = input.size() == 3 ? ((Number)input.get(2)).intValue() : (int) samples.size();
+      return sampleAlias(samples, scoreIndex, limitSamples, rng);
+    }
+
     int numSamples = (int) samples.size();
     if (numSamples == 1) return samples;
        
@@ -96,12 +156,9 @@ public class WeightedSample extends EvalFunc<DataBag>
     }
 
     double[] scores = new double[numSamples];
-    int scoreIndex = ((Number)input.get(1)).intValue();
     tupleIndex = 0;
     for (Tuple tuple : samples) {
-      double score = ((Number)tuple.get(scoreIndex)).doubleValue();
-      score = Math.max(score, Double.MIN_NORMAL); // negative scores cause problems
-      scores[tupleIndex] = score;
+      scores[tupleIndex] = getScore(tuple, scoreIndex);
       tupleIndex++;
     }
     
@@ -129,13 +186,6 @@ public class WeightedSample extends EvalFunc<DataBag>
      * This is an O(k*n) algorithm, where k is the number of elements to sample and n is
      * the number of scores.
      */    
-    Random rng = null;    
-    if (seed == null) {
-      rng = new Random();
-    } else {
-      rng = new Random(seed);
-    }
-    
     for (int k = 0; k < limitSamples; k++) {
       double val = rng.nextDouble();
       int idx = find_cumsum_interval(scores, val, k, numSamples);
@@ -151,6 +201,94 @@ public class WeightedSample extends EvalFunc<DataBag>
     return output;
   }
 
+  private static double getScore(Tuple tuple, int scoreIndex) throws ExecException {
+    double score = ((Number)tuple.get(scoreIndex)).doubleValue();
+    return Math.max(score, Double.MIN_NORMAL); // negative scores cause problems
+  }
+
+  /**
+   * Samples without replacement by keeping the items with the largest keys log(u)/score in a heap.
+   */
+  private DataBag sampleExponential(DataBag samples, int scoreIndex, int limitSamples, Random rng) throws ExecException {
+    DataBag output = bagFactory.newDefaultBag();
+    if (limitSamples <= 0) {
+      return output;
+    }
+
+    Reservoir reservoir = new Reservoir((int) Math.min(limitSamples, samples.size()));
+    for (Tuple tuple : samples) {
+      // 1 - nextDouble() is in (0,1], so the log is finite
+      double key = Math.log(1.0 - rng.nextDouble()) / getScore(tuple, scoreIndex);
+      reservoir.consider(key, tuple);
+    }
+
+    Tuple[] sampled = new Tuple[reservoir.size()];
+    for (int i = sampled.length - 1; i >= 0; i--) {
+      sampled[i] = reservoir.poll();
+    }
+    for (Tuple tuple : sampled) {
+      output.add(tuple);
+    }
+    return output;
+  }
+
+  /**
+   * Samples with replacement using alias tables built with Vose's method.
+   */
+  private DataBag sampleAlias(DataBag samples, int scoreIndex, int limitSamples, Random rng) throws ExecException {
+    DataBag output = bagFactory.newDefaultBag();
+    int numSamples = (int) samples.size();
+    Tuple[] tuples = new Tuple[numSamples];
+    double[] probabilities = new double[numSamples];
+    double sum = 0.0;
+    int tupleIndex = 0;
+    for (Tuple tuple : samples) {
+      tuples[tupleIndex] = tuple;
+      probabilities[tupleIndex] = getScore(tuple, scoreIndex);
+      sum += probabilities[tupleIndex];
+      tupleIndex++;
+    }
+
+    // scale the scores so they average 1, then pair each item below 1 with one above
+    int[] alias = new int[numSamples];
+    int[] small = new int[numSamples];
+    int[] large = new int[numSamples];
+    int numSmall = 0;
+    int numLarge = 0;
+    for (int i = 0; i < numSamples; i++) {
+      probabilities[i] = probabilities[i] * numSamples / sum;
+      if (probabilities[i] < 1.0) {
+        small[numSmall++] = i;
+      } else {
+        large[numLarge++] = i;
+      }
+    }
+    while (numSmall > 0 && numLarge > 0) {
+      int less = small[--numSmall];
+      int more = large[--numLarge];
+      alias[less] = more;
+      probabilities[more] = (probabilities[more] + probabilities[less]) - 1.0;
+      if (probabilities[more] < 1.0) {
+        small[numSmall++] = more;
+      } else {
+        large[numLarge++] = more;
+      }
+    }
+    // what remains is 1 up to rounding error
+    while (numLarge > 0) {
+      probabilities[large[--numLarge]] = 1.0;
+    }
+    while (numSmall > 0) {
+      probabilities[small[--numSmall]] = 1.0;
+    }
+
+    for (int k = 0; k < limitSamples; k++) {
+      int column = rng.nextInt(numSamples);
+      output.add(rng.nextDouble() < probabilities[column] ? tuples[column] : tuples[alias[column]]);
+    }
+    return output;
+  }
+
   public int find_cumsum_interval(double[] scores, double val, int begin, int end) {
     double sum = 0.0;
     double cumsum = 0.0;
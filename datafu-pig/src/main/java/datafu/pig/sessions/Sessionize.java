@@ -20,9 +20,11 @@
 package datafu.pig.sessions;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.builtin.Nondeterministic;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -33,6 +35,14 @@ import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import datafu.pig.util.FieldHashing;
 
 /**
  * Sessionizes an input stream, appending a session ID to each tuple.
@@ -67,59 +77,122 @@ import org.joda.time.Period;
  * result = FOREACH rollup GENERATE group AS url, COUNT(SESSIONS) AS session_cnt;
  * }
  * </pre>
+ *
+ * <p>
+ * By default session IDs are random.  When 'deterministic' is passed as a second constructor argument,
+ * the session ID is instead derived from a key, such as the member the visits were grouped by, and
+ * the time the session started.  The key is passed as a second argument to the UDF, and may be a tuple
+ * when the visits were grouped by several fields.  Rerunning a script then produces the same session IDs.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * define Sessionize datafu.pig.sessions.Sessionize('$TIME_WINDOW', 'deterministic');
+ *
+ * sessions = FOREACH views {
+ *   visits = ORDER views BY visit_date;
+ *   GENERATE FLATTEN(Sessionize(visits, group)) AS (visit_date,member_id,url,session_id);
+ * }
+ * }
+ * </pre>
  */
 @Nondeterministic
 public class Sessionize extends AccumulatorEvalFunc<DataBag>
 {
+  private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser();
+  private static final HashFunction ID_HASH = Hashing.murmur3_128();
+
   private final long millis;
+  private final boolean deterministic;
+  private final TupleFactory tupleFactory = TupleFactory.getInstance();
 
   private DataBag outputBag;
-  private DateTime last_date;
+  private Long last_date;
   private String id;
 
   public Sessionize(String timeSpec)
+  {
+    this(timeSpec, "random");
+  }
+
+  public Sessionize(String timeSpec, String ids)
   {
     Period p = new Period("PT" + timeSpec.toUpperCase());
     this.millis = p.toStandardDuration().getMillis();
 
+    if ("deterministic".equals(ids.toLowerCase())) {
+      this.deterministic = true;
+    } else if ("random".equals(ids.toLowerCase())) {
+      this.deterministic = false;
+    } else {
+      throw new IllegalArgumentException("Invalid session ids.  Valid values are 'random' or 'deterministic', found: " + ids);
+    }
+
     cleanup();
   }
 
   @Override
   public void accumulate(Tuple input) throws IOException
   {
+    Object key = null;
+    if (deterministic) {
+      if (input.size() < 2 || input.get(1) == null) {
+        throw new IllegalArgumentException("Deterministic session ids require a key as the second argument");
+      }
+      key = input.get(1);
+    }
+
     for (Tuple t : (DataBag) input.get(0)) {
       Object timeObj = t.get(0);
       
-      DateTime date;
+      long date;
       if (timeObj instanceof String)
       {
-        date = new DateTime((String)timeObj);
+        date = ISO_PARSER.parseMillis((String)timeObj);
       }
       else if (timeObj instanceof Long)
       {
-        date = new DateTime((Long)timeObj);
+        date = (Long)timeObj;
       }
       else
       {
         throw new RuntimeException("Time must either be a String or Long");
       }
       
-      if (this.last_date == null)
-        this.last_date = date;
-      else if (date.isAfter(this.last_date.plus(this.millis)))
-        this.id = UUID.randomUUID().toString();
-      else if (date.isBefore(last_date))
-        throw new IOException(String.format("input time series is not sorted (%s < %s)", date, last_date));
-
-      Tuple t_new = TupleFactory.getInstance().newTuple(t.getAll());
-      t_new.append(this.id);
+      if (this.last_date == null) {
+        if (deterministic)
+          this.id = sessionId(key, date);
+      }
+      else if (date > this.last_date + this.millis)
+        this.id = deterministic ? sessionId(key, date) : UUID.randomUUID().toString();
+      else if (date < this.last_date)
+        throw new IOException(String.format("input time series is not sorted (%s < %s)", new DateTime(date), new DateTime(this.last_date.longValue())));
+
+      int size = t.size();
+      Tuple t_new = tupleFactory.newTuple(size + 1);
+      for (int i = 0; i < size; i++) {
+        t_new.set(i, t.get(i));
+      }
+      t_new.set(size, this.id);
       outputBag.add(t_new);
       
       this.last_date = date;
     }
   }
 
+  /**
+   * Derives a session ID from the key and the time the session started, formatted as a UUID.  The key is
+   * hashed by its typed fields, so that keys such as ('a,b','c') and ('a','b,c') have different session IDs.
+   */
+  private static String sessionId(Object key, long start) throws ExecException
+  {
+    Hasher hasher = ID_HASH.newHasher();
+    FieldHashing.putField(hasher, key);
+    byte[] hash = hasher.putLong(start).hash().asBytes();
+    ByteBuffer buffer = ByteBuffer.wrap(hash);
+    return new UUID(buffer.getLong(), buffer.getLong()).toString();
+  }
+
   @Override
   public DataBag getValue()
   {
@@ -131,7 +204,7 @@ public class Sessionize extends AccumulatorEvalFunc<DataBag>
   {
     this.last_date = null;
     this.outputBag = BagFactory.getInstance().newDefaultBag();
-    this.id = UUID.randomUUID().toString();
+    this.id = deterministic ? null : UUID.randomUUID().toString();
   }
 
   @Override
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * Computes the set difference of two or more bags of int or long ids, or of serialized bitmaps of them,
+ * using compressed bitmaps.  Duplicates are eliminated and the input bags need not be sorted.
+ * See {@link BitmapSetOperationsBase} for the input and output formats.
+ *
+ * <p>
+ * If bags A and B are provided, then this computes A-B, i.e. all elements in A that are not in B.
+ * If bags A, B and C are provided, then this computes A-B-C, i.e. all elements in A that are not in B or C.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define BitmapSetDifference datafu.pig.sets.BitmapSetDifference();
+ *
+ * -- input:
+ * -- ({(6),(1),(2),(3),(4),(5)},{(4),(3)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(id:int)},B2:bag{T:tuple(id:int)});
+ *
+ * -- output:
+ * -- ({(1),(2),(5),(6)})
+ * output = FOREACH input GENERATE BitmapSetDifference(B1,B2);
+ * }
+ * </pre>
+ * </p>
+ */
+public class BitmapSetDifference extends BitmapSetOperationsBase
+{
+  public BitmapSetDifference()
+  {
+    super();
+  }
+
+  public BitmapSetDifference(String output)
+  {
+    super(output);
+  }
+
+  @Override
+  public Object exec(Tuple input) throws IOException
+  {
+    if (input.size() < 2)
+    {
+      throw new RuntimeException("Expected at least two inputs, but found " + input.size());
+    }
+
+    Ids difference = toIds(input.get(0));
+    for (int i = 1; i < input.size() && !difference.bitmap.isEmpty(); i++) {
+      Ids ids = toIds(input.get(i));
+      difference.bitmap = difference.bitmap.andNot(ids.bitmap);
+      difference.longIds |= ids.longIds;
+    }
+    return output(difference, outputBitmap);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * Computes the set intersection of two or more bags of int or long ids, or of serialized bitmaps of them,
+ * using compressed bitmaps.  Duplicates are eliminated and the input bags need not be sorted.
+ * See {@link BitmapSetOperationsBase} for the input and output formats.
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define BitmapSetIntersect datafu.pig.sets.BitmapSetIntersect();
+ *
+ * -- input:
+ * -- ({(3),(1),(2),(4)},{(8),(2),(4)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(id:int)},B2:bag{T:tuple(id:int)});
+ *
+ * -- output:
+ * -- ({(2),(4)})
+ * output = FOREACH input GENERATE BitmapSetIntersect(B1,B2);
+ * }
+ * </pre>
+ * </p>
+ */
+public class BitmapSetIntersect extends BitmapSetOperationsBase
+{
+  public BitmapSetIntersect()
+  {
+    super();
+  }
+
+  public BitmapSetIntersect(String output)
+  {
+    super(output);
+  }
+
+  @Override
+  public Object exec(Tuple input) throws IOException
+  {
+    Ids intersection = null;
+    for (int i = 0; i < input.size(); i++) {
+      Ids ids = toIds(input.get(i));
+      if (intersection == null) {
+        intersection = ids;
+      } else {
+        intersection.bitmap = intersection.bitmap.and(ids.bitmap);
+        intersection.longIds |= ids.longIds;
+      }
+    }
+    return output(intersection == null ? new Ids() : intersection, outputBitmap);
+  }
+}
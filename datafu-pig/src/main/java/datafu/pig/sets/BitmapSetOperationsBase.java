@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+/**
+ * Base class for set operations on int or long ids held in compressed bitmaps.
+ *
+ * <p>
+ * Each input is either a bag of single field tuples, whose fields are int or long ids or serialized
+ * bitmaps, or a serialized bitmap.  Null ids and inputs are ignored.  The output is a bag of the ids in
+ * increasing order, or, when 'bitmap' is passed to the constructor, a serialized {@link IdBitmap}
+ * which can be stored and used as the input of later set operations.
+ * </p>
+ */
+public abstract class BitmapSetOperationsBase extends EvalFunc<Object>
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+
+  protected final boolean outputBitmap;
+
+  public BitmapSetOperationsBase()
+  {
+    this("bag");
+  }
+
+  public BitmapSetOperationsBase(String output)
+  {
+    this.outputBitmap = parseOutput(output);
+  }
+
+  protected static boolean parseOutput(String output)
+  {
+    if ("bitmap".equals(output.toLowerCase())) {
+      return true;
+    } else if ("bag".equals(output.toLowerCase())) {
+      return false;
+    }
+    throw new IllegalArgumentException("Invalid constructor argument.  Valid values are 'bag' or 'bitmap', found: " + output);
+  }
+
+  /**
+   * The ids of an input, and whether any of them are longs, in which case the ids output are longs.
+   */
+  protected static class Ids
+  {
+    IdBitmap bitmap = new IdBitmap();
+    boolean longIds;
+
+    void or(Ids other)
+    {
+      bitmap = bitmap.or(other.bitmap);
+      longIds |= other.longIds;
+    }
+  }
+
+  /**
+   * Reads the ids of a bag of ids or bitmaps, or of a serialized bitmap.
+   */
+  protected static Ids toIds(Object input) throws ExecException
+  {
+    Ids ids = new Ids();
+    if (input instanceof DataBag) {
+      for (Tuple t : (DataBag) input) {
+        Object o = t.get(0);
+        if (o instanceof Integer) {
+          ids.bitmap.add((Integer) o);
+        } else if (o instanceof Long) {
+          ids.bitmap.add((Long) o);
+          ids.longIds = true;
+        } else if (o instanceof DataByteArray) {
+          ids.bitmap = ids.bitmap.or(fromBytes((DataByteArray) o));
+          ids.longIds = true;
+        } else if (o != null) {
+          throw new RuntimeException("Expected int or long ids, or bitmaps, but found: " + DataType.findTypeName(o));
+        }
+      }
+    } else if (input instanceof DataByteArray) {
+      ids.bitmap = fromBytes((DataByteArray) input);
+      ids.longIds = true;
+    } else if (input != null) {
+      throw new RuntimeException("Expected a bag or bitmap but found: " + DataType.findTypeName(input));
+    }
+    return ids;
+  }
+
+  protected static IdBitmap fromBytes(DataByteArray bytes) throws ExecException
+  {
+    try {
+      return IdBitmap.fromBytes(bytes.get());
+    }
+    catch (IOException e) {
+      throw new ExecException("Error while reading bitmap", 2106, PigException.BUG, e);
+    }
+  }
+
+  protected static DataByteArray toBytes(IdBitmap bitmap) throws ExecException
+  {
+    try {
+      return new DataByteArray(bitmap.toBytes());
+    }
+    catch (IOException e) {
+      throw new ExecException("Error while writing bitmap", 2106, PigException.BUG, e);
+    }
+  }
+
+  /**
+   * Returns the ids as a serialized bitmap or as a bag of ids in increasing order.
+   */
+  protected static Object output(Ids ids, boolean outputBitmap) throws ExecException
+  {
+    if (outputBitmap) {
+      return toBytes(ids.bitmap);
+    }
+    DataBag outputBag = bagFactory.newDefaultBag();
+    for (LongIterator it = ids.bitmap.iterator(); it.hasNext();) {
+      long id = it.nextLong();
+      outputBag.add(tupleFactory.newTuple(ids.longIds ? (Object) id : (Object) (int) id));
+    }
+    return outputBag;
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (outputBitmap) {
+        return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass().getName().toLowerCase(), input),
+                                                 DataType.BYTEARRAY));
+      }
+
+      // the ids are ints only if every input is a bag of ints
+      byte idType = DataType.INTEGER;
+      String alias = "id";
+      for (Schema.FieldSchema fieldSchema : input.getFields()) {
+        if (fieldSchema.type == DataType.BAG) {
+          Schema.FieldSchema idField = fieldSchema.schema.getField(0).schema.getField(0);
+          if (idField.type != DataType.INTEGER) {
+            idType = DataType.LONG;
+          }
+          if (idField.alias != null && fieldSchema == input.getField(0)) {
+            alias = idField.alias;
+          }
+        } else if (fieldSchema.type == DataType.BYTEARRAY) {
+          idType = DataType.LONG;
+        } else {
+          throw new RuntimeException("Expected a bag or bitmap but got: " + DataType.findTypeName(fieldSchema.type));
+        }
+      }
+
+      Schema tupleSchema = new Schema(new Schema.FieldSchema(alias, idType));
+      return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass().getName().toLowerCase(), input),
+                                               tupleSchema,
+                                               DataType.BAG));
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+}
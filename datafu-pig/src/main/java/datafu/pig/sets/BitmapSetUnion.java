@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * Computes the set union of two or more bags of int or long ids, or of serialized bitmaps of them,
+ * using compressed bitmaps.  Duplicates are eliminated and the input bags need not be sorted.
+ *
+ * <p>
+ * See {@link BitmapSetOperationsBase} for the input and output formats.  To build a bitmap of the ids
+ * in a grouped bag use {@link IdBitmapUnion}, which is algebraic.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define BitmapSetUnion datafu.pig.sets.BitmapSetUnion();
+ *
+ * -- input:
+ * -- ({(3),(1),(2)},{(8),(1),(4)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(id:int)},B2:bag{T:tuple(id:int)});
+ *
+ * -- output:
+ * -- ({(1),(2),(3),(4),(8)})
+ * output = FOREACH input GENERATE BitmapSetUnion(B1,B2);
+ * }
+ * </pre>
+ * </p>
+ */
+public class BitmapSetUnion extends BitmapSetOperationsBase
+{
+  public BitmapSetUnion()
+  {
+    super();
+  }
+
+  public BitmapSetUnion(String output)
+  {
+    super(output);
+  }
+
+  @Override
+  public Object exec(Tuple input) throws IOException
+  {
+    Ids union = new Ids();
+    for (int i = 0; i < input.size(); i++) {
+      union.or(toIds(input.get(i)));
+    }
+    return output(union, outputBitmap);
+  }
+}
@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+/**
+ * A compressed bitmap of long ids, laid out like a Roaring bitmap.
+ *
+ * <p>
+ * Ids are partitioned by their high 48 bits into containers which each hold the low 16 bits of up to 65536 ids.
+ * A container with at most 4096 ids holds them in a sorted array, and a larger one holds them in a bitmap of
+ * 1024 words, so that sparse and dense sets of ids are both stored compactly.  Unions, intersections and
+ * differences are computed container by container, on whole words when both containers are bitmaps.
+ * </p>
+ *
+ * <p>
+ * Bitmaps serialized by {@link #toBytes()} can be stored and read back with {@link #fromBytes(byte[])}.
+ * </p>
+ */
+public class IdBitmap
+{
+  private static final int ARRAY_MAX = 4096;
+  private static final int WORDS = 1024;
+
+  private static final byte ARRAY = 0;
+  private static final byte BITMAP = 1;
+
+  // sorted keys (high bits) of the containers
+  private long[] keys;
+  private Container[] containers;
+  private int size;
+
+  public IdBitmap()
+  {
+    this(new long[4], new Container[4], 0);
+  }
+
+  private IdBitmap(long[] keys, Container[] containers, int size)
+  {
+    this.keys = keys;
+    this.containers = containers;
+    this.size = size;
+  }
+
+  public void add(long id)
+  {
+    long key = id >> 16;
+    char low = (char) id;
+    int i = Arrays.binarySearch(keys, 0, size, key);
+    if (i >= 0) {
+      containers[i] = containers[i].add(low);
+    } else {
+      insert(-i - 1, key, new ArrayContainer().add(low));
+    }
+  }
+
+  public boolean contains(long id)
+  {
+    int i = Arrays.binarySearch(keys, 0, size, id >> 16);
+    return i >= 0 && containers[i].contains((char) id);
+  }
+
+  public long getCardinality()
+  {
+    long cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += containers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Returns the ids in either this bitmap or the other.
+   */
+  public IdBitmap or(IdBitmap other)
+  {
+    IdBitmap result = new IdBitmap(new long[size + other.size], new Container[size + other.size], 0);
+    int i = 0, j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        result.append(keys[i], containers[i++].copy());
+      } else if (keys[i] > other.keys[j]) {
+        result.append(other.keys[j], other.containers[j++].copy());
+      } else {
+        result.append(keys[i], containers[i++].or(other.containers[j++]));
+      }
+    }
+    while (i < size) {
+      result.append(keys[i], containers[i++].copy());
+    }
+    while (j < other.size) {
+      result.append(other.keys[j], other.containers[j++].copy());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ids in both this bitmap and the other.
+   */
+  public IdBitmap and(IdBitmap other)
+  {
+    int capacity = Math.max(1, Math.min(size, other.size));
+    IdBitmap result = new IdBitmap(new long[capacity], new Container[capacity], 0);
+    int i = 0, j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        result.append(keys[i], containers[i++].and(other.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ids in this bitmap which are not in the other.
+   */
+  public IdBitmap andNot(IdBitmap other)
+  {
+    IdBitmap result = new IdBitmap(new long[Math.max(1, size)], new Container[Math.max(1, size)], 0);
+    int i = 0, j = 0;
+    while (i < size) {
+      if (j == other.size || keys[i] < other.keys[j]) {
+        result.append(keys[i], containers[i++].copy());
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        result.append(keys[i], containers[i++].andNot(other.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns an iterator over the ids in increasing order.
+   */
+  public LongIterator iterator()
+  {
+    return new AbstractLongIterator()
+    {
+      private int container = -1;
+      private char[] values = new char[0];
+      private int position;
+
+      @Override
+      public boolean hasNext()
+      {
+        while (position == values.length) {
+          if (container + 1 >= size) {
+            return false;
+          }
+          values = containers[++container].values();
+          position = 0;
+        }
+        return true;
+      }
+
+      @Override
+      public long nextLong()
+      {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return (keys[container] << 16) | values[position++];
+      }
+    };
+  }
+
+  public byte[] toBytes() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeLong(keys[i]);
+      containers[i].write(out);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  public static IdBitmap fromBytes(byte[] bytes) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    int size = in.readInt();
+    IdBitmap bitmap = new IdBitmap(new long[Math.max(1, size)], new Container[Math.max(1, size)], 0);
+    for (int i = 0; i < size; i++) {
+      long key = in.readLong();
+      bitmap.append(key, readContainer(in));
+    }
+    return bitmap;
+  }
+
+  private void append(long key, Container container)
+  {
+    if (container.cardinality() > 0) {
+      insert(size, key, container);
+    }
+  }
+
+  private void insert(int i, long key, Container container)
+  {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+      containers = Arrays.copyOf(containers, keys.length);
+    }
+    System.arraycopy(keys, i, keys, i + 1, size - i);
+    System.arraycopy(containers, i, containers, i + 1, size - i);
+    keys[i] = key;
+    containers[i] = container;
+    size++;
+  }
+
+  private static Container readContainer(DataInput in) throws IOException
+  {
+    byte type = in.readByte();
+    if (type == ARRAY) {
+      int cardinality = in.readInt();
+      char[] values = new char[cardinality];
+      for (int i = 0; i < cardinality; i++) {
+        values[i] = in.readChar();
+      }
+      return new ArrayContainer(values, cardinality);
+    } else if (type == BITMAP) {
+      long[] words = new long[WORDS];
+      for (int i = 0; i < WORDS; i++) {
+        words[i] = in.readLong();
+      }
+      return new BitmapContainer(words);
+    }
+    throw new IOException("Unknown container type: " + type);
+  }
+
+  /**
+   * The low 16 bits of the ids sharing the same high bits.  Adding may modify the container or return
+   * a new one, while the other operations return a new container and modify neither argument.
+   */
+  private static abstract class Container
+  {
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    abstract Container add(char value);
+
+    abstract Container or(Container other);
+
+    abstract Container and(Container other);
+
+    abstract Container andNot(Container other);
+
+    // the values in increasing order
+    abstract char[] values();
+
+    abstract Container copy();
+
+    abstract void write(DataOutput out) throws IOException;
+  }
+
+  private static class ArrayContainer extends Container
+  {
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer()
+    {
+      this(new char[4], 0);
+    }
+
+    ArrayContainer(char[] values, int cardinality)
+    {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      int i = Arrays.binarySearch(values, 0, cardinality, value);
+      if (i >= 0) {
+        return this;
+      }
+      if (cardinality == ARRAY_MAX) {
+        return toBitmap().add(value);
+      }
+      i = -i - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+      }
+      System.arraycopy(values, i, values, i + 1, cardinality - i);
+      values[i] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container or(Container other)
+    {
+      if (other instanceof BitmapContainer) {
+        return other.or(this);
+      }
+      ArrayContainer o = (ArrayContainer) other;
+      char[] merged = new char[cardinality + o.cardinality];
+      int i = 0, j = 0, n = 0;
+      while (i < cardinality && j < o.cardinality) {
+        if (values[i] < o.values[j]) {
+          merged[n++] = values[i++];
+        } else if (values[i] > o.values[j]) {
+          merged[n++] = o.values[j++];
+        } else {
+          merged[n++] = values[i++];
+          j++;
+        }
+      }
+      while (i < cardinality) {
+        merged[n++] = values[i++];
+      }
+      while (j < o.cardinality) {
+        merged[n++] = o.values[j++];
+      }
+      ArrayContainer result = new ArrayContainer(merged, n);
+      return n > ARRAY_MAX ? result.toBitmap() : result;
+    }
+
+    @Override
+    Container and(Container other)
+    {
+      char[] kept = new char[cardinality];
+      int n = 0;
+      for (int i = 0; i < cardinality; i++) {
+        if (other.contains(values[i])) {
+          kept[n++] = values[i];
+        }
+      }
+      return new ArrayContainer(kept, n);
+    }
+
+    @Override
+    Container andNot(Container other)
+    {
+      char[] kept = new char[cardinality];
+      int n = 0;
+      for (int i = 0; i < cardinality; i++) {
+        if (!other.contains(values[i])) {
+          kept[n++] = values[i];
+        }
+      }
+      return new ArrayContainer(kept, n);
+    }
+
+    @Override
+    char[] values()
+    {
+      return cardinality == values.length ? values : Arrays.copyOf(values, cardinality);
+    }
+
+    @Override
+    Container copy()
+    {
+      return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+    }
+
+    @Override
+    void write(DataOutput out) throws IOException
+    {
+      out.writeByte(ARRAY);
+      out.writeInt(cardinality);
+      for (int i = 0; i < cardinality; i++) {
+        out.writeChar(values[i]);
+      }
+    }
+
+    private BitmapContainer toBitmap()
+    {
+      long[] words = new long[WORDS];
+      for (int i = 0; i < cardinality; i++) {
+        words[values[i] >>> 6] |= 1L << values[i];
+      }
+      return new BitmapContainer(words);
+    }
+  }
+
+  private static class BitmapContainer extends Container
+  {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(long[] words)
+    {
+      this.words = words;
+      for (long word : words) {
+        cardinality += Long.bitCount(word);
+      }
+    }
+
+    @Override
+    int cardinality()
+    {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      long word = words[value >>> 6];
+      long updated = word | (1L << value);
+      if (updated != word) {
+        words[value >>> 6] = updated;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container or(Container other)
+    {
+      long[] result = words.clone();
+      if (other instanceof BitmapContainer) {
+        long[] o = ((BitmapContainer) other).words;
+        for (int i = 0; i < WORDS; i++) {
+          result[i] |= o[i];
+        }
+      } else {
+        ArrayContainer o = (ArrayContainer) other;
+        for (int i = 0; i < o.cardinality; i++) {
+          result[o.values[i] >>> 6] |= 1L << o.values[i];
+        }
+      }
+      return new BitmapContainer(result);
+    }
+
+    @Override
+    Container and(Container other)
+    {
+      if (other instanceof ArrayContainer) {
+        return other.and(this);
+      }
+      long[] result = words.clone();
+      long[] o = ((BitmapContainer) other).words;
+      for (int i = 0; i < WORDS; i++) {
+        result[i] &= o[i];
+      }
+      return compact(new BitmapContainer(result));
+    }
+
+    @Override
+    Container andNot(Container other)
+    {
+      long[] result = words.clone();
+      if (other instanceof BitmapContainer) {
+        long[] o = ((BitmapContainer) other).words;
+        for (int i = 0; i < WORDS; i++) {
+          result[i] &= ~o[i];
+        }
+      } else {
+        ArrayContainer o = (ArrayContainer) other;
+        for (int i = 0; i < o.cardinality; i++) {
+          result[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+        }
+      }
+      return compact(new BitmapContainer(result));
+    }
+
+    @Override
+    char[] values()
+    {
+      char[] values = new char[cardinality];
+      int n = 0;
+      for (int i = 0; i < WORDS; i++) {
+        long word = words[i];
+        while (word != 0) {
+          values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return values;
+    }
+
+    @Override
+    Container copy()
+    {
+      return new BitmapContainer(words.clone());
+    }
+
+    @Override
+    void write(DataOutput out) throws IOException
+    {
+      out.writeByte(BITMAP);
+      for (long word : words) {
+        out.writeLong(word);
+      }
+    }
+
+    private static Container compact(BitmapContainer bitmap)
+    {
+      return bitmap.cardinality > ARRAY_MAX ? bitmap : new ArrayContainer(bitmap.values(), bitmap.cardinality);
+    }
+  }
+}
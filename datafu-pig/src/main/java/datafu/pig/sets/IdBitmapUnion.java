@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Builds a serialized {@link IdBitmap} of the int or long ids in a bag.  The bag may also hold serialized
+ * bitmaps, which are merged into the result.  Null ids are ignored.
+ *
+ * <p>
+ * This is algebraic, so applied to a grouped bag of ids it builds partial bitmaps in the combiner.  The bitmaps
+ * can be stored and used as the input of {@link BitmapSetUnion}, {@link BitmapSetIntersect} and
+ * {@link BitmapSetDifference}, whose output is then a bag of long ids.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define IdBitmapUnion datafu.pig.sets.IdBitmapUnion();
+ * define BitmapSetIntersect datafu.pig.sets.BitmapSetIntersect();
+ *
+ * members = LOAD 'members' AS (segment:chararray, id:long);
+ *
+ * -- a bitmap of the members of each segment
+ * segments = FOREACH (GROUP members BY segment) GENERATE group AS segment, IdBitmapUnion(members.id) AS members;
+ *
+ * -- the members of both segments a and b
+ * a = FILTER segments BY segment == 'a';
+ * b = FILTER segments BY segment == 'b';
+ * both = FOREACH (CROSS a, b) GENERATE BitmapSetIntersect(a::members, b::members);
+ * }
+ * </pre>
+ * </p>
+ */
+public class IdBitmapUnion extends EvalFunc<DataByteArray> implements Algebraic
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  @Override
+  public DataByteArray exec(Tuple input) throws IOException
+  {
+    return BitmapSetOperationsBase.toBytes(BitmapSetOperationsBase.toIds(input.get(0)).bitmap);
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass().getName().toLowerCase(), input),
+                                             DataType.BYTEARRAY));
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName();
+  }
+
+  /**
+   * Merges a bag of partial bitmaps.
+   */
+  private static DataByteArray merge(Tuple input) throws IOException
+  {
+    IdBitmap union = new IdBitmap();
+    for (Tuple t : (DataBag) input.get(0)) {
+      union = union.or(BitmapSetOperationsBase.fromBytes((DataByteArray) t.get(0)));
+    }
+    return BitmapSetOperationsBase.toBytes(union);
+  }
+
+  public static class Initial extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      IdBitmap bitmap = BitmapSetOperationsBase.toIds(input.get(0)).bitmap;
+      return tupleFactory.newTuple(BitmapSetOperationsBase.toBytes(bitmap));
+    }
+  }
+
+  public static class Intermediate extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return tupleFactory.newTuple(merge(input));
+    }
+  }
+
+  public static class Final extends EvalFunc<DataByteArray>
+  {
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return merge(input);
+    }
+  }
+}
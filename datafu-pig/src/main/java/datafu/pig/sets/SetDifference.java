@@ -20,8 +20,11 @@
 package datafu.pig.sets;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -54,11 +57,45 @@ import org.apache.pig.data.Tuple;
  *   GENERATE SetDifference(B1,B2);
  * }
  * }</pre>
+ *
+ * <p>
+ * Two other modes may be selected with a parameter:
+ * </p>
+ * <ul>
+ * <li>'gallop' also requires sorted bags, but instead of stepping through all of the other bags, searches them
+ * for each tuple of the first bag, skipping ahead exponentially.  This is much faster when the other bags are
+ * much larger than the first.  The other bags are read in blocks through their iterators, so they are not
+ * loaded into memory.  The order of the bags is not checked.</li>
+ * <li>'hash' does not require sorted bags.  The first bag is loaded into a hash set which the tuples of the
+ * other bags are removed from, and the output is in the order the tuples appear in the first bag.  If the
+ * first bag has more tuples than a maximum, given by an optional second parameter which defaults to 100000,
+ * the other bags are loaded instead if they are small enough, or else the bags are sorted, spilling to disk
+ * as needed.</li>
+ * </ul>
  */
 public class SetDifference extends SetOperationsBase
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
-  
+
+  private final Mode mode;
+  private final long maxInMemory;
+
+  public SetDifference()
+  {
+    this("sorted");
+  }
+
+  public SetDifference(String mode)
+  {
+    this(mode, "100000");
+  }
+
+  public SetDifference(String mode, String maxInMemory)
+  {
+    this.mode = parseMode(mode);
+    this.maxInMemory = Long.parseLong(maxInMemory);
+  }
+
   /**
    * Loads the data bags from the input tuple and puts them in a priority queue,
    * where ordering is determined by the data from the iterator for each bag.
@@ -150,7 +187,139 @@ public class SetDifference extends SetOperationsBase
     {
       return bag1;
     }
-    
+
+    switch (mode)
+    {
+      case GALLOP:
+        return gallopDifference(input);
+      case HASH:
+        return hashDifference(input);
+      default:
+        return sortedDifference(input);
+    }
+  }
+
+  private DataBag hashDifference(Tuple input) throws IOException
+  {
+    DataBag bag1 = (DataBag)input.get(0);
+
+    if (bag1.size() <= maxInMemory)
+    {
+      // remove the tuples of the other bags from those of the first
+      Set<Tuple> difference = new LinkedHashSet<Tuple>();
+      for (Tuple t : bag1)
+      {
+        difference.add(t);
+      }
+      for (int i=1; i < input.size() && !difference.isEmpty(); i++)
+      {
+        DataBag bag = (DataBag)input.get(i);
+        if (bag != null)
+        {
+          for (Tuple t : bag)
+          {
+            difference.remove(t);
+          }
+        }
+      }
+
+      DataBag outputBag = bagFactory.newDefaultBag();
+      for (Tuple t : difference)
+      {
+        outputBag.add(t);
+      }
+      return outputBag;
+    }
+
+    long otherSize = 0;
+    for (int i=1; i < input.size(); i++)
+    {
+      DataBag bag = (DataBag)input.get(i);
+      if (bag != null)
+      {
+        otherSize += bag.size();
+      }
+    }
+
+    if (otherSize <= maxInMemory)
+    {
+      // keep the tuples of the first bag not in the others, where the output bag eliminates duplicates
+      Set<Tuple> others = new HashSet<Tuple>();
+      for (int i=1; i < input.size(); i++)
+      {
+        DataBag bag = (DataBag)input.get(i);
+        if (bag != null)
+        {
+          for (Tuple t : bag)
+          {
+            others.add(t);
+          }
+        }
+      }
+
+      DataBag outputBag = bagFactory.newDistinctBag();
+      for (Tuple t : bag1)
+      {
+        if (!others.contains(t))
+        {
+          outputBag.add(t);
+        }
+      }
+      return outputBag;
+    }
+
+    DataBag[] bags = new DataBag[input.size()];
+    for (int i=0; i < input.size(); i++)
+    {
+      bags[i] = (DataBag)input.get(i);
+    }
+    return sortedDifference(sortBags(bags));
+  }
+
+  @SuppressWarnings("unchecked")
+  private DataBag gallopDifference(Tuple input) throws IOException
+  {
+    GallopCursor[] others = new GallopCursor[input.size() - 1];
+    for (int i=1; i < input.size(); i++)
+    {
+      others[i - 1] = new GallopCursor((DataBag)input.get(i));
+    }
+
+    // search the other bags for each tuple of the first
+    DataBag outputBag = bagFactory.newDefaultBag();
+    Tuple lastData = null;
+    for (Tuple t : (DataBag)input.get(0))
+    {
+      if (lastData != null && t.compareTo(lastData) == 0)
+      {
+        continue;
+      }
+      lastData = t;
+
+      boolean found = false;
+      for (int i=0; i < others.length && !found; i++)
+      {
+        Tuple next = others[i].seek(t);
+        found = next != null && next.compareTo(t) == 0;
+      }
+      if (!found)
+      {
+        outputBag.add(t);
+      }
+    }
+    return outputBag;
+  }
+
+  @SuppressWarnings("unchecked")
+  private DataBag sortedDifference(Tuple input) throws IOException
+  {
+    if (((DataBag)input.get(0)).size() == 0)
+    {
+      return bagFactory.newDefaultBag();
+    }
+
+    DataBag outputBag = bagFactory.newDefaultBag();
+
     PriorityQueue<Pair> pq = loadBags(input);
     
     Tuple lastData = null;
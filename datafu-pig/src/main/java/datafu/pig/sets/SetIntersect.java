@@ -20,13 +20,15 @@
 package datafu.pig.sets;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 
 /**
  * Computes the set intersection of two or more bags.  Duplicates are eliminated. <b>The input bags must be sorted.</b>
@@ -49,11 +51,57 @@ import org.apache.pig.data.TupleFactory;
  *   GENERATE SetIntersect(B1,B2);
  * }
  * }</pre>
+ *
+ * <p>
+ * Two other modes may be selected with a parameter:
+ * </p>
+ * <ul>
+ * <li>'gallop' also requires sorted bags, but instead of stepping through them all, searches the larger bags for each
+ * tuple of the smallest one, skipping ahead exponentially.  This is much faster when the bags are of very
+ * different sizes.  The larger bags are read in blocks through their iterators, so they are not loaded into
+ * memory.  The order of the bags is not checked.</li>
+ * <li>'hash' does not require sorted bags, which need not be ordered beforehand.  The smallest bag is loaded into a hash set
+ * which the other bags are checked against, and the output is in the order the tuples appear in that bag.
+ * If the smallest bag has more tuples than a maximum, given by an optional second parameter which defaults
+ * to 100000, the bags are sorted instead, spilling to disk as needed.</li>
+ * </ul>
+ *
+ * <pre>
+ * {@code
+ * define SetIntersect datafu.pig.sets.SetIntersect('hash');
+ *
+ * -- input:
+ * -- ({(4,40),(2,20),(1,10),(3,30)},{(8,80),(2,20),(4,40)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(val1:int,val2:int)},B2:bag{T:tuple(val1:int,val2:int)});
+ *
+ * -- output:
+ * -- ({(2,20),(4,40)})
+ * output = FOREACH input GENERATE SetIntersect(B1,B2);
+ * }</pre>
  */
 public class SetIntersect extends SetOperationsBase
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
 
+  private final Mode mode;
+  private final long maxInMemory;
+
+  public SetIntersect()
+  {
+    this("sorted");
+  }
+
+  public SetIntersect(String mode)
+  {
+    this(mode, "100000");
+  }
+
+  public SetIntersect(String mode, String maxInMemory)
+  {
+    this.mode = parseMode(mode);
+    this.maxInMemory = Long.parseLong(maxInMemory);
+  }
+
   static class pair implements Comparable<pair>
   {
     final Iterator<Tuple> it;
@@ -99,6 +147,103 @@ public class SetIntersect extends SetOperationsBase
 
   @Override
   public DataBag exec(Tuple input) throws IOException
+  {
+    switch (mode) {
+      case GALLOP:
+        return gallopIntersect(input);
+      case HASH:
+        return hashIntersect(input);
+      default:
+        return sortedIntersect(input);
+    }
+  }
+
+  private static DataBag[] getBags(Tuple input) throws IOException
+  {
+    DataBag[] bags = new DataBag[input.size()];
+    for (int i=0; i < input.size(); i++) {
+      Object o = input.get(i);
+      if (!(o instanceof DataBag))
+        throw new RuntimeException("parameters must be databags");
+      bags[i] = (DataBag) o;
+    }
+    return bags;
+  }
+
+  private DataBag hashIntersect(Tuple input) throws IOException
+  {
+    DataBag[] bags = getBags(input);
+    int smallest = 0;
+    for (int i=1; i < bags.length; i++) {
+      if (bags[i].size() < bags[smallest].size())
+        smallest = i;
+    }
+
+    if (bags[smallest].size() > maxInMemory)
+      return sortedIntersect(sortBags(bags));
+
+    Set<Tuple> intersection = new LinkedHashSet<Tuple>();
+    for (Tuple t : bags[smallest])
+      intersection.add(t);
+
+    for (int i=0; i < bags.length && !intersection.isEmpty(); i++) {
+      if (i == smallest)
+        continue;
+      Set<Tuple> found = new HashSet<Tuple>();
+      for (Tuple t : bags[i]) {
+        if (intersection.contains(t))
+          found.add(t);
+      }
+      intersection.retainAll(found);
+    }
+
+    DataBag outputBag = bagFactory.newDefaultBag();
+    for (Tuple t : intersection)
+      outputBag.add(t);
+    return outputBag;
+  }
+
+  @SuppressWarnings("unchecked")
+  private DataBag gallopIntersect(Tuple input) throws IOException
+  {
+    DataBag[] bags = getBags(input);
+    int smallest = 0;
+    for (int i=1; i < bags.length; i++) {
+      if (bags[i].size() < bags[smallest].size())
+        smallest = i;
+    }
+
+    // search the larger bags for each tuple of the smallest
+    GallopCursor[] cursors = new GallopCursor[bags.length - 1];
+    for (int i=0, j=0; i < bags.length; i++) {
+      if (i != smallest)
+        cursors[j++] = new GallopCursor(bags[i]);
+    }
+
+    DataBag outputBag = bagFactory.newDefaultBag();
+    Tuple last_data = null;
+    for (Tuple t : bags[smallest]) {
+      if (last_data != null && t.compareTo(last_data) == 0)
+        continue;
+      last_data = t;
+
+      boolean found = true;
+      for (GallopCursor cursor : cursors) {
+        Tuple next = cursor.seek(t);
+        if (next == null)
+          return outputBag; // no larger tuples remain in this bag
+        if (next.compareTo(t) != 0) {
+          found = false;
+          break;
+        }
+      }
+      if (found)
+        outputBag.add(t);
+    }
+    return outputBag;
+  }
+
+  private DataBag sortedIntersect(Tuple input) throws IOException
   {
     DataBag outputBag = bagFactory.newDefaultBag();
     PriorityQueue<pair> pq = load_bags(input);
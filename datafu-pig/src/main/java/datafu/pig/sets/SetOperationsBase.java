@@ -19,9 +19,17 @@
  
 package datafu.pig.sets;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
 import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
 /**
@@ -29,6 +37,139 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  */
 public abstract class SetOperationsBase extends EvalFunc<DataBag>
 {
+  /**
+   * How the input bags are processed.
+   */
+  protected enum Mode
+  {
+    /** merges bags which are sorted, checking that they are */
+    SORTED,
+    /** searches bags which are sorted with exponential search, without checking that they are */
+    GALLOP,
+    /** loads an unsorted bag into a hash set, sorting the bags instead if they are too large */
+    HASH
+  }
+
+  protected static Mode parseMode(String mode)
+  {
+    try {
+      return Mode.valueOf(mode.toUpperCase());
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid constructor argument.  Valid values are 'sorted', 'gallop' or 'hash', found: " + mode);
+    }
+  }
+
+  /**
+   * Returns a tuple holding a sorted copy of each bag, which spills to disk if large.
+   */
+  protected static Tuple sortBags(DataBag... bags)
+  {
+    Tuple sorted = TupleFactory.getInstance().newTuple(bags.length);
+    for (int i = 0; i < bags.length; i++) {
+      DataBag sortedBag = BagFactory.getInstance().newSortedBag(null);
+      if (bags[i] != null) {
+        sortedBag.addAll(bags[i]);
+      }
+      try {
+        sorted.set(i, sortedBag);
+      }
+      catch (ExecException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Searches a sorted bag for a series of increasing keys, reading it in blocks through its iterator.
+   *
+   * <p>
+   * Only one block of tuples is held in memory at a time, so a large bag which Pig has spilled to disk
+   * is not loaded into memory.  A block whose last tuple is less than the key is skipped with a single
+   * comparison, and otherwise the key is found within the block by exponential search, so finding a
+   * tuple k positions ahead takes O(k / BLOCK_SIZE + log k) comparisons.
+   * </p>
+   */
+  protected static class GallopCursor
+  {
+    private static final int BLOCK_SIZE = 1024;
+
+    private final Iterator<Tuple> it;
+    private final Tuple[] block;
+    private int size;
+    private int position;
+
+    /**
+     * @param bag sorted bag to search, which may be null
+     */
+    public GallopCursor(DataBag bag)
+    {
+      this.it = bag == null ? Collections.<Tuple>emptyIterator() : bag.iterator();
+      this.block = new Tuple[bag == null ? 0 : (int) Math.min(BLOCK_SIZE, bag.size())];
+    }
+
+    /**
+     * Advances to the first tuple not less than a key, which must not be less than the previous key.
+     *
+     * @param key tuple to search for
+     * @return first tuple not less than the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public Tuple seek(Tuple key)
+    {
+      while (true) {
+        if (position == size && !fill()) {
+          return null;
+        }
+        if (block[size - 1].compareTo(key) < 0) {
+          position = size;
+        } else {
+          position = gallop(key);
+          return block[position];
+        }
+      }
+    }
+
+    private boolean fill()
+    {
+      size = 0;
+      position = 0;
+      while (size < block.length && it.hasNext()) {
+        block[size++] = it.next();
+      }
+      Arrays.fill(block, size, block.length, null);
+      return size > 0;
+    }
+
+    /*
+     * The distance searched doubles until a tuple not less than the key is passed, after which
+     * it is found by binary search.  The last tuple of the block is known not to be less than the key.
+     */
+    @SuppressWarnings("unchecked")
+    private int gallop(Tuple key)
+    {
+      int lo = position;
+      int hi = position;
+      int step = 1;
+      while (hi < size && block[hi].compareTo(key) < 0) {
+        lo = hi + 1;
+        hi = position + step;
+        step <<= 1;
+      }
+      hi = Math.min(hi, size - 1);
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (block[mid].compareTo(key) < 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
   @Override
   public Schema outputSchema(Schema input)
   {
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.clearspring.analytics.stream.frequency.FrequencyMergeException;
+
+import datafu.pig.util.FieldHashing;
+
+/**
+ * A UDF that builds a <a href="http://en.wikipedia.org/wiki/Count%E2%80%93min_sketch" target="_blank">Count-Min sketch</a>
+ * of the tuples in a bag and returns it serialized as a bytearray.
+ *
+ * <p>
+ * A Count-Min sketch estimates how many times each item occurs using a fixed amount of memory, no matter how many distinct
+ * items there are.  Estimates are never too low, and with probability <i>confidence</i> they are too high by at most
+ * <i>eps</i> times the total number of items.  The sketch uses ceil(2/eps) * ceil(log2(1/(1-confidence))) counters, so
+ * for the defaults of eps = 0.001 and confidence = 0.99 it takes about 110KB.
+ * The sketch can be stored and merged with {@link CountMinSketchMerge}, and the count of an item estimated with
+ * {@link CountMinSketchEstimate}.
+ * </p>
+ *
+ * <p>
+ * This uses the implementation of Count-Min sketch from <a href="https://github.com/addthis/stream-lib" target="_blank">stream-lib</a>.
+ * The constructor takes optional eps, confidence and seed values.  Only sketches built with the same three values can be merged.
+ * </p>
+ *
+ * <p>
+ * It implements {@link org.apache.pig.Algebraic}, so when possible the sketch is built in a distributed fashion.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define CountMinSketch datafu.pig.stats.CountMinSketch('0.001','0.99','1');
+ * define CountMinSketchEstimate datafu.pig.stats.CountMinSketchEstimate();
+ *
+ * -- input: (site:chararray, referrer:chararray)
+ * views = LOAD 'input' AS (site:chararray, referrer:chararray);
+ *
+ * sketches = FOREACH (GROUP views BY site) GENERATE group AS site, CountMinSketch(views.referrer) AS sketch;
+ *
+ * google = FOREACH sketches GENERATE site, CountMinSketchEstimate(sketch, 'www.google.com') AS views;
+ * }
+ * </pre>
+ *
+ * @see CountMinSketchMerge
+ * @see CountMinSketchEstimate
+ */
+public class CountMinSketch extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final String[] params;
+  private com.clearspring.analytics.stream.frequency.CountMinSketch sketch;
+
+  /**
+   * Constructs a Count-Min sketch builder with eps = 0.001, confidence = 0.99 and seed = 1.
+   */
+  public CountMinSketch()
+  {
+    this("0.001", "0.99", "1");
+  }
+
+  /**
+   * Constructs a Count-Min sketch builder.
+   *
+   * @param eps relative error
+   * @param confidence probability that an estimate is within the relative error
+   * @param seed seed of the hash functions
+   */
+  public CountMinSketch(String eps, String confidence, String seed)
+  {
+    this.params = new String[] { eps, confidence, seed };
+    cleanup();
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    DataBag bag = (DataBag) input.get(0);
+    if (bag == null) {
+      return;
+    }
+    for (Tuple t : bag) {
+      sketch.add(FieldHashing.hash64(t), 1L);
+    }
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    return new DataByteArray(com.clearspring.analytics.stream.frequency.CountMinSketch.serialize(sketch));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    sketch = newSketch(params);
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+  }
+
+  private String getParam()
+  {
+    // the EvalFunc constructor validates the algebraic functions before the parameters are set
+    if (params == null) {
+      return "";
+    }
+    return String.format("('%s','%s','%s')", params[0], params[1], params[2]);
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+    public Initial(String eps, String confidence, String seed) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Since Initial is guaranteed to be called
+      // only in the map, it will be called with an
+      // input of a bag with a single tuple, whose hash
+      // is passed on rather than a full sketch
+      DataBag bag = (DataBag) input.get(0);
+      if (bag.size() == 0) {
+        return mTupleFactory.newTuple(1);
+      }
+      return mTupleFactory.newTuple((Object) FieldHashing.hash64(bag.iterator().next()));
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final String[] params;
+
+    public Intermediate()
+    {
+      this("0.001", "0.99", "1");
+    }
+
+    public Intermediate(String eps, String confidence, String seed)
+    {
+      this.params = new String[] { eps, confidence, seed };
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return mTupleFactory.newTuple(build(input, params, this));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    private final String[] params;
+
+    public Final()
+    {
+      this("0.001", "0.99", "1");
+    }
+
+    public Final(String eps, String confidence, String seed)
+    {
+      this.params = new String[] { eps, confidence, seed };
+    }
+
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return build(input, params, this);
+    }
+  }
+
+  static private com.clearspring.analytics.stream.frequency.CountMinSketch newSketch(String[] params)
+  {
+    return new com.clearspring.analytics.stream.frequency.CountMinSketch(Double.parseDouble(params[0]),
+                                                                         Double.parseDouble(params[1]),
+                                                                         Integer.parseInt(params[2]));
+  }
+
+  static private DataByteArray build(Tuple input, String[] params, EvalFunc<?> func) throws IOException
+  {
+    try {
+      com.clearspring.analytics.stream.frequency.CountMinSketch sketch = newSketch(params);
+      for (Tuple t : (DataBag) input.get(0)) {
+        Object data = t.get(0);
+        if (data instanceof Long) {
+          sketch.add((Long) data, 1L);
+        } else if (data instanceof DataByteArray) {
+          sketch = merge(sketch, (DataByteArray) data);
+        }
+      }
+      return new DataByteArray(com.clearspring.analytics.stream.frequency.CountMinSketch.serialize(sketch));
+    } catch (ExecException ee) {
+      throw ee;
+    } catch (Exception e) {
+      int errCode = 2106;
+      String msg = "Error while building sketch in " + func.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+
+  /**
+   * Merges a serialized sketch into another sketch, returning the merged sketch.
+   */
+  static com.clearspring.analytics.stream.frequency.CountMinSketch merge(com.clearspring.analytics.stream.frequency.CountMinSketch sketch,
+                                                                        DataByteArray bytes) throws IOException
+  {
+    com.clearspring.analytics.stream.frequency.CountMinSketch other =
+        com.clearspring.analytics.stream.frequency.CountMinSketch.deserialize(bytes.get());
+    if (sketch == null) {
+      return other;
+    }
+    try {
+      return com.clearspring.analytics.stream.frequency.CountMinSketch.merge(sketch, other);
+    } catch (FrequencyMergeException e) {
+      throw new IOException("Sketches must be built with the same eps, confidence and seed", e);
+    }
+  }
+}
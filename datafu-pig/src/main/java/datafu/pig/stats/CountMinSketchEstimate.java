@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.util.FieldHashing;
+
+/**
+ * Estimates how many times an item occurs from a Count-Min sketch built by {@link CountMinSketch}
+ * or {@link CountMinSketchMerge}.  A null sketch yields null.
+ *
+ * <p>
+ * The first argument is the sketch and the remaining arguments are the fields of the item, which
+ * must match the fields of the tuples the sketch was built from.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define CountMinSketchEstimate datafu.pig.stats.CountMinSketchEstimate();
+ *
+ * -- input: (site:chararray, sketch:bytearray)
+ * sketches = LOAD 'sketches' AS (site:chararray, sketch:bytearray);
+ *
+ * google = FOREACH sketches GENERATE site, CountMinSketchEstimate(sketch, 'www.google.com') AS views;
+ * }
+ * </pre>
+ *
+ * @see CountMinSketch
+ * @see CountMinSketchMerge
+ */
+public class CountMinSketchEstimate extends EvalFunc<Long>
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  @Override
+  public Long exec(Tuple input) throws IOException
+  {
+    if (input == null || input.size() < 2) {
+      throw new IOException("Expected a sketch and an item");
+    }
+    DataByteArray sketch = (DataByteArray) input.get(0);
+    if (sketch == null) {
+      return null;
+    }
+    // hash the item the same way as the tuples of the bag the sketch was built from
+    Tuple item = mTupleFactory.newTuple(input.getAll().subList(1, input.size()));
+    return com.clearspring.analytics.stream.frequency.CountMinSketch.deserialize(sketch.get())
+                                                                    .estimateCount(FieldHashing.hash64(item));
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(null, DataType.LONG));
+  }
+}
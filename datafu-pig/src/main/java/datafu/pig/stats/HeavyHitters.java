@@ -0,0 +1,449 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Finds the most frequent tuples in a bag using a bounded amount of memory.
+ *
+ * <p>
+ * This keeps a mergeable <a href="http://en.wikipedia.org/wiki/Misra%E2%80%93Gries_summary" target="_blank">Misra-Gries summary</a>
+ * of at most <i>capacity</i> counters rather than an exact count of every distinct tuple as {@link datafu.pig.bags.CountEach} does.
+ * Whenever more than twice the capacity of tuples are being counted, every counter is reduced by the count of the
+ * (capacity+1)-th most frequent one and counters that drop to zero are removed.  The amount taken away is the error of the summary,
+ * which is never more than N/(capacity+1) for a bag of N tuples.
+ * </p>
+ *
+ * <p>
+ * The output is a bag of the k most frequent tuples, ordered by decreasing count, with two fields appended to each:
+ * <i>count</i>, which is a lower bound on the number of times the tuple occurs, and <i>error</i>, which bounds how much
+ * higher the true count may be.  Any tuple occurring more than N/(capacity+1) times is guaranteed to be in the summary.
+ * </p>
+ *
+ * <p>
+ * The constructor takes k and an optional capacity, which defaults to 10 times k.
+ * This class implements {@link org.apache.pig.Algebraic}, so when possible the summaries are built in a distributed fashion,
+ * and it implements the {@link org.apache.pig.Accumulator} interface as well.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ * define TopReferrers datafu.pig.stats.HeavyHitters('10');
+ *
+ * -- input: (site:chararray, referrer:chararray)
+ * views = LOAD 'input' AS (site:chararray, referrer:chararray);
+ *
+ * -- output: (site, {(referrer, count, error), ...})
+ * top_referrers = FOREACH (GROUP views BY site) GENERATE group AS site, TopReferrers(views.referrer);
+ * }
+ * </pre>
+ *
+ * @see CountMinSketch
+ */
+public class HeavyHitters extends AccumulatorEvalFunc<DataBag> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+  private static BagFactory mBagFactory = BagFactory.getInstance();
+
+  private final String k;
+  private final String capacity;
+  private Summary summary;
+
+  /**
+   * Constructs a UDF returning the k most frequent tuples, with a capacity of 10 times k.
+   *
+   * @param k number of tuples to return
+   */
+  public HeavyHitters(String k)
+  {
+    this(k, defaultCapacity(k));
+  }
+
+  /**
+   * Constructs a UDF returning the k most frequent tuples.
+   *
+   * @param k number of tuples to return
+   * @param capacity number of counters to keep, which must be at least k
+   */
+  public HeavyHitters(String k, String capacity)
+  {
+    this.k = k;
+    this.capacity = capacity;
+    if (Integer.parseInt(k) <= 0 || Integer.parseInt(capacity) < Integer.parseInt(k))
+    {
+      throw new IllegalArgumentException("Expected 0 < k <= capacity");
+    }
+    cleanup();
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    DataBag bag = (DataBag) input.get(0);
+    if (bag == null)
+    {
+      return;
+    }
+    for (Tuple t : bag)
+    {
+      summary.add(t, 1L);
+    }
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    return summary.getTop(Integer.parseInt(k));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    summary = new Summary(Integer.parseInt(capacity));
+  }
+
+  private static String defaultCapacity(String k)
+  {
+    return Integer.toString(10*Integer.parseInt(k));
+  }
+
+  private String getParam()
+  {
+    // the EvalFunc constructor validates the algebraic functions before the parameters are set
+    if (k == null)
+    {
+      return "";
+    }
+    return String.format("('%s','%s')", k, capacity);
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+    public Initial(String k) {}
+    public Initial(String k, String capacity) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Since Initial is guaranteed to be called
+      // only in the map, it will be called with an
+      // input of a bag with a single tuple, which
+      // becomes a summary with a single counter
+      DataBag counters = mBagFactory.newDefaultBag();
+      for (Tuple t : (DataBag) input.get(0))
+      {
+        counters.add(mTupleFactory.newTuple(Arrays.asList(t, 1L)));
+      }
+      return mTupleFactory.newTuple(Arrays.asList(counters, 0L));
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int capacity;
+
+    public Intermediate()
+    {
+      this("10", "100");
+    }
+
+    public Intermediate(String k)
+    {
+      this(k, defaultCapacity(k));
+    }
+
+    public Intermediate(String k, String capacity)
+    {
+      this.capacity = Integer.parseInt(capacity);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      try
+      {
+        return merge((DataBag) input.get(0), capacity).toTuple();
+      }
+      catch (ExecException ee)
+      {
+        throw ee;
+      }
+      catch (Exception e)
+      {
+        int errCode = 2106;
+        String msg = "Error while merging summaries in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  static public class Final extends EvalFunc<DataBag>
+  {
+    private final int k;
+    private final int capacity;
+
+    public Final()
+    {
+      this("10", "100");
+    }
+
+    public Final(String k)
+    {
+      this(k, defaultCapacity(k));
+    }
+
+    public Final(String k, String capacity)
+    {
+      this.k = Integer.parseInt(k);
+      this.capacity = Integer.parseInt(capacity);
+    }
+
+    @Override
+    public DataBag exec(Tuple input) throws IOException
+    {
+      try
+      {
+        return merge((DataBag) input.get(0), capacity).getTop(k);
+      }
+      catch (ExecException ee)
+      {
+        throw ee;
+      }
+      catch (Exception e)
+      {
+        int errCode = 2106;
+        String msg = "Error while merging summaries in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  private static Summary merge(DataBag summaries, int capacity) throws ExecException
+  {
+    Summary summary = new Summary(capacity);
+    for (Tuple t : summaries)
+    {
+      summary.merge(t);
+    }
+    return summary;
+  }
+
+  /**
+   * A Misra-Gries summary, whose counters are lower bounds on the true counts.  Counters are
+   * reduced in batches once there are twice as many as the capacity, so that each tuple costs
+   * amortized constant time.
+   */
+  static class Summary
+  {
+    private final int capacity;
+    private final Object2LongOpenHashMap<Tuple> counts;
+    private long error;
+
+    public Summary(int capacity)
+    {
+      this.capacity = capacity;
+      this.counts = new Object2LongOpenHashMap<Tuple>();
+    }
+
+    public void add(Tuple t, long count)
+    {
+      counts.addTo(t, count);
+      if (counts.size() > 2*capacity)
+      {
+        prune();
+      }
+    }
+
+    /**
+     * Merges a summary produced by {@link #toTuple()}.
+     */
+    public void merge(Tuple summary) throws ExecException
+    {
+      for (Tuple counter : (DataBag) summary.get(0))
+      {
+        add((Tuple) counter.get(0), (Long) counter.get(1));
+      }
+      error += (Long) summary.get(1);
+    }
+
+    /**
+     * Reduces every counter by the count of the (capacity+1)-th largest, leaving at most capacity counters.
+     */
+    private void prune()
+    {
+      long[] values = counts.values().toLongArray();
+      Arrays.sort(values);
+      long decrement = values[values.length - capacity - 1];
+      error += decrement;
+      for (Iterator<Object2LongMap.Entry<Tuple>> it = counts.object2LongEntrySet().iterator(); it.hasNext();)
+      {
+        Object2LongMap.Entry<Tuple> entry = it.next();
+        long count = entry.getLongValue() - decrement;
+        if (count > 0)
+        {
+          entry.setValue(count);
+        }
+        else
+        {
+          it.remove();
+        }
+      }
+    }
+
+    /**
+     * @return the counters sorted by decreasing count
+     */
+    private List<Object2LongMap.Entry<Tuple>> getSortedCounters()
+    {
+      List<Object2LongMap.Entry<Tuple>> entries = new ArrayList<Object2LongMap.Entry<Tuple>>(counts.object2LongEntrySet());
+      Collections.sort(entries, new Comparator<Object2LongMap.Entry<Tuple>>() {
+        @Override
+        public int compare(Object2LongMap.Entry<Tuple> o1, Object2LongMap.Entry<Tuple> o2)
+        {
+          long c1 = o1.getLongValue();
+          long c2 = o2.getLongValue();
+          return c1 > c2 ? -1 : (c1 < c2 ? 1 : 0);
+        }
+      });
+      return entries;
+    }
+
+    /**
+     * @return a tuple of (counters, error), where counters is a bag of (tuple, count)
+     */
+    public Tuple toTuple()
+    {
+      if (counts.size() > capacity)
+      {
+        prune();
+      }
+      DataBag counters = mBagFactory.newDefaultBag();
+      for (Object2LongMap.Entry<Tuple> entry : counts.object2LongEntrySet())
+      {
+        counters.add(mTupleFactory.newTuple(Arrays.asList(entry.getKey(), entry.getLongValue())));
+      }
+      return mTupleFactory.newTuple(Arrays.asList(counters, error));
+    }
+
+    /**
+     * @return a bag of the k most frequent tuples, each with the count and error appended
+     */
+    public DataBag getTop(int k)
+    {
+      List<Object2LongMap.Entry<Tuple>> entries = getSortedCounters();
+      DataBag output = mBagFactory.newDefaultBag();
+      for (Object2LongMap.Entry<Tuple> entry : entries.subList(0, Math.min(k, entries.size())))
+      {
+        Tuple t = mTupleFactory.newTuple(entry.getKey().getAll());
+        t.append(entry.getLongValue());
+        t.append(error);
+        output.add(t);
+      }
+      return output;
+    }
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have one field");
+      }
+
+      Schema.FieldSchema bagFieldSchema = input.getField(0);
+
+      if (bagFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+
+      Schema inputBagSchema = bagFieldSchema.schema;
+
+      if (inputBagSchema.getField(0).type != DataType.TUPLE)
+      {
+        throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                 DataType.findTypeName(inputBagSchema.getField(0).type)));
+      }
+
+      Schema inputTupleSchema = inputBagSchema.getField(0).schema;
+      if (inputTupleSchema == null) inputTupleSchema = new Schema();
+
+      Schema outputTupleSchema = inputTupleSchema.clone();
+      outputTupleSchema.add(new Schema.FieldSchema("count", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("error", DataType.LONG));
+
+      return new Schema(new Schema.FieldSchema(
+            getSchemaName(this.getClass().getName().toLowerCase(), input),
+            outputTupleSchema,
+            DataType.BAG));
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -22,7 +22,8 @@ package datafu.pig.stats;
 import java.io.IOException;
 import java.util.Iterator;
 
-import org.apache.pig.AlgebraicEvalFunc;
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -51,13 +52,31 @@ import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
  * This is a streaming implementation, and therefore the input data does not need to be sorted.
  * </p>
  *
+ * <p>
+ * The partial sketches built on the map side use the sparse HyperLogLog++ representation until they grow
+ * large, so a partial sketch for a key with few distinct values takes a few bytes rather than a full set of
+ * 2^p registers.  This makes the UDF well suited to Pig's map-side partial aggregation, which folds the
+ * records of each key into a partial sketch in memory and emits one sketch per key when the map task flushes,
+ * instead of one hash per record:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * SET pig.exec.mapPartAgg true;
+ * }
+ * </pre>
+ *
  * @deprecated This will be removed in the next major release.
  */
-public class HyperLogLogPlusPlus extends AlgebraicEvalFunc<Long>
+public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long> implements Algebraic
 {
   private static TupleFactory mTupleFactory = TupleFactory.getInstance();
 
+  // precision of the sparse representation used by the partial sketches
+  private static final int SPARSE_PRECISION = 25;
+
   private String p;
+  private HyperLogLogPlus estimator;
 
   /**
    * Constructs a HyperLogLog++ estimator.
@@ -74,11 +93,34 @@ public class HyperLogLogPlusPlus extends AlgebraicEvalFunc<Long>
    */
   public HyperLogLogPlusPlus(String p)
   {
-    super(p);
     this.p = p;
     cleanup();
   }
 
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    DataBag bag = (DataBag) input.get(0);
+    if (bag == null) {
+      return;
+    }
+    for (Tuple t : bag) {
+      estimator.offerHashed(MurmurHash.hash64(t));
+    }
+  }
+
+  @Override
+  public Long getValue()
+  {
+    return estimator.cardinality();
+  }
+
+  @Override
+  public void cleanup()
+  {
+    estimator = new HyperLogLogPlus(Integer.parseInt(p));
+  }
+
   @Override
   public Schema outputSchema(Schema input)
   {
@@ -105,12 +147,13 @@ public class HyperLogLogPlusPlus extends AlgebraicEvalFunc<Long>
   private String param = null;
   private String getParam()
   {
+    // the EvalFunc constructor calls getFinal() to check the return type before the precision is set,
+    // so don't cache the string until then (Pig passes the UDF's own arguments to the stages anyway)
+    if (this.p == null) {
+      return "";
+    }
     if (param == null) {
-      if (this.p != null) {
-        param = String.format("('%s')", this.p);
-      } else {
-        param = "";
-      }
+      param = String.format("('%s')", this.p);
     }
     return param;
   }
@@ -161,7 +204,7 @@ public class HyperLogLogPlusPlus extends AlgebraicEvalFunc<Long>
     @Override
     public Tuple exec(Tuple input) throws IOException {
       try {
-        DataByteArray data = new DataByteArray(countDisctinct(input, Integer.parseInt(p)).getBytes());
+        DataByteArray data = new DataByteArray(countDisctinct(input, Integer.parseInt(p), true).getBytes());
         return mTupleFactory.newTuple(data);
       } catch (ExecException ee) {
         throw ee;
@@ -184,7 +227,7 @@ public class HyperLogLogPlusPlus extends AlgebraicEvalFunc<Long>
     @Override
     public Long exec(Tuple input) throws IOException {
       try {
-        return countDisctinct(input, Integer.parseInt(p)).cardinality();
+        return countDisctinct(input, Integer.parseInt(p), false).cardinality();
       } catch (Exception ee) {
         int errCode = 2106;
         String msg = "Error while computing count in "
@@ -196,7 +239,20 @@ public class HyperLogLogPlusPlus extends AlgebraicEvalFunc<Long>
 
   static protected HyperLogLogPlus countDisctinct(Tuple input, int p)
       throws NumberFormatException, IOException {
-    HyperLogLogPlus estimator = new HyperLogLogPlus(p);
+    return countDisctinct(input, p, false);
+  }
+
+  /**
+   * Builds an estimator from the hashes and sketches in the bag.  A partial estimator starts
+   * out in the sparse representation, which stream-lib converts to the normal one once it
+   * grows larger; merging sparse sketches into a normal estimator gives the same registers
+   * as offering all the hashes to it directly.
+   */
+  static protected HyperLogLogPlus countDisctinct(Tuple input, int p, boolean partial)
+      throws NumberFormatException, IOException {
+    HyperLogLogPlus estimator = partial && p < SPARSE_PRECISION
+        ? new HyperLogLogPlus(p, SPARSE_PRECISION)
+        : new HyperLogLogPlus(p);
     DataBag values = (DataBag) input.get(0);
     for (Iterator<Tuple> it = values.iterator(); it.hasNext();) {
       Tuple t = it.next();
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AlgebraicEvalFunc;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+/**
+ * Merges a bag of HyperLogLog++ sketches built by {@link HyperLogLogPlusPlusSketch} into a single sketch.
+ *
+ * <p>
+ * All the sketches must have the same precision, which is also the precision of the merged sketch.  Null sketches are ignored,
+ * and a bag with no sketches yields null.
+ * </p>
+ *
+ * <p>
+ * This implements {@link org.apache.pig.Algebraic}, so when possible the sketches are merged in a distributed fashion.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define HyperLogLogPlusPlusMerge datafu.pig.stats.HyperLogLogPlusPlusMerge();
+ * define HyperLogLogPlusPlusEstimate datafu.pig.stats.HyperLogLogPlusPlusEstimate();
+ *
+ * -- input: (day:chararray, sketch:bytearray)
+ * daily = LOAD 'daily_sketches' AS (day:chararray, sketch:bytearray);
+ *
+ * last_week = FILTER daily BY day >= '2013-01-01' AND day < '2013-01-08';
+ *
+ * weekly_uniques = FOREACH (GROUP last_week ALL) GENERATE HyperLogLogPlusPlusEstimate(HyperLogLogPlusPlusMerge(last_week.sketch));
+ * }
+ * </pre>
+ *
+ * @see HyperLogLogPlusPlusSketch
+ * @see HyperLogLogPlusPlusEstimate
+ */
+public class HyperLogLogPlusPlusMerge extends AlgebraicEvalFunc<DataByteArray>
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Since Initial is guaranteed to be called only in the map, it will be
+      // called with an input of a bag with a single tuple, whose sketch is
+      // passed through as is.
+      DataBag bag = (DataBag) input.get(0);
+      Object o = null;
+      if (bag.size() > 0) {
+        o = bag.iterator().next().get(0);
+      }
+      return mTupleFactory.newTuple(o);
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return mTupleFactory.newTuple(merge(input, this));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return merge(input, this);
+    }
+  }
+
+  static private DataByteArray merge(Tuple input, EvalFunc<?> func) throws IOException
+  {
+    try {
+      HyperLogLogPlus estimator = null;
+      for (Tuple t : (DataBag) input.get(0)) {
+        DataByteArray bytes = (DataByteArray) t.get(0);
+        if (bytes != null) {
+          estimator = HyperLogLogPlusPlusSketch.merge(estimator, bytes);
+        }
+      }
+      return estimator != null ? new DataByteArray(estimator.getBytes()) : null;
+    } catch (ExecException ee) {
+      throw ee;
+    } catch (Exception e) {
+      int errCode = 2106;
+      String msg = "Error while merging sketches in " + func.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.clearspring.analytics.hash.MurmurHash;
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+/**
+ * A UDF that builds a HyperLogLog++ sketch of a bag and returns it serialized as a bytearray.
+ *
+ * <p>
+ * This uses the implementation of HyperLogLog++ from <a href="https://github.com/addthis/stream-lib" target="_blank">stream-lib</a>,
+ * and hashes the tuples the same way as {@link HyperLogLogPlusPlus}.  Unlike HyperLogLogPlusPlus, which only returns the
+ * estimated cardinality, the sketch can be stored and later merged with {@link HyperLogLogPlusPlusMerge}, for instance to roll
+ * daily sketches up into weekly or monthly ones, and the cardinality estimated with {@link HyperLogLogPlusPlusEstimate}.
+ * </p>
+ *
+ * <p>
+ * The constructor takes an optional precision value, which defaults to 20.  Only sketches with the same precision can be merged.
+ * </p>
+ *
+ * <p>
+ * This is a streaming implementation, and therefore the input data does not need to be sorted.
+ * It implements {@link org.apache.pig.Algebraic}, so when possible the sketch is built in a distributed fashion.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define HyperLogLogPlusPlusSketch datafu.pig.stats.HyperLogLogPlusPlusSketch();
+ * define HyperLogLogPlusPlusMerge datafu.pig.stats.HyperLogLogPlusPlusMerge();
+ * define HyperLogLogPlusPlusEstimate datafu.pig.stats.HyperLogLogPlusPlusEstimate();
+ *
+ * -- input: (day:chararray, member_id:long)
+ * input = LOAD 'input' AS (day:chararray, member_id:long);
+ *
+ * daily = FOREACH (GROUP input BY day) GENERATE group AS day, HyperLogLogPlusPlusSketch(input.member_id) AS sketch;
+ *
+ * -- number of unique members over all days
+ * total = FOREACH (GROUP daily ALL) GENERATE HyperLogLogPlusPlusEstimate(HyperLogLogPlusPlusMerge(daily.sketch));
+ * }
+ * </pre>
+ *
+ * @see HyperLogLogPlusPlusMerge
+ * @see HyperLogLogPlusPlusEstimate
+ */
+public class HyperLogLogPlusPlusSketch extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final String p;
+  private HyperLogLogPlus estimator;
+
+  /**
+   * Constructs a HyperLogLog++ sketch builder.
+   */
+  public HyperLogLogPlusPlusSketch()
+  {
+    this("20");
+  }
+
+  /**
+   * Constructs a HyperLogLog++ sketch builder.
+   *
+   * @param p precision value
+   */
+  public HyperLogLogPlusPlusSketch(String p)
+  {
+    this.p = p;
+    cleanup();
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    DataBag bag = (DataBag) input.get(0);
+    if (bag == null) {
+      return;
+    }
+    for (Tuple t : bag) {
+      estimator.offerHashed(MurmurHash.hash64(t));
+    }
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    try {
+      return new DataByteArray(estimator.getBytes());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void cleanup()
+  {
+    estimator = new HyperLogLogPlus(Integer.parseInt(p));
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+  }
+
+  private String param = null;
+  private String getParam()
+  {
+    // the EvalFunc constructor validates the algebraic functions before the precision is set
+    if (this.p == null) {
+      return "";
+    }
+    if (param == null) {
+      param = String.format("('%s')", this.p);
+    }
+    return param;
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+    public Initial(String p) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Since Initial is guaranteed to be called
+      // only in the map, it will be called with an
+      // input of a bag with a single tuple
+      DataBag bag = (DataBag) input.get(0);
+      Tuple t = null;
+      if (bag.size() > 0) {
+        t = bag.iterator().next();
+      }
+      return mTupleFactory.newTuple((Object) MurmurHash.hash64(t));
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int p;
+
+    public Intermediate()
+    {
+      this("20");
+    }
+
+    public Intermediate(String p)
+    {
+      this.p = Integer.parseInt(p);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return mTupleFactory.newTuple(build(input, p, this));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    private final int p;
+
+    public Final()
+    {
+      this("20");
+    }
+
+    public Final(String p)
+    {
+      this.p = Integer.parseInt(p);
+    }
+
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return build(input, p, this);
+    }
+  }
+
+  static private DataByteArray build(Tuple input, int p, EvalFunc<?> func) throws IOException
+  {
+    try {
+      HyperLogLogPlus estimator = new HyperLogLogPlus(p);
+      for (Tuple t : (DataBag) input.get(0)) {
+        Object data = t.get(0);
+        if (data instanceof Long) {
+          estimator.offerHashed((Long) data);
+        } else if (data instanceof DataByteArray) {
+          estimator = merge(estimator, (DataByteArray) data);
+        }
+      }
+      return new DataByteArray(estimator.getBytes());
+    } catch (ExecException ee) {
+      throw ee;
+    } catch (Exception e) {
+      int errCode = 2106;
+      String msg = "Error while building sketch in " + func.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+
+  /**
+   * Merges a serialized sketch into an estimator, returning the merged estimator.
+   */
+  static HyperLogLogPlus merge(HyperLogLogPlus estimator, DataByteArray bytes) throws IOException
+  {
+    HyperLogLogPlus sketch = HyperLogLogPlus.Builder.build(bytes.get());
+    if (estimator == null) {
+      return sketch;
+    }
+    try {
+      return (HyperLogLogPlus) estimator.merge(sketch);
+    } catch (CardinalityMergeException e) {
+      throw new IOException(e);
+    }
+  }
+}
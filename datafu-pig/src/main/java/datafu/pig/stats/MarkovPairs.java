@@ -20,10 +20,9 @@
 package datafu.pig.stats;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 
-import org.apache.pig.EvalFunc;
+import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -43,82 +42,104 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  * A lookahead factor tells the UDF how many steps in to the future to include. so, for a,b,c with a lookahead
  * of 2, a would be paired with both b and c.
  * The results are ordered are returned as ordered by the caller.
+ * 
+ * This UDF implements the {@link org.apache.pig.Accumulator} interface.  It only holds the last lookahead+1 tuples
+ * of the input in memory, and the pairs are written to a bag that is spilled to disk as it grows, so very long
+ * input bags can be processed.
 */
 
-public class MarkovPairs extends EvalFunc<DataBag>
+public class MarkovPairs extends AccumulatorEvalFunc<DataBag>
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
   private static final TupleFactory tupleFactory = TupleFactory.getInstance();
 
-  private static long lookahead_steps;
+  private final int lookahead_steps;
 
   private final int SPILL_THRESHOLD = 1000000;
 
+  // ring buffer of the last lookahead_steps+1 tuples, whose pairs have not all been generated yet
+  private final Tuple[] window;
+  private int windowStart;
+  private int windowSize;
+
+  private DataBag outputBag;
+  private int count;
+
   public MarkovPairs()
   {   
-      MarkovPairs.lookahead_steps = 1;
+      this("1");
   }
   
   public MarkovPairs(String lookahead_steps)
   {   
-      MarkovPairs.lookahead_steps = Integer.valueOf(lookahead_steps);
+      this.lookahead_steps = Integer.valueOf(lookahead_steps);
+      if (this.lookahead_steps <= 0)
+      {
+        throw new IllegalArgumentException("lookahead_steps must be positive");
+      }
+      this.window = new Tuple[this.lookahead_steps + 1];
+      cleanup();
   }
 
-  /* start and end are inclusive. This forms transition pairs */
-  private void generatePairs(ArrayList<Tuple> input, int start, int end, DataBag outputBag)
-      throws ExecException
+  /* pairs the oldest tuple in the window with the tuples following it, then removes it from the window */
+  private void generatePairs() throws ExecException
   {
-    int count = 0;
-    for (int i = start; (i + 1)<= end; i++) {
-      Tuple elem1 = input.get(i);
-      
-      lookahead:
-      for (int j = i+1; j <= i + lookahead_steps; j++)
-      {
-        if (j > end) break lookahead;
-        Tuple elem2 = input.get(j);        
-        if (count >= SPILL_THRESHOLD) {
-          outputBag.spill();
-          count = 0;
-        }
-        outputBag.add(tupleFactory.newTuple(Arrays.asList(elem1, elem2)));
-        count ++;
+    Tuple elem1 = window[windowStart];
+    for (int j = 1; j < windowSize; j++)
+    {
+      Tuple elem2 = window[(windowStart + j) % window.length];
+      if (count >= SPILL_THRESHOLD) {
+        outputBag.spill();
+        count = 0;
       }
+      outputBag.add(tupleFactory.newTuple(Arrays.asList(elem1, elem2)));
+      count ++;
     }
+    window[windowStart] = null;
+    windowStart = (windowStart + 1) % window.length;
+    windowSize--;
   }
 
   @Override
-  public DataBag exec(Tuple input)
-      throws IOException
+  public void accumulate(Tuple input) throws IOException
   {
     //things come in a tuple, in our case we have a bag (ordered views) passed. This is embedded in a length one tuple
-    
-    DataBag inputBag = (DataBag) input.get(0);         
-    ArrayList<Tuple> inputData = new ArrayList<Tuple>();
+    DataBag inputBag = (DataBag) input.get(0);
 
     for (Tuple tuple : inputBag) {
-      inputData.add(tuple);
+      window[(windowStart + windowSize) % window.length] = tuple;
+      windowSize++;
+      // the oldest tuple now has all the tuples it is paired with
+      if (windowSize == window.length) {
+        generatePairs();
+      }
     }
+  }
 
-    int inputSize = inputData.size();
-
+  @Override
+  public DataBag getValue()
+  {
     try {
-      DataBag outputBag = bagFactory.newDefaultBag();
-
-      int startPos = 0;
-
-      int stopPos = inputSize - 1;
-      generatePairs(inputData, startPos, stopPos, outputBag);
-
-      // set startPos for the next bucket
-      startPos = stopPos + 1;
-      return outputBag;
+      // the remaining tuples are paired with those after them up to the end of the input
+      while (windowSize > 0) {
+        generatePairs();
+      }
     }
-    catch (Exception e) {
-      throw new IOException(e);
+    catch (ExecException e) {
+      throw new RuntimeException(e);
     }
+    return outputBag;
   }
 
+  @Override
+  public void cleanup()
+  {
+    Arrays.fill(window, null);
+    windowStart = 0;
+    windowSize = 0;
+    outputBag = bagFactory.newDefaultBag();
+    count = 0;
+  }
 
   @Override
   public Schema outputSchema(Schema input)
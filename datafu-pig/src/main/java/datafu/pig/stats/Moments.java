@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
+
+/**
+ * Computes the count, mean, variance, standard deviation, skewness and excess kurtosis of a set of values
+ * in a single pass.
+ *
+ * <p>
+ * The variance, standard deviation, skewness and kurtosis are population statistics.  Skewness and kurtosis
+ * are null when all the values are equal, and all the statistics are null when the bag is empty or only contains nulls.
+ * The moments are computed with the same numerically stable algorithm as {@link VAR}; see {@link StreamingMoments}.
+ * This class implements {@link org.apache.pig.Algebraic}, so if possible the execution will performed in a distributed fashion.
+ * It implements the {@link org.apache.pig.Accumulator} interface as well.
+ * </p>
+ *
+ * Input: Bag of int, long, double, float or bytearray
+ * Output: Tuple of (count, mean, variance, stddev, skewness, kurtosis)
+ *
+ * Example:
+ * <pre>
+ * {@code
+ * define Moments datafu.pig.stats.Moments();
+ *
+ * input = LOAD 'input' AS (key:chararray, val:double);
+ * grouped = GROUP input BY key;
+ * -- produces: (key, count, mean, variance, stddev, skewness, kurtosis)
+ * moments = FOREACH grouped GENERATE group AS key, FLATTEN(Moments(input.val));
+ * }
+ * </pre>
+ *
+ * @see VAR
+ */
+public class Moments extends AccumulatorEvalFunc<Tuple> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final StreamingMoments moments = new StreamingMoments();
+
+  @Override
+  public void accumulate(Tuple b) throws IOException
+  {
+    try
+    {
+      moments.addAll((DataBag)b.get(0));
+    }
+    catch (ExecException ee)
+    {
+      throw ee;
+    }
+    catch (Exception e)
+    {
+      int errCode = 2106;
+      String msg = "Error while computing moments in " + this.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+
+  @Override
+  public void cleanup()
+  {
+    moments.clear();
+  }
+
+  @Override
+  public Tuple getValue()
+  {
+    return toTuple(moments);
+  }
+
+  public String getInitial()
+  {
+    return VAR.Initial.class.getName();
+  }
+
+  public String getIntermed()
+  {
+    return VAR.Intermediate.class.getName();
+  }
+
+  public String getFinal()
+  {
+    return Final.class.getName();
+  }
+
+  static public class Final extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      try
+      {
+        return toTuple(VAR.combine((DataBag)input.get(0)));
+      }
+      catch (ExecException ee)
+      {
+        throw ee;
+      }
+      catch (Exception e)
+      {
+        int errCode = 2106;
+        String msg = "Error while computing moments in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  private static Tuple toTuple(StreamingMoments moments)
+  {
+    if (moments.isEmpty())
+    {
+      return null;
+    }
+    Tuple t = mTupleFactory.newTuple(6);
+    try
+    {
+      t.set(0, moments.getCount());
+      t.set(1, moments.getMean());
+      t.set(2, moments.getVariance());
+      t.set(3, moments.getStandardDeviation());
+      t.set(4, toNullable(moments.getSkewness()));
+      t.set(5, toNullable(moments.getKurtosis()));
+    }
+    catch (ExecException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return t;
+  }
+
+  private static Double toNullable(double value)
+  {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      Schema innerSchema = new Schema(Arrays.asList(
+              new Schema.FieldSchema("count", DataType.LONG),
+              new Schema.FieldSchema("mean", DataType.DOUBLE),
+              new Schema.FieldSchema("variance", DataType.DOUBLE),
+              new Schema.FieldSchema("stddev", DataType.DOUBLE),
+              new Schema.FieldSchema("skewness", DataType.DOUBLE),
+              new Schema.FieldSchema("kurtosis", DataType.DOUBLE)));
+
+      return new Schema(new FieldSchema("moments", innerSchema, DataType.TUPLE));
+    } catch(FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -99,7 +99,7 @@ public class Quantile extends SimpleEvalFunc<Tuple>
 {
   List<Double> quantiles;
 
-  private static class Pair<T1,T2>
+  static class Pair<T1,T2>
   {
     public T1 first;
     public T2 second;
@@ -130,7 +130,7 @@ public class Quantile extends SimpleEvalFunc<Tuple>
     }
   }
 
-  private static Pair<Long, Long> getIndexes(double k, long N)
+  static Pair<Long, Long> getIndexes(double k, long N)
   {
     double h = N*k + 0.5;
     long i1 = Math.min(Math.max(1, (long)Math.ceil(h - 0.5)), N);
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.stats.StreamingQuantile.QuantileEstimator;
+
+/**
+ * Builds a mergeable quantile sketch from a (not necessarily sorted) bag of numbers.
+ *
+ * <p>
+ * The sketch is the Munro-Paterson estimator used by {@link StreamingQuantile}, serialized as a
+ * bytearray.  Sketches can be stored, merged with {@link QuantileSketchMerge} (for instance daily
+ * sketches into weekly or monthly ones) and queried for any quantile with {@link QuantileSketchEstimate},
+ * without going back to the raw data.
+ * </p>
+ *
+ * <p>
+ * The constructor takes an optional accuracy, which is the maximum error of an estimated quantile
+ * expressed as a fraction of the number of values.  The default is 0.01, so that e.g. the estimated
+ * median has a rank within 1% of the number of values of the true median.  Smaller values give more
+ * accurate sketches at the cost of larger buffers.  Only sketches built with the same accuracy can be
+ * merged.
+ * </p>
+ *
+ * <p>
+ * QuantileSketch implements {@link org.apache.pig.Algebraic}, so when possible the sketch is built
+ * in a distributed fashion.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define QuantileSketch datafu.pig.stats.QuantileSketch('0.001');
+ * define QuantileSketchMerge datafu.pig.stats.QuantileSketchMerge();
+ * define QuantileSketchEstimate datafu.pig.stats.QuantileSketchEstimate('0.5','0.9','0.99');
+ *
+ * -- input: (day:chararray, latency:double)
+ * input = LOAD 'input' AS (day:chararray, latency:double);
+ *
+ * daily = FOREACH (GROUP input BY day) GENERATE group AS day, QuantileSketch(input.latency) AS sketch;
+ *
+ * -- merge the daily sketches and estimate the quantiles over all days
+ * total = FOREACH (GROUP daily ALL) GENERATE QuantileSketchEstimate(QuantileSketchMerge(daily.sketch));
+ * }
+ * </pre>
+ *
+ * @see QuantileSketchMerge
+ * @see QuantileSketchEstimate
+ * @see StreamingQuantile
+ */
+public class QuantileSketch extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final String accuracy;
+  private final QuantileEstimator estimator;
+
+  /**
+   * Constructs a quantile sketch builder with an accuracy of 0.01.
+   */
+  public QuantileSketch()
+  {
+    this("0.01");
+  }
+
+  /**
+   * Constructs a quantile sketch builder.
+   *
+   * @param accuracy maximum rank error of an estimated quantile, as a fraction of the number of values
+   */
+  public QuantileSketch(String accuracy)
+  {
+    this.accuracy = accuracy;
+    this.estimator = new QuantileEstimator(getNumQuantiles(accuracy));
+  }
+
+  /**
+   * Gets the number of evenly spaced quantiles the estimator must be sized for to reach the accuracy.
+   */
+  static int getNumQuantiles(String accuracy)
+  {
+    double epsilon = Double.parseDouble(accuracy);
+    if (epsilon <= 0.0 || epsilon >= 1.0)
+    {
+      throw new IllegalArgumentException("Accuracy must be between 0.0 and 1.0");
+    }
+    return (int) Math.ceil(1.0 / epsilon) + 1;
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    DataBag bag = (DataBag) input.get(0);
+    if (bag != null) {
+      StreamingQuantile.combine(bag, estimator);
+    }
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    try {
+      return new DataByteArray(estimator.toBytes());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void cleanup()
+  {
+    estimator.clear();
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+  }
+
+  private String param = null;
+  private String getParam()
+  {
+    // the EvalFunc constructor validates the algebraic functions before the accuracy is set
+    if (this.accuracy == null) {
+      return "";
+    }
+    if (param == null) {
+      param = String.format("('%s')", this.accuracy);
+    }
+    return param;
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+    public Initial(String accuracy) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Since Initial is guaranteed to be called only in the map, it will be
+      // called with an input of a bag with a single tuple, whose value is
+      // passed through as is.
+      DataBag bag = (DataBag) input.get(0);
+      Object o = null;
+      if (bag.size() > 0) {
+        o = bag.iterator().next().get(0);
+      }
+      if (!(o instanceof Number)) {
+        throw new IllegalStateException("bag must have numerical values (and be non-null)");
+      }
+      return mTupleFactory.newTuple((Object)((Number) o).doubleValue());
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int numQuantiles;
+
+    public Intermediate()
+    {
+      this("0.01");
+    }
+
+    public Intermediate(String accuracy)
+    {
+      this.numQuantiles = getNumQuantiles(accuracy);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return mTupleFactory.newTuple(build(input, numQuantiles, this));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    private final int numQuantiles;
+
+    public Final()
+    {
+      this("0.01");
+    }
+
+    public Final(String accuracy)
+    {
+      this.numQuantiles = getNumQuantiles(accuracy);
+    }
+
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return build(input, numQuantiles, this);
+    }
+  }
+
+  static private DataByteArray build(Tuple input, int numQuantiles, EvalFunc<?> func) throws IOException
+  {
+    try {
+      QuantileEstimator estimator = new QuantileEstimator(numQuantiles);
+      StreamingQuantile.combine((DataBag) input.get(0), estimator);
+      return new DataByteArray(estimator.toBytes());
+    } catch (ExecException ee) {
+      throw ee;
+    } catch (Exception e) {
+      int errCode = 2106;
+      String msg = "Error while building quantile sketch in " + func.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
+
+import datafu.pig.stats.StreamingQuantile.QuantileEstimator;
+
+/**
+ * Estimates quantiles from a quantile sketch built by {@link QuantileSketch} or {@link QuantileSketchMerge}.
+ *
+ * <p>The constructor takes the quantiles to estimate, in the same way as {@link StreamingQuantile}, e.g.</p>
+ *
+ * <ul>
+ *   <li>QuantileSketchEstimate('5') yields the min, the 25th, 50th, 75th percentiles, and the max
+ *   <li>QuantileSketchEstimate('0.5','0.90','0.95','0.99') yields the median, the 90th, 95th, and the 99th percentiles
+ * </ul>
+ *
+ * <p>
+ * Unlike StreamingQuantile, the quantiles are not rounded to a common divisor, since the accuracy is
+ * fixed by the sketch.  A null or empty sketch yields null.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define QuantileSketchEstimate datafu.pig.stats.QuantileSketchEstimate('0.5','0.9','0.99');
+ *
+ * -- input: (month:chararray, sketch:bytearray)
+ * monthly = LOAD 'monthly_sketches' AS (month:chararray, sketch:bytearray);
+ *
+ * quantiles = FOREACH monthly GENERATE month, FLATTEN(QuantileSketchEstimate(sketch));
+ * }
+ * </pre>
+ *
+ * @see QuantileSketch
+ * @see QuantileSketchMerge
+ */
+public class QuantileSketchEstimate extends EvalFunc<Tuple>
+{
+  private final List<Double> quantiles;
+
+  public QuantileSketchEstimate(String... k)
+  {
+    this.quantiles = QuantileUtil.getQuantilesFromParams(k);
+  }
+
+  @Override
+  public Tuple exec(Tuple input) throws IOException
+  {
+    DataByteArray bytes = (DataByteArray) input.get(0);
+    if (bytes == null) {
+      return null;
+    }
+    QuantileEstimator estimator = QuantileEstimator.fromBytes(bytes.get());
+    if (estimator.isEmpty()) {
+      return null;
+    }
+    Tuple t = TupleFactory.getInstance().newTuple(this.quantiles.size());
+    int j = 0;
+    for (double quantileValue : estimator.getQuantiles(this.quantiles)) {
+      t.set(j++, quantileValue);
+    }
+    return t;
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    Schema tupleSchema = new Schema();
+    for (Double x : this.quantiles)
+      tupleSchema.add(new Schema.FieldSchema("quantile_" + x.toString().replace(".", "_"), DataType.DOUBLE));
+
+    try {
+      return new Schema(new FieldSchema(null, tupleSchema, DataType.TUPLE));
+    } catch(FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
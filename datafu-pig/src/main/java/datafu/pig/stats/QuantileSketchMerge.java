@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AlgebraicEvalFunc;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.stats.StreamingQuantile.QuantileEstimator;
+
+/**
+ * Merges a bag of quantile sketches built by {@link QuantileSketch} into a single sketch.
+ *
+ * <p>
+ * The merged sketch has the same accuracy as the sketches it was merged from, and all of them must
+ * have been built with the same accuracy.  Null sketches are ignored.
+ * </p>
+ *
+ * <p>
+ * QuantileSketchMerge implements {@link org.apache.pig.Algebraic}, so when possible the sketches are
+ * merged in a distributed fashion.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define QuantileSketchMerge datafu.pig.stats.QuantileSketchMerge();
+ *
+ * -- input: (day:chararray, sketch:bytearray)
+ * daily = LOAD 'daily_sketches' AS (day:chararray, sketch:bytearray);
+ *
+ * monthly = FOREACH (GROUP daily BY SUBSTRING(day,0,7)) GENERATE group AS month, QuantileSketchMerge(daily.sketch) AS sketch;
+ * }
+ * </pre>
+ *
+ * @see QuantileSketch
+ * @see QuantileSketchEstimate
+ */
+public class QuantileSketchMerge extends AlgebraicEvalFunc<DataByteArray>
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Since Initial is guaranteed to be called only in the map, it will be
+      // called with an input of a bag with a single tuple, whose sketch is
+      // passed through as is.
+      DataBag bag = (DataBag) input.get(0);
+      Object o = null;
+      if (bag.size() > 0) {
+        o = bag.iterator().next().get(0);
+      }
+      return mTupleFactory.newTuple(o);
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return mTupleFactory.newTuple(merge(input, this));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return merge(input, this);
+    }
+  }
+
+  static private DataByteArray merge(Tuple input, EvalFunc<?> func) throws IOException
+  {
+    try {
+      QuantileEstimator estimator = merge((DataBag) input.get(0));
+      return estimator != null ? new DataByteArray(estimator.toBytes()) : null;
+    } catch (ExecException ee) {
+      throw ee;
+    } catch (Exception e) {
+      int errCode = 2106;
+      String msg = "Error while merging quantile sketches in " + func.getClass().getSimpleName();
+      throw new ExecException(msg, errCode, PigException.BUG, e);
+    }
+  }
+
+  /**
+   * Merges the non-null sketches in the bag, returning null if there are none.
+   */
+  static QuantileEstimator merge(DataBag sketches) throws IOException
+  {
+    QuantileEstimator estimator = null;
+    for (Tuple t : sketches) {
+      DataByteArray bytes = (DataByteArray) t.get(0);
+      if (bytes == null) {
+        continue;
+      }
+      QuantileEstimator sketch = QuantileEstimator.fromBytes(bytes.get());
+      if (estimator == null) {
+        estimator = sketch;
+      } else {
+        estimator.merge(sketch);
+      }
+    }
+    return estimator;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+/**
+ * Computes the exact <a href="http://en.wikipedia.org/wiki/Median" target="_blank">median</a>
+ * for a (not necessarily sorted) input bag, using type R-2 estimation.  This is a convenience wrapper around SelectQuantile.
+ *
+ * @see SelectQuantile
+ */
+public class SelectMedian extends SelectQuantile
+{
+  public SelectMedian()
+  {
+    super("0.5");
+  }
+
+  /**
+   * @param maxValuesInMemory maximum number of values copied into memory, beyond which the median is found
+   *                          by passing over the bag
+   */
+  public SelectMedian(String maxValuesInMemory)
+  {
+    super("0.5", "maxValuesInMemory=" + maxValuesInMemory);
+  }
+}
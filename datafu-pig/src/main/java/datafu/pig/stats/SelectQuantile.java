@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Computes exact <a href="http://en.wikipedia.org/wiki/Quantile" target="_blank">quantiles</a>
+ * for a (not necessarily sorted) input bag, using type R-2 estimation.
+ *
+ * <p>
+ * This gives the same results as {@link Quantile}, but the input bag does not need to be sorted, so
+ * no nested ORDER is needed.  Instead the values are copied into a primitive array and the requested
+ * ranks are found with introselect, which takes linear time on average.
+ * </p>
+ *
+ * <p>
+ * When the bag holds more values than fit within the in-memory limit (10 million by default), the
+ * values are not copied.  Instead each rank is found by repeatedly passing over the bag, which Pig
+ * spills to disk as needed: each pass narrows the range of values the rank can fall in, using pivots
+ * drawn from a sample of that range, until the values in the range fit in memory.
+ * </p>
+ *
+ * <p>The constructor takes the quantiles to compute in the same way as {@link Quantile}.  The in-memory
+ * limit can be changed by adding an argument of the form 'maxValuesInMemory=N', e.g.
+ * SelectQuantile('0.0','0.5','1.0','maxValuesInMemory=1000000').</p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define Quantile datafu.pig.stats.SelectQuantile('0.0','0.5','1.0');
+
+ * -- input: 9,10,2,3,5,8,1,4,6,7
+ * input = LOAD 'input' AS (val:int);
+ *
+ * grouped = GROUP input ALL;
+ *
+ * -- produces: (1,5.5,10)
+ * quantiles = FOREACH grouped GENERATE Quantile(input.val);
+ * }</pre>
+ *
+ * @see SelectMedian
+ * @see Quantile
+ */
+public class SelectQuantile extends Quantile
+{
+  private static final int SAMPLE_SIZE = 1024;
+  private static final String MAX_VALUES_IN_MEMORY = "maxValuesInMemory=";
+
+  private int maxValuesInMemory = 10000000;
+
+  public SelectQuantile(String... k)
+  {
+    super(getQuantileParams(k));
+    for (String param : k) {
+      if (param.startsWith(MAX_VALUES_IN_MEMORY)) {
+        setMaxValuesInMemory(Integer.parseInt(param.substring(MAX_VALUES_IN_MEMORY.length())));
+      }
+    }
+  }
+
+  /**
+   * Sets the maximum number of values copied into memory, beyond which ranks are found
+   * by passing over the bag.
+   *
+   * @param maxValuesInMemory maximum number of values held in memory
+   */
+  public void setMaxValuesInMemory(int maxValuesInMemory)
+  {
+    if (maxValuesInMemory <= 0) {
+      throw new IllegalArgumentException("maxValuesInMemory must be positive");
+    }
+    this.maxValuesInMemory = maxValuesInMemory;
+  }
+
+  private static String[] getQuantileParams(String[] k)
+  {
+    List<String> params = new ArrayList<String>(k.length);
+    for (String param : k) {
+      if (!param.startsWith(MAX_VALUES_IN_MEMORY)) {
+        params.add(param);
+      }
+    }
+    return params.toArray(new String[params.size()]);
+  }
+
+  @Override
+  public Tuple call(DataBag bag) throws IOException
+  {
+    if (bag == null || bag.size() == 0)
+      return null;
+
+    long N = bag.size();
+
+    // the 1-based ranks needed, in ascending order
+    long[] ranks = new long[2 * this.quantiles.size()];
+    int numRanks = 0;
+    for (double k : this.quantiles) {
+      Pair<Long, Long> idx = getIndexes(k, N);
+      ranks[numRanks++] = idx.first;
+      ranks[numRanks++] = idx.second;
+    }
+    Arrays.sort(ranks);
+
+    double[] values = new double[numRanks];
+    if (N <= maxValuesInMemory) {
+      double[] a = new double[(int) N];
+      int i = 0;
+      for (Tuple t : bag) {
+        a[i++] = getValue(t);
+      }
+      // each selection partitions the array around the rank, so the next (larger) rank
+      // only needs to be searched for to the right of it
+      int from = 0;
+      for (int r = 0; r < numRanks; r++) {
+        int k = (int) (ranks[r] - 1);
+        values[r] = select(a, from, a.length - 1, k);
+        from = k;
+      }
+    } else {
+      double[] buffer = new double[maxValuesInMemory];
+      for (int r = 0; r < numRanks; r++) {
+        values[r] = r > 0 && ranks[r] == ranks[r-1] ? values[r-1] : select(bag, ranks[r], buffer);
+      }
+    }
+
+    Tuple t = TupleFactory.getInstance().newTuple(this.quantiles.size());
+    int j = 0;
+    for (double k : this.quantiles) {
+      Pair<Long, Long> p = getIndexes(k, N);
+      double quantile = (values[Arrays.binarySearch(ranks, 0, numRanks, p.first)] +
+                         values[Arrays.binarySearch(ranks, 0, numRanks, p.second)]) / 2;
+      t.set(j, quantile);
+      j++;
+    }
+    return t;
+  }
+
+  private static double getValue(Tuple t) throws IOException
+  {
+    Object o = t.get(0);
+    if (!(o instanceof Number))
+      throw new IllegalStateException("bag must have numerical values (and be non-null)");
+    return ((Number) o).doubleValue();
+  }
+
+  /**
+   * Finds the k-th smallest (0-based) value in a[lo..hi] with introselect.  On return the
+   * values in a[lo..k-1] are no larger than a[k] and the values in a[k+1..hi] are no smaller.
+   */
+  static double select(double[] a, int lo, int hi, int k)
+  {
+    // quickselect with a median-of-three pivot, falling back to sorting the remaining
+    // range if the partitioning makes too little progress
+    int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(hi - lo + 1));
+    while (hi > lo) {
+      if (depthLimit-- == 0) {
+        Arrays.sort(a, lo, hi + 1);
+        return a[k];
+      }
+
+      int mid = (lo + hi) >>> 1;
+      if (a[mid] < a[lo]) swap(a, lo, mid);
+      if (a[hi] < a[lo]) swap(a, lo, hi);
+      if (a[hi] < a[mid]) swap(a, mid, hi);
+      double pivot = a[mid];
+
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (a[i] < pivot) i++;
+        while (a[j] > pivot) j--;
+        if (i <= j) {
+          swap(a, i, j);
+          i++;
+          j--;
+        }
+      }
+
+      if (k <= j) {
+        hi = j;
+      } else if (k >= i) {
+        lo = i;
+      } else {
+        return a[k];
+      }
+    }
+    return a[k];
+  }
+
+  private static void swap(double[] a, int i, int j)
+  {
+    double tmp = a[i];
+    a[i] = a[j];
+    a[j] = tmp;
+  }
+
+  /**
+   * Finds the value with the given 1-based rank by passing over the bag, keeping at most
+   * as many values in memory as fit in the buffer.
+   *
+   * <p>
+   * The rank is known to fall within the values in [lo, hi], and below counts the values
+   * smaller than lo.  Each round first collects the values in the range, which ends the search
+   * if they fit in memory, and samples them.  Otherwise two pivots around the rank's expected
+   * position in the sample are counted in a second pass, and the range is narrowed to the one
+   * containing the rank.  If the pivots would not narrow the range, a single pivot is used, which
+   * always excludes at least the pivot value.
+   * </p>
+   */
+  private static double select(DataBag bag, long rank, double[] buffer) throws IOException
+  {
+    Random random = new Random(rank);
+    double[] sample = new double[SAMPLE_SIZE];
+    double lo = Double.NEGATIVE_INFINITY;
+    double hi = Double.POSITIVE_INFINITY;
+    long below = 0;
+
+    while (true) {
+      long target = rank - below;
+
+      long count = 0;
+      for (Tuple t : bag) {
+        double v = getValue(t);
+        if (v < lo || v > hi) continue;
+        if (count < buffer.length) {
+          buffer[(int) count] = v;
+        }
+        if (count < SAMPLE_SIZE) {
+          sample[(int) count] = v;
+        } else {
+          long slot = (long) (random.nextDouble() * (count + 1));
+          if (slot < SAMPLE_SIZE) {
+            sample[(int) slot] = v;
+          }
+        }
+        count++;
+      }
+
+      if (count <= buffer.length) {
+        return select(buffer, 0, (int) count - 1, (int) (target - 1));
+      }
+
+      int n = (int) Math.min(count, SAMPLE_SIZE);
+      Arrays.sort(sample, 0, n);
+      int p = (int) Math.min(n - 1, (target * n) / count);
+      int d = n / 32;
+      double a = sample[Math.max(p - d, 0)];
+      double b = sample[Math.min(p + d, n - 1)];
+      if (a == lo && b == hi) {
+        a = b = sample[p];
+      }
+
+      long less = 0, lessOrEqual = 0;
+      for (Tuple t : bag) {
+        double v = getValue(t);
+        if (v < lo || v > hi) continue;
+        if (v < a) less++;
+        if (v <= b) lessOrEqual++;
+      }
+
+      if (target <= less) {
+        hi = Math.nextDown(a);
+      } else if (target <= lessOrEqual) {
+        if (a == b) {
+          return a;
+        }
+        lo = a;
+        hi = b;
+        below += less;
+      } else {
+        lo = Math.nextUp(b);
+        below += lessOrEqual;
+      }
+    }
+  }
+}
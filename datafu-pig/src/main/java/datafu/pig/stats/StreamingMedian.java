@@ -25,8 +25,9 @@ package datafu.pig.stats;
  * This is a convenience wrapper around StreamingQuantile.
  *
  * <p>
- * N.B., all the data is pushed to a single reducer per key, so make sure some partitioning is
- * done (e.g., group by 'day') if the data is too large.  That is, this isn't distributed median.
+ * Like StreamingQuantile, StreamingMedian implements {@link org.apache.pig.Algebraic}, so when possible
+ * partial estimators are built by the map-side combiner and merged on the reduce side.  The result
+ * carries the same error guarantee as when all values are pushed through a single reducer.
  * </p>
  *
  * @see StreamingQuantile
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.nio.ByteBuffer;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Tracks the count, mean and central moments of a stream of values in a single pass.
+ *
+ * <p>
+ * Values are added with Welford's update and partial results are merged with the pairwise formulas of Chan et al.
+ * (extended to the third and fourth moments by P&eacute;bay), which avoids the cancellation that occurs when the
+ * variance is computed as average(x^2) - average(x)^2.  The state is five primitive fields, and can be serialized to
+ * a 40 byte array so that it can be passed between the stages of an algebraic UDF.
+ * </p>
+ *
+ * <p>
+ * This is the engine behind {@link VAR} and {@link Moments}.
+ * </p>
+ */
+public class StreamingMoments
+{
+  private static final int SERIALIZED_SIZE = 8*5;
+
+  private long count;
+  private double mean;
+  private double m2;
+  private double m3;
+  private double m4;
+
+  public void add(double x)
+  {
+    long n1 = count;
+    long n = ++count;
+    double delta = x - mean;
+    double deltaN = delta / n;
+    double deltaN2 = deltaN * deltaN;
+    double term1 = delta * deltaN * n1;
+    mean += deltaN;
+    m4 += term1 * deltaN2 * ((double)n*n - 3*n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+    m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+    m2 += term1;
+  }
+
+  public void merge(StreamingMoments other)
+  {
+    merge(other.count, other.mean, other.m2, other.m3, other.m4);
+  }
+
+  private void merge(long otherCount, double otherMean, double otherM2, double otherM3, double otherM4)
+  {
+    if (otherCount == 0)
+    {
+      return;
+    }
+    if (count == 0)
+    {
+      count = otherCount;
+      mean = otherMean;
+      m2 = otherM2;
+      m3 = otherM3;
+      m4 = otherM4;
+      return;
+    }
+
+    double na = count;
+    double nb = otherCount;
+    double n = na + nb;
+    double delta = otherMean - mean;
+    double delta2 = delta * delta;
+    double delta3 = delta2 * delta;
+    double delta4 = delta2 * delta2;
+
+    double newMean = mean + delta * nb / n;
+    double newM2 = m2 + otherM2 + delta2 * na * nb / n;
+    double newM3 = m3 + otherM3
+                 + delta3 * na * nb * (na - nb) / (n * n)
+                 + 3.0 * delta * (na * otherM2 - nb * m2) / n;
+    double newM4 = m4 + otherM4
+                 + delta4 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n)
+                 + 6.0 * delta2 * (na * na * otherM2 + nb * nb * m2) / (n * n)
+                 + 4.0 * delta * (na * otherM3 - nb * m3) / n;
+
+    count += otherCount;
+    mean = newMean;
+    m2 = newM2;
+    m3 = newM3;
+    m4 = newM4;
+  }
+
+  /**
+   * Adds each value in a bag.  The first field of each tuple is read; it may either be a number
+   * or a bytearray, which is parsed as a double.  Nulls and values that cannot be parsed are skipped.
+   *
+   * @param values bag of values
+   * @throws ExecException
+   */
+  public void addAll(DataBag values) throws ExecException
+  {
+    for (Tuple t : values)
+    {
+      if (t == null || t.size() == 0)
+      {
+        continue;
+      }
+      Object o = t.get(0);
+      if (o instanceof Number)
+      {
+        add(((Number)o).doubleValue());
+      }
+      else if (o instanceof DataByteArray)
+      {
+        try
+        {
+          add(Double.parseDouble(o.toString()));
+        }
+        catch (NumberFormatException e)
+        {
+          // invalid input, treat it as null
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges each set of moments in a bag, where the first field of each tuple holds the output of {@link #toBytes()}.
+   *
+   * @param values bag of serialized moments
+   * @throws ExecException
+   */
+  public void mergeAll(DataBag values) throws ExecException
+  {
+    for (Tuple t : values)
+    {
+      if (t == null || t.size() == 0 || t.get(0) == null)
+      {
+        continue;
+      }
+      merge(((DataByteArray)t.get(0)).get());
+    }
+  }
+
+  public long getCount()
+  {
+    return count;
+  }
+
+  public boolean isEmpty()
+  {
+    return count == 0;
+  }
+
+  public double getMean()
+  {
+    return mean;
+  }
+
+  /**
+   * @return the population variance, or NaN if no values have been added
+   */
+  public double getVariance()
+  {
+    return count > 0 ? m2 / count : Double.NaN;
+  }
+
+  /**
+   * @return the population standard deviation, or NaN if no values have been added
+   */
+  public double getStandardDeviation()
+  {
+    return Math.sqrt(getVariance());
+  }
+
+  /**
+   * @return the population skewness, or NaN if the values have no variance
+   */
+  public double getSkewness()
+  {
+    if (count == 0 || m2 == 0.0)
+    {
+      return Double.NaN;
+    }
+    return Math.sqrt((double)count) * m3 / Math.pow(m2, 1.5);
+  }
+
+  /**
+   * @return the population excess kurtosis, or NaN if the values have no variance
+   */
+  public double getKurtosis()
+  {
+    if (count == 0 || m2 == 0.0)
+    {
+      return Double.NaN;
+    }
+    return count * m4 / (m2 * m2) - 3.0;
+  }
+
+  public void clear()
+  {
+    count = 0;
+    mean = 0.0;
+    m2 = 0.0;
+    m3 = 0.0;
+    m4 = 0.0;
+  }
+
+  public byte[] toBytes()
+  {
+    return ByteBuffer.allocate(SERIALIZED_SIZE)
+                     .putLong(count)
+                     .putDouble(mean)
+                     .putDouble(m2)
+                     .putDouble(m3)
+                     .putDouble(m4)
+                     .array();
+  }
+
+  public static StreamingMoments fromBytes(byte[] bytes)
+  {
+    StreamingMoments moments = new StreamingMoments();
+    moments.merge(bytes);
+    return moments;
+  }
+
+  /**
+   * Merges moments serialized with {@link #toBytes()}.
+   *
+   * @param bytes serialized moments
+   */
+  public void merge(byte[] bytes)
+  {
+    if (bytes.length != SERIALIZED_SIZE)
+    {
+      throw new IllegalArgumentException("Expected " + SERIALIZED_SIZE + " bytes but found " + bytes.length);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    merge(buffer.getLong(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+  }
+}
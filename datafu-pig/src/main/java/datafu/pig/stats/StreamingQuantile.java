@@ -19,14 +19,24 @@
 
 package datafu.pig.stats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -49,8 +59,11 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  * </p>
  * 
  * <p>
- * N.B., all the data is pushed to a single reducer per key, so make sure some partitioning is
- * done (e.g., group by 'day') if the data is too large.  That is, this isn't distributed quantiles.
+ * StreamingQuantile implements {@link org.apache.pig.Algebraic}, so when possible the work is done
+ * in a distributed fashion.  Each map-side combiner builds a partial estimator and ships its level
+ * buffers as a compact bytearray, which are then merged on the reduce side.  Merging estimators
+ * preserves the error guarantee of the Munro-Paterson algorithm, so the results are of the same
+ * quality as when all values are pushed through a single reducer.
  * </p>
  * 
  * <p>
@@ -118,8 +131,11 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  * @see StreamingMedian
  * @see Quantile
  */
-public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
+public class StreamingQuantile extends AccumulatorEvalFunc<Tuple> implements Algebraic
 {
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final String[] params;
   private final int numQuantiles;
   private final QuantileEstimator estimator;
   private List<Double> quantiles;
@@ -131,7 +147,8 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
   
   public StreamingQuantile(String... k)
   {
-    if (k.length == 1 && Double.parseDouble(k[0]) > 1.0) 
+    this.params = k;
+    if (isOrdinal(k)) 
     {
       this.ordinalOutputSchema = true;
       this.numQuantiles = Integer.parseInt(k[0]);
@@ -144,6 +161,20 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     this.estimator = new QuantileEstimator(this.numQuantiles);
   }
   
+  private static boolean isOrdinal(String... k)
+  {
+    return k.length == 1 && Double.parseDouble(k[0]) > 1.0;
+  }
+  
+  private static int getNumQuantiles(String... k)
+  {
+    if (isOrdinal(k))
+    {
+      return Integer.parseInt(k[0]);
+    }
+    return getNumQuantiles(QuantileUtil.getQuantilesFromParams(k));
+  }
+  
   private static int getNumQuantiles(List<Double> quantiles)
   {
     quantiles = new ArrayList<Double>(quantiles);
@@ -210,9 +241,14 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
   @Override
   public Tuple getValue()
   {
-    Tuple t = TupleFactory.getInstance().newTuple(this.quantiles != null ? this.quantiles.size() : this.numQuantiles);
+    return getValue(estimator, this.numQuantiles, this.quantiles);
+  }
+
+  private static Tuple getValue(QuantileEstimator estimator, int numQuantiles, List<Double> quantiles)
+  {
+    Tuple t = mTupleFactory.newTuple(quantiles != null ? quantiles.size() : numQuantiles);
     try {
-      if (this.quantiles == null)
+      if (quantiles == null)
       {
         int j = 0;
         for (double quantileValue : estimator.getQuantiles()) 
@@ -223,14 +259,14 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
       }
       else
       {
-        HashMap<Double,Double> quantileValues = new HashMap<Double,Double>(this.quantiles.size());
+        HashMap<Double,Double> quantileValues = new HashMap<Double,Double>(quantiles.size());
         double quantileKey = 0.0;
         for (double quantileValue : estimator.getQuantiles()) {
           quantileValues.put(round(quantileKey), quantileValue);
-          quantileKey += 1.0/(this.numQuantiles-1);
+          quantileKey += 1.0/(numQuantiles-1);
         }
         int j = 0;
-        for (double d : this.quantiles)
+        for (double d : quantiles)
         {
           Double quantileValue = quantileValues.get(round(d));
           t.set(j, quantileValue);
@@ -243,6 +279,163 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     return t;
   }
 
+  private String param = null;
+  private String getParam()
+  {
+    // the EvalFunc constructor validates the algebraic functions before the params are set
+    if (this.params == null) {
+      return "";
+    }
+    if (param == null) {
+      StringBuilder sb = new StringBuilder("(");
+      for (int i = 0; i < this.params.length; i++) {
+        if (i > 0) {
+          sb.append(",");
+        }
+        sb.append("'").append(this.params[i]).append("'");
+      }
+      param = sb.append(")").toString();
+    }
+    return param;
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    private final int numQuantiles;
+
+    public Initial()
+    {
+      this("0.5");
+    }
+
+    public Initial(String... k)
+    {
+      this.numQuantiles = getNumQuantiles(k);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      // Initial is normally called in the map with a bag holding a single
+      // tuple, in which case the value is passed through as is.  Intermediate
+      // folds these values and any partial estimators into a new estimator.
+      DataBag bag = (DataBag) input.get(0);
+      if (bag.size() == 1)
+      {
+        Object o = bag.iterator().next().get(0);
+        if (!(o instanceof Number)) {
+          throw new IllegalStateException("bag must have numerical values (and be non-null)");
+        }
+        return mTupleFactory.newTuple((Object)((Number) o).doubleValue());
+      }
+      QuantileEstimator estimator = new QuantileEstimator(numQuantiles);
+      combine(bag, estimator);
+      return mTupleFactory.newTuple(new DataByteArray(estimator.toBytes()));
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int numQuantiles;
+
+    public Intermediate()
+    {
+      this("0.5");
+    }
+
+    public Intermediate(String... k)
+    {
+      this.numQuantiles = getNumQuantiles(k);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      try {
+        QuantileEstimator estimator = new QuantileEstimator(numQuantiles);
+        combine((DataBag) input.get(0), estimator);
+        return mTupleFactory.newTuple(new DataByteArray(estimator.toBytes()));
+      } catch (ExecException ee) {
+        throw ee;
+      } catch (Exception e) {
+        int errCode = 2106;
+        String msg = "Error while computing quantiles in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  static public class Final extends EvalFunc<Tuple>
+  {
+    private final int numQuantiles;
+    private final List<Double> quantiles;
+
+    public Final()
+    {
+      this("0.5");
+    }
+
+    public Final(String... k)
+    {
+      this.numQuantiles = getNumQuantiles(k);
+      this.quantiles = isOrdinal(k) ? null : QuantileUtil.getQuantilesFromParams(k);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      try {
+        QuantileEstimator estimator = new QuantileEstimator(numQuantiles);
+        combine((DataBag) input.get(0), estimator);
+        if (estimator.isEmpty()) {
+          return null;
+        }
+        return getValue(estimator, numQuantiles, quantiles);
+      } catch (ExecException ee) {
+        throw ee;
+      } catch (Exception e) {
+        int errCode = 2106;
+        String msg = "Error while computing quantiles in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  /**
+   * Adds the values and merges the serialized estimators found in the bag into the estimator.
+   */
+  static protected void combine(DataBag values, QuantileEstimator estimator) throws IOException
+  {
+    for (Tuple t : values) {
+      Object o = t.get(0);
+      if (o instanceof DataByteArray) {
+        estimator.merge(QuantileEstimator.fromBytes(((DataByteArray) o).get()));
+      } else if (o instanceof Number) {
+        estimator.add(((Number) o).doubleValue());
+      } else {
+        throw new IllegalStateException("bag must have numerical values (and be non-null)");
+      }
+    }
+  }
+
   @Override
   public Schema outputSchema(Schema input)
   {
@@ -267,14 +460,27 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     }
   }
 
+  /**
+   * Munro-Paterson estimator over primitive level buffers.
+   * 
+   * <p>
+   * Levels 0 and 1 hold raw elements, and level i &gt; 1 holds a sorted buffer of elements each of which
+   * stands for 2^(i-1) raw elements.  Every level is a preallocated <code>double[]</code> of
+   * <code>maxElementsPerBuffer</code> elements, and collapsing two levels merges them in place into
+   * the next level (or into one of two scratch buffers when that level is taken), so adding an element
+   * does not allocate.
+   * </p>
+   */
   static class QuantileEstimator
   {
     private static final long MAX_TOT_ELEMS = 1024L * 1024L * 1024L * 1024L;
 
-    private final List<List<Double>> buffer = new ArrayList<List<Double>>();
     private final int numQuantiles;
     private final int maxElementsPerBuffer;
-    private int totalElements;
+    private double[][] buffer = new double[0][];
+    private int[] counts = new int[0];
+    private final double[][] scratch;
+    private long totalElements;
     private double min;
     private double max;
     
@@ -282,6 +488,7 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     {
       this.numQuantiles = numQuantiles;
       this.maxElementsPerBuffer = computeMaxElementsPerBuffer();
+      this.scratch = new double[2][];
     }
     
     private int computeMaxElementsPerBuffer()
@@ -296,47 +503,65 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     
     private void ensureBuffer(int level)
     {
-      while (buffer.size() < level + 1) {
-        buffer.add(null);
+      if (buffer.length < level + 1) {
+        buffer = Arrays.copyOf(buffer, level + 1);
+        counts = Arrays.copyOf(counts, level + 1);
       }
-      if (buffer.get(level) == null) {
-        buffer.set(level, new ArrayList<Double>());
+      if (buffer[level] == null) {
+        buffer[level] = new double[maxElementsPerBuffer];
       }
     }
     
-    private void collapse(List<Double> a, List<Double> b, List<Double> out)
+    private double[] getScratch(double[] inUse)
     {
-      int indexA = 0, indexB = 0, count = 0;
-      Double smaller = null;
+      int i = scratch[0] == inUse ? 1 : 0;
+      if (scratch[i] == null) {
+        scratch[i] = new double[maxElementsPerBuffer];
+      }
+      return scratch[i];
+    }
+    
+    /**
+     * Merges the sorted full buffers a and b, keeping every other element, into out.
+     */
+    private void collapse(double[] a, double[] b, double[] out)
+    {
+      int indexA = 0, indexB = 0, count = 0, indexOut = 0;
+      double smaller;
       while (indexA < maxElementsPerBuffer || indexB < maxElementsPerBuffer) {
         if (indexA >= maxElementsPerBuffer ||
-            (indexB < maxElementsPerBuffer && a.get(indexA) >= b.get(indexB))) {
-          smaller = b.get(indexB++);
+            (indexB < maxElementsPerBuffer && a[indexA] >= b[indexB])) {
+          smaller = b[indexB++];
         } else {
-          smaller = a.get(indexA++);
+          smaller = a[indexA++];
         }
         
         if (count++ % 2 == 0) {
-          out.add(smaller);
+          out[indexOut++] = smaller;
         }
       }
-      a.clear();
-      b.clear();
     }
     
-    private void recursiveCollapse(List<Double> buf, int level)
+    /**
+     * Collapses the full buffer at the given level with buf, which is a full sorted buffer of
+     * the same weight, and carries the result up until it lands on an empty level.
+     */
+    private void recursiveCollapse(double[] buf, int level)
     {
       ensureBuffer(level + 1);
       
-      List<Double> merged;
-      if (buffer.get(level + 1).isEmpty()) {
-        merged = buffer.get(level + 1);
+      double[] merged;
+      if (counts[level + 1] == 0) {
+        merged = buffer[level + 1];
       } else {
-        merged = new ArrayList<Double>(maxElementsPerBuffer);
+        merged = getScratch(buf);
       }
       
-      collapse(buffer.get(level), buf, merged);
-      if (buffer.get(level + 1) != merged) {
+      collapse(buffer[level], buf, merged);
+      counts[level] = 0;
+      if (merged == buffer[level + 1]) {
+        counts[level + 1] = maxElementsPerBuffer;
+      } else {
         recursiveCollapse(merged, level + 1);
       }
     }
@@ -350,57 +575,202 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
         max = elem;
       }
       
-      if (totalElements > 0 && totalElements % (2 * maxElementsPerBuffer) == 0) {
-        Collections.sort(buffer.get(0));
-        Collections.sort(buffer.get(1));
-        recursiveCollapse(buffer.get(0), 1);
-      }
-      
       ensureBuffer(0);
       ensureBuffer(1);
-      int index = buffer.get(0).size() < maxElementsPerBuffer ? 0 : 1;
-      buffer.get(index).add(elem);
+      if (counts[1] == maxElementsPerBuffer) {
+        Arrays.sort(buffer[0]);
+        Arrays.sort(buffer[1]);
+        counts[0] = 0;
+        recursiveCollapse(buffer[0], 1);
+      }
+      
+      int index = counts[0] < maxElementsPerBuffer ? 0 : 1;
+      buffer[index][counts[index]++] = elem;
       totalElements++;
     }
 
+    /**
+     * Merges another estimator for the same number of quantiles into this one.
+     * 
+     * <p>
+     * The unweighted elements at levels 0 and 1 are added one at a time.  Each full buffer
+     * at a higher level is collapsed into this estimator's buffer at the same level, just as
+     * it would have been had the elements been added here in the first place.
+     * </p>
+     */
+    public void merge(QuantileEstimator other)
+    {
+      if (other.maxElementsPerBuffer != maxElementsPerBuffer) {
+        throw new IllegalArgumentException("Cannot merge estimators with different buffer sizes");
+      }
+      if (other.isEmpty()) {
+        return;
+      }
+      
+      if (isEmpty() || other.min < min) {
+        min = other.min;
+      }
+      if (isEmpty() || max < other.max) {
+        max = other.max;
+      }
+      
+      for (int level = other.buffer.length - 1; level >= 2; level--) {
+        if (other.counts[level] == 0) {
+          continue;
+        }
+        ensureBuffer(level);
+        if (counts[level] == 0) {
+          System.arraycopy(other.buffer[level], 0, buffer[level], 0, maxElementsPerBuffer);
+          counts[level] = maxElementsPerBuffer;
+        } else {
+          double[] buf = getScratch(null);
+          System.arraycopy(other.buffer[level], 0, buf, 0, maxElementsPerBuffer);
+          recursiveCollapse(buf, level);
+        }
+        totalElements += (long) maxElementsPerBuffer << (level - 1);
+      }
+      
+      for (int level = 0; level <= 1 && level < other.buffer.length; level++) {
+        for (int i = 0; i < other.counts[level]; i++) {
+          add(other.buffer[level][i]);
+        }
+      }
+    }
+
+    public boolean isEmpty()
+    {
+      return totalElements == 0;
+    }
+
     public void clear()
     {
-      buffer.clear();
+      Arrays.fill(counts, 0);
       totalElements = 0;
     }
 
-    public List<Double> getQuantiles()
+    /**
+     * Serializes the estimator as: the number of quantiles, the total number of elements,
+     * the min and max, and then for each level the number of elements followed by the elements.
+     */
+    public byte[] toBytes() throws IOException
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(numQuantiles);
+      out.writeLong(totalElements);
+      out.writeDouble(min);
+      out.writeDouble(max);
+      out.writeInt(buffer.length);
+      for (int level = 0; level < buffer.length; level++) {
+        out.writeInt(counts[level]);
+        for (int i = 0; i < counts[level]; i++) {
+          out.writeDouble(buffer[level][i]);
+        }
+      }
+      out.close();
+      return bytes.toByteArray();
+    }
+
+    public static QuantileEstimator fromBytes(byte[] bytes) throws IOException
     {
-      List<Double> quantiles = new ArrayList<Double>();
-      quantiles.add(min);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      QuantileEstimator estimator = new QuantileEstimator(in.readInt());
+      estimator.totalElements = in.readLong();
+      estimator.min = in.readDouble();
+      estimator.max = in.readDouble();
+      int levels = in.readInt();
+      for (int level = 0; level < levels; level++) {
+        int size = in.readInt();
+        if (size > 0) {
+          estimator.ensureBuffer(level);
+          for (int i = 0; i < size; i++) {
+            estimator.buffer[level][i] = in.readDouble();
+          }
+          estimator.counts[level] = size;
+        }
+      }
+      return estimator;
+    }
+
+    public double[] getQuantiles()
+    {
+      long[] targets = new long[Math.max(numQuantiles - 2, 0)];
+      for (int i = 1; i <= numQuantiles - 2; i++) {
+        targets[i - 1] = (long) Math.ceil(i * (totalElements / (numQuantiles - 1.0)));
+      }
+      double[] values = select(targets);
       
-      if (buffer.get(0) != null) {
-        Collections.sort(buffer.get(0));
+      double[] quantiles = new double[numQuantiles];
+      quantiles[0] = min;
+      System.arraycopy(values, 0, quantiles, 1, values.length);
+      quantiles[numQuantiles - 1] = max;
+      return quantiles;
+    }
+    
+    /**
+     * Gets the estimated quantiles for arbitrary fractions between 0.0 and 1.0, which need not be
+     * sorted.  The values are returned in the same order as the fractions.
+     */
+    public double[] getQuantiles(List<Double> fractions)
+    {
+      // order the fractions so that the buffers are only walked once
+      int[] order = new int[fractions.size()];
+      for (int i = 0; i < order.length; i++) {
+        int j = i;
+        while (j > 0 && fractions.get(order[j - 1]) > fractions.get(i)) {
+          order[j] = order[j - 1];
+          j--;
+        }
+        order[j] = i;
       }
-      if (buffer.get(1) != null) {
-        Collections.sort(buffer.get(1));
+      
+      long[] targets = new long[order.length];
+      for (int i = 0; i < order.length; i++) {
+        targets[i] = (long) Math.ceil(fractions.get(order[i]) * totalElements);
       }
+      double[] values = select(targets);
       
-      int[] index = new int[buffer.size()];
+      double[] quantiles = new double[order.length];
+      for (int i = 0; i < order.length; i++) {
+        double fraction = fractions.get(order[i]);
+        quantiles[order[i]] = fraction == 0.0 ? min : fraction == 1.0 ? max : values[i];
+      }
+      return quantiles;
+    }
+    
+    /**
+     * Walks the buffers in sorted order, weighting each element by its level, and returns the
+     * element at which the cumulative weight reaches each of the ascending target ranks.
+     */
+    private double[] select(long[] targets)
+    {
+      for (int level = 0; level <= 1 && level < buffer.length; level++) {
+        if (buffer[level] != null) {
+          Arrays.sort(buffer[level], 0, counts[level]);
+        }
+      }
+      
+      double[] values = new double[targets.length];
+      int[] index = new int[buffer.length];
       long S = 0;
-      for (int i = 1; i <= numQuantiles - 2; i++) {
-        long targetS = (long) Math.ceil(i * (totalElements / (numQuantiles - 1.0)));
+      for (int i = 0; i < targets.length; i++) {
+        long targetS = targets[i];
         
         while (true) {
           double smallest = max;
           int minBufferId = -1;
-          for (int j = 0; j < buffer.size(); j++) {
-            if (buffer.get(j) != null && index[j] < buffer.get(j).size()) {
-              if (!(smallest < buffer.get(j).get(index[j]))) {
-                smallest = buffer.get(j).get(index[j]);
+          for (int j = 0; j < buffer.length; j++) {
+            if (index[j] < counts[j]) {
+              if (!(smallest < buffer[j][index[j]])) {
+                smallest = buffer[j][index[j]];
                 minBufferId = j;
               }
             }
           }
           
           long incrementS = minBufferId <= 1 ? 1L : (0x1L << (minBufferId - 1));
-          if (S + incrementS >= targetS) {
-            quantiles.add(smallest);
+          if (S + incrementS >= targetS || minBufferId < 0) {
+            values[i] = smallest;
             break;
           } else {
             index[minBufferId]++;
@@ -408,9 +778,7 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
           }
         }
       }
-      
-      quantiles.add(max);
-      return quantiles;
+      return values;
     }
   }
 }
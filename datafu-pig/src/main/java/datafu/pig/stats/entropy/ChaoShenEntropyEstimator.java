@@ -19,9 +19,11 @@
 
 package datafu.pig.stats.entropy;
 
-import java.util.HashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
 import java.util.Iterator;
-import java.util.Map;
 
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -29,8 +31,6 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.backend.executionengine.ExecException;
 
-import java.util.Collections;
-
 
 
 /*
@@ -91,11 +91,11 @@ class ChaoShenEntropyEstimator extends EntropyEstimator {
             
             try {
                  //from in-memory frequency map
-                 for(Iterator<Map.Entry<Long, MutableLong>> iter = this.freqBaggedMap.getInternalMap().entrySet().iterator();
+                 for(ObjectIterator<Long2LongMap.Entry> iter = this.freqBaggedMap.getInternalMap().long2LongEntrySet().fastIterator();
                          iter.hasNext(); ) {
-                     Map.Entry<Long, MutableLong> entry = iter.next();
-                     long cx = entry.getKey();
-                     long cnt = entry.getValue().longValue();
+                     Long2LongMap.Entry entry = iter.next();
+                     long cx = entry.getLongKey();
+                     long cnt = entry.getLongValue();
                      h += accumlateEntropy(cx, this.N, c, cnt);
                  }
                  //from backup databag
@@ -152,8 +152,9 @@ class ChaoShenEntropyEstimator extends EntropyEstimator {
         
         /* key is the sample occurrence frequency
          * value is the number of repetitions of this frequency
+         * primitive keys and values avoid allocating objects per entry
          */
-        private Map<Long, MutableLong> countMap;
+        private Long2LongOpenHashMap countMap;
         
         /* the backed databag
          * each tuple has 2 elements
@@ -172,12 +173,7 @@ class ChaoShenEntropyEstimator extends EntropyEstimator {
         }
         
         void accumulate(long key) throws ExecException {
-            MutableLong val = this.countMap.get(key);
-            if(val == null) {
-                this.countMap.put(key, new MutableLong(1));
-            } else {
-                val.add(1);
-            }
+            this.countMap.addTo(key, 1);
             
             if(this.countMap.size() * (Long.SIZE + Long.SIZE) / 8 > spillBytesThreshold) {
                 spillFromMap2Bag();
@@ -185,17 +181,19 @@ class ChaoShenEntropyEstimator extends EntropyEstimator {
         }
         
         private void spillFromMap2Bag() throws ExecException {
-            for(Map.Entry<Long, MutableLong> entry : this.countMap.entrySet()) {
+            for(ObjectIterator<Long2LongMap.Entry> iter = this.countMap.long2LongEntrySet().fastIterator();
+                    iter.hasNext(); ) {
+                Long2LongMap.Entry entry = iter.next();
                 Tuple t = TupleFactory.getInstance().newTuple(2);
-                t.set(0, entry.getKey());
-                t.set(1, entry.getValue().longValue());
+                t.set(0, entry.getLongKey());
+                t.set(1, entry.getLongValue());
                 this.countBag.add(t);
             }
             this.countMap.clear();
         }
         
-        Map<Long, MutableLong> getInternalMap() {
-            return Collections.unmodifiableMap(this.countMap);
+        Long2LongOpenHashMap getInternalMap() {
+            return this.countMap;
         }
         
         DataBag getInternalBag() {
@@ -203,28 +201,8 @@ class ChaoShenEntropyEstimator extends EntropyEstimator {
         }
         
         void clear() {
-            countMap = new HashMap<Long, MutableLong>();
+            countMap = new Long2LongOpenHashMap();
             countBag = BagFactory.getInstance().newDefaultBag();
         }
     }
-    
-    private class MutableLong {
-        private long val;
-        
-        MutableLong(){
-            this(0L);
-        }
-        
-        MutableLong(long val) {
-            this.val = val;
-        }
-        
-        long longValue(){
-            return val;
-        }
-        
-        void add(long additive){
-            this.val += additive;
-        }
-    }
 }
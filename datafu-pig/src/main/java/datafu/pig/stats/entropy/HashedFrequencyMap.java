@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats.entropy;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.nio.ByteBuffer;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataByteArray;
+
+import datafu.pig.util.FieldHashing;
+
+/*
+ * Occurrence frequency of each sample, keyed by the 64-bit hash of the sample
+ * so that the input does not need to be sorted.  The counts are kept in a primitive
+ * open addressing map and can be serialized as a bytearray, so that partial maps
+ * can be merged in the combiner.
+ */
+class HashedFrequencyMap {
+
+    private final Long2LongOpenHashMap counts = new Long2LongOpenHashMap();
+
+    /*
+     * 64-bit hash of a sample, which may be a tuple or a field, computed from
+     * its typed fields rather than its string representation
+     */
+    static long hash(Object o) throws ExecException {
+        return FieldHashing.hash64(o);
+    }
+
+    void add(long hash, long count) {
+        counts.addTo(hash, count);
+    }
+
+    /*
+     * merge a map serialized by toBytes()
+     */
+    void merge(DataByteArray bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.get());
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            long hash = buffer.getLong();
+            counts.addTo(hash, buffer.getLong());
+        }
+    }
+
+    DataByteArray toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + counts.size() * 2 * 8);
+        buffer.putInt(counts.size());
+        for (ObjectIterator<Long2LongMap.Entry> it = counts.long2LongEntrySet().fastIterator(); it.hasNext(); ) {
+            Long2LongMap.Entry entry = it.next();
+            buffer.putLong(entry.getLongKey());
+            buffer.putLong(entry.getLongValue());
+        }
+        return new DataByteArray(buffer.array());
+    }
+
+    /*
+     * feed the occurrence frequency of each sample to the estimator
+     */
+    void accumulate(EntropyEstimator estimator) throws ExecException {
+        for (LongIterator it = counts.values().iterator(); it.hasNext(); ) {
+            estimator.accumulate(it.nextLong());
+        }
+    }
+
+    void clear() {
+        counts.clear();
+        //release the memory held for a large group
+        counts.trim();
+    }
+}
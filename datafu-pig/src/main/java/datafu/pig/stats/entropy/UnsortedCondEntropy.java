@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats.entropy;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Calculate conditional entropy H(Y|X) of random variables X and Y from an <b>unsorted</b> bag of raw data tuples of X and Y.
+ *
+ * <p>
+ * Each tuple of the input bag has 2 fields, the 1st field is an object instance of variable X and
+ * the 2nd field is an object instance of variable Y.
+ * This UDF's constructor definition and parameters are the same as that of {@link datafu.pig.stats.entropy.Entropy}.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link CondEntropy}, this UDF counts the occurrences of each &lt;x,y&gt; and each x in hash maps keyed by
+ * 64-bit hashes, so the input bag does not need to be sorted.  It implements {@link org.apache.pig.Algebraic},
+ * so the counts are partially computed on the mappers and merged in the combiner.  See {@link UnsortedEntropy}.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ * ------------
+ * -- calculate mutual information I(X, Y) using conditional entropy UDF and entropy UDF
+ * -- I(X, Y) = H(Y) - H(Y|X)
+ * ------------
+ *
+ * define UnsortedCondEntropy datafu.pig.stats.entropy.UnsortedCondEntropy();
+ * define UnsortedEntropy datafu.pig.stats.entropy.UnsortedEntropy();
+ *
+ * input = LOAD 'input' AS (grp: chararray, valX: double, valY: double);
+ *
+ * -- calculate the I(X,Y) in each group
+ * input_group_g = GROUP input BY grp;
+ * mutual_information = FOREACH input_group_g GENERATE
+ *      FLATTEN(group), UnsortedEntropy(input.valY) - UnsortedCondEntropy(input.(valX, valY));
+ * }
+ * </pre>
+ * @see CondEntropy
+ * @see UnsortedEntropy
+ */
+public class UnsortedCondEntropy extends AccumulatorEvalFunc<Double> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final String type;
+  private final String base;
+
+  //occurrence frequency of each <x,y>
+  private final HashedFrequencyMap xyCounts = new HashedFrequencyMap();
+
+  //occurrence frequency of each x
+  private final HashedFrequencyMap xCounts = new HashedFrequencyMap();
+
+  //entropy estimator for H(x,y)
+  private final EntropyEstimator combEstimator;
+
+  //entropy estimator for H(x)
+  private final EntropyEstimator condXEstimator;
+
+  public UnsortedCondEntropy() throws ExecException
+  {
+    this(EntropyEstimator.EMPIRICAL_ESTIMATOR);
+  }
+
+  public UnsortedCondEntropy(String type) throws ExecException
+  {
+    this(type, EntropyUtil.LOG);
+  }
+
+  public UnsortedCondEntropy(String type, String base) throws ExecException
+  {
+    this.combEstimator = UnsortedEntropy.createEstimator(type, base);
+    this.condXEstimator = UnsortedEntropy.createEstimator(type, base);
+    this.type = type;
+    this.base = base;
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    for (Tuple t : (DataBag) input.get(0)) {
+      this.xyCounts.add(HashedFrequencyMap.hash(t), 1L);
+      this.xCounts.add(HashedFrequencyMap.hash(t.get(0)), 1L);
+    }
+  }
+
+  @Override
+  public Double getValue()
+  {
+    return getEntropy(this.xyCounts, this.xCounts, this.combEstimator, this.condXEstimator);
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.xyCounts.clear();
+    this.xCounts.clear();
+    this.combEstimator.reset();
+    this.condXEstimator.reset();
+  }
+
+  private static Double getEntropy(HashedFrequencyMap xyCounts,
+                                   HashedFrequencyMap xCounts,
+                                   EntropyEstimator combEstimator,
+                                   EntropyEstimator condXEstimator)
+  {
+    try {
+        combEstimator.reset();
+        condXEstimator.reset();
+        xyCounts.accumulate(combEstimator);
+        xCounts.accumulate(condXEstimator);
+    } catch (ExecException ex) {
+        throw new RuntimeException("Error while accumulating sample frequency: " + ex);
+    }
+
+    //Chain rule: H(Y|X) = H(X, Y) - H(X)
+    return combEstimator.getEntropy() - condXEstimator.getEntropy();
+  }
+
+  /*
+   * Algebraic implementation part
+   */
+
+  private String getParam()
+  {
+    //the EvalFunc constructor validates the algebraic functions before the parameters are set
+    if (this.type == null) {
+      return "";
+    }
+    return String.format("('%s','%s')", this.type, this.base);
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+
+    public Initial(String type) {}
+
+    public Initial(String type, String base) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      //input is a bag with one tuple, whose hashes of <x,y> and x are passed on
+      //rather than maps with a single entry
+      DataBag bag = (DataBag) input.get(0);
+      Tuple output = mTupleFactory.newTuple(2);
+      if (bag.size() == 1) {
+        Tuple t = bag.iterator().next();
+        output.set(0, HashedFrequencyMap.hash(t));
+        output.set(1, HashedFrequencyMap.hash(t.get(0)));
+        return output;
+      }
+      HashedFrequencyMap xyCounts = new HashedFrequencyMap();
+      HashedFrequencyMap xCounts = new HashedFrequencyMap();
+      for (Tuple t : bag) {
+        xyCounts.add(HashedFrequencyMap.hash(t), 1L);
+        xCounts.add(HashedFrequencyMap.hash(t.get(0)), 1L);
+      }
+      output.set(0, xyCounts.toBytes());
+      output.set(1, xCounts.toBytes());
+      return output;
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    public Intermediate() {}
+
+    public Intermediate(String type) {}
+
+    public Intermediate(String type, String base) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      try {
+        HashedFrequencyMap xyCounts = new HashedFrequencyMap();
+        HashedFrequencyMap xCounts = new HashedFrequencyMap();
+        combine((DataBag) input.get(0), xyCounts, xCounts);
+        Tuple output = mTupleFactory.newTuple(2);
+        output.set(0, xyCounts.toBytes());
+        output.set(1, xCounts.toBytes());
+        return output;
+      } catch (ExecException ee) {
+        throw ee;
+      } catch (Exception e) {
+        int errCode = 2106;
+        String msg = "Error while computing conditional entropy in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  static public class Final extends EvalFunc<Double>
+  {
+    private final String type;
+    private final String base;
+
+    public Final()
+    {
+      this(EntropyEstimator.EMPIRICAL_ESTIMATOR);
+    }
+
+    public Final(String type)
+    {
+      this(type, EntropyUtil.LOG);
+    }
+
+    public Final(String type, String base)
+    {
+      this.type = type;
+      this.base = base;
+    }
+
+    @Override
+    public Double exec(Tuple input) throws IOException
+    {
+      try {
+        HashedFrequencyMap xyCounts = new HashedFrequencyMap();
+        HashedFrequencyMap xCounts = new HashedFrequencyMap();
+        combine((DataBag) input.get(0), xyCounts, xCounts);
+        return getEntropy(xyCounts,
+                          xCounts,
+                          UnsortedEntropy.createEstimator(this.type, this.base),
+                          UnsortedEntropy.createEstimator(this.type, this.base));
+      } catch (ExecException ee) {
+        throw ee;
+      } catch (Exception e) {
+        int errCode = 2106;
+        String msg = "Error while computing conditional entropy in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  /*
+   * merge the hashes and partial frequency maps output by the Initial and Intermediate functions
+   */
+  static void combine(DataBag values, HashedFrequencyMap xyCounts, HashedFrequencyMap xCounts) throws ExecException
+  {
+    for (Tuple t : values) {
+      UnsortedEntropy.combine(xyCounts, t.get(0));
+      UnsortedEntropy.combine(xCounts, t.get(1));
+    }
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+      try {
+          Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+          if (inputFieldSchema.type != DataType.BAG)
+          {
+            throw new RuntimeException("Expected a BAG as input");
+          }
+
+          Schema inputBagSchema = inputFieldSchema.schema;
+
+          if (inputBagSchema.getField(0).type != DataType.TUPLE)
+          {
+            throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                     DataType.findTypeName(inputBagSchema.getField(0).type)));
+          }
+
+          Schema tupleSchema = inputBagSchema.getField(0).schema;
+
+          if(tupleSchema == null) {
+              throw new RuntimeException("The tuple of the input bag has no schema");
+          }
+
+          List<Schema.FieldSchema> fieldSchemaList = tupleSchema.getFields();
+
+          if(fieldSchemaList == null || fieldSchemaList.size() != 2) {
+              throw new RuntimeException("The field schema of the input tuple is null or its size is not 2");
+          }
+
+          return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass()
+                                                                 .getName()
+                                                                 .toLowerCase(), input),
+                                               DataType.DOUBLE));
+        } catch (FrontendException e) {
+          throw new RuntimeException(e);
+        }
+   }
+}
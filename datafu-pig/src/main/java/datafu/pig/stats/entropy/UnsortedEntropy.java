@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats.entropy;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Calculate entropy H(X) of random variable X from an <b>unsorted</b> bag of raw data tuples of X.
+ *
+ * <p>
+ * This UDF's constructor definition and parameters are the same as that of {@link datafu.pig.stats.entropy.Entropy}.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link Entropy}, which counts the occurrences of each tuple by streaming through a sorted bag,
+ * this UDF counts them in a hash map keyed by a 64-bit hash of each tuple, so the input bag does not
+ * need to be sorted.  It implements {@link org.apache.pig.Algebraic}, so the counts are partially computed
+ * on the mappers and merged in the combiner, which avoids both the nested ORDER and the reducer holding all the raw data.
+ * The memory used grows with the number of distinct tuples in a group, at 16 bytes per distinct tuple.
+ * Distinct tuples whose hashes collide are counted as one, which is extremely unlikely unless there are billions of them.
+ * </p>
+ *
+ * Example:
+ * <pre>
+ * {@code
+ * --calculate empirical entropy with Euler's number as the logarithm base
+ * define UnsortedEntropy datafu.pig.stats.entropy.UnsortedEntropy();
+ *
+ * input = LOAD 'input' AS (grp: chararray, val: double);
+ *
+ * -- calculate the input's entropy in each group
+ * input_group_g = GROUP input BY grp;
+ * entropy_group = FOREACH input_group_g GENERATE FLATTEN(group) AS group, UnsortedEntropy(input.val) AS entropy;
+ * }
+ * </pre>
+ * @see Entropy
+ * @see UnsortedCondEntropy
+ */
+public class UnsortedEntropy extends AccumulatorEvalFunc<Double> implements Algebraic
+{
+  private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+  private final String type;
+  private final String base;
+
+  //occurrence frequency of each tuple
+  private final HashedFrequencyMap counts = new HashedFrequencyMap();
+
+  //entropy estimator that calculates the entropy from the occurrence frequencies
+  private final EntropyEstimator estimator;
+
+  public UnsortedEntropy() throws ExecException
+  {
+    this(EntropyEstimator.EMPIRICAL_ESTIMATOR);
+  }
+
+  public UnsortedEntropy(String type) throws ExecException
+  {
+    this(type, EntropyUtil.LOG);
+  }
+
+  public UnsortedEntropy(String type, String base) throws ExecException
+  {
+    this.estimator = createEstimator(type, base);
+    this.type = type;
+    this.base = base;
+  }
+
+  static EntropyEstimator createEstimator(String type, String base) throws ExecException
+  {
+    try {
+        return EntropyEstimator.createEstimator(type, base);
+    } catch (IllegalArgumentException ex) {
+        throw new ExecException(
+                String.format("Fail to initialize entropy estimator of type (%s), base: (%s), exception: (%s)",
+                       type, base, ex)
+              );
+    }
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    for (Tuple t : (DataBag) input.get(0)) {
+      this.counts.add(HashedFrequencyMap.hash(t), 1L);
+    }
+  }
+
+  @Override
+  public Double getValue()
+  {
+    try {
+        this.estimator.reset();
+        this.counts.accumulate(this.estimator);
+    } catch (ExecException ex) {
+        throw new RuntimeException("Error while accumulating sample frequency: " + ex);
+    }
+    return this.estimator.getEntropy();
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.counts.clear();
+    this.estimator.reset();
+  }
+
+  /*
+   * Algebraic implementation part
+   */
+
+  private String getParam()
+  {
+    //the EvalFunc constructor validates the algebraic functions before the parameters are set
+    if (this.type == null) {
+      return "";
+    }
+    return String.format("('%s','%s')", this.type, this.base);
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName() + getParam();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParam();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParam();
+  }
+
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    public Initial() {}
+
+    public Initial(String type) {}
+
+    public Initial(String type, String base) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      //input is a bag with one tuple, whose hash is passed on
+      //rather than a map with a single entry
+      DataBag bag = (DataBag) input.get(0);
+      if (bag.size() == 1) {
+        return mTupleFactory.newTuple((Object) HashedFrequencyMap.hash(bag.iterator().next()));
+      }
+      HashedFrequencyMap counts = new HashedFrequencyMap();
+      for (Tuple t : bag) {
+        counts.add(HashedFrequencyMap.hash(t), 1L);
+      }
+      return mTupleFactory.newTuple(counts.toBytes());
+    }
+  }
+
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    public Intermediate() {}
+
+    public Intermediate(String type) {}
+
+    public Intermediate(String type, String base) {}
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      try {
+        return mTupleFactory.newTuple(combine((DataBag) input.get(0)).toBytes());
+      } catch (ExecException ee) {
+        throw ee;
+      } catch (Exception e) {
+        int errCode = 2106;
+        String msg = "Error while computing entropy in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  static public class Final extends EvalFunc<Double>
+  {
+    private final String type;
+    private final String base;
+
+    public Final()
+    {
+      this(EntropyEstimator.EMPIRICAL_ESTIMATOR);
+    }
+
+    public Final(String type)
+    {
+      this(type, EntropyUtil.LOG);
+    }
+
+    public Final(String type, String base)
+    {
+      this.type = type;
+      this.base = base;
+    }
+
+    @Override
+    public Double exec(Tuple input) throws IOException
+    {
+      try {
+        EntropyEstimator estimator = createEstimator(this.type, this.base);
+        combine((DataBag) input.get(0)).accumulate(estimator);
+        return estimator.getEntropy();
+      } catch (ExecException ee) {
+        throw ee;
+      } catch (Exception e) {
+        int errCode = 2106;
+        String msg = "Error while computing entropy in " + this.getClass().getSimpleName();
+        throw new ExecException(msg, errCode, PigException.BUG, e);
+      }
+    }
+  }
+
+  /*
+   * merge the hashes and partial frequency maps output by the Initial and Intermediate functions
+   */
+  static HashedFrequencyMap combine(DataBag values) throws ExecException
+  {
+    HashedFrequencyMap counts = new HashedFrequencyMap();
+    for (Tuple t : values) {
+      combine(counts, t.get(0));
+    }
+    return counts;
+  }
+
+  static void combine(HashedFrequencyMap counts, Object value)
+  {
+    if (value instanceof Long) {
+      counts.add((Long) value, 1L);
+    } else if (value instanceof DataByteArray) {
+      counts.merge((DataByteArray) value);
+    }
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+      try {
+          Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+          if (inputFieldSchema.type != DataType.BAG)
+          {
+            throw new RuntimeException("Expected a BAG as input");
+          }
+
+          Schema inputBagSchema = inputFieldSchema.schema;
+
+          if (inputBagSchema.getField(0).type != DataType.TUPLE)
+          {
+            throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                     DataType.findTypeName(inputBagSchema.getField(0).type)));
+          }
+
+          return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass()
+                                                                 .getName()
+                                                                 .toLowerCase(), input),
+                                               DataType.DOUBLE));
+        } catch (FrontendException e) {
+          throw new RuntimeException(e);
+        }
+   }
+}
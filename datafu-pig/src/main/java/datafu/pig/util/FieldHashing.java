@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import java.util.Map;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Feeds Pig values to a Guava {@link Hasher} with a canonical encoding, so that values which are not equal
+ * are not made to collide by the encoding itself.
+ *
+ * <p>
+ * Each value is preceded by its Pig type, and variable length values by their length, so that for example the
+ * chararray '1' and the int 1, or the tuples ('a,b') and ('a','b'), are encoded differently.  Tuples and bags
+ * are encoded field by field, and maps as the sum of the hashes of their entries, so that the encoding does not
+ * depend on the iteration order of the map.  Other types are encoded by their string representation.
+ * </p>
+ */
+public class FieldHashing
+{
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private FieldHashing()
+  {
+  }
+
+  /**
+   * Computes a 64-bit hash of a value with the 128-bit murmur3 hash function.
+   *
+   * @param o value to hash, which may be null
+   * @return hash of the value
+   * @throws ExecException if a field of a tuple cannot be read
+   */
+  public static long hash64(Object o) throws ExecException
+  {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    putField(hasher, o);
+    return hasher.hash().asLong();
+  }
+
+  /**
+   * Feeds the fields of a tuple to a hasher.
+   *
+   * @param hasher hasher to feed
+   * @param t tuple whose fields are fed
+   * @throws ExecException if a field cannot be read
+   */
+  public static void putTuple(Hasher hasher, Tuple t) throws ExecException
+  {
+    int size = t.size();
+    hasher.putInt(size);
+    for (int i = 0; i < size; i++) {
+      putField(hasher, t.get(i));
+    }
+  }
+
+  /**
+   * Feeds a value to a hasher.
+   *
+   * @param hasher hasher to feed
+   * @param o value to feed, which may be null
+   * @throws ExecException if a field of a tuple cannot be read
+   */
+  public static void putField(Hasher hasher, Object o) throws ExecException
+  {
+    byte type = DataType.findType(o);
+    hasher.putByte(type);
+    switch (type) {
+      case DataType.NULL:
+        break;
+      case DataType.BOOLEAN:
+        hasher.putBoolean((Boolean)o);
+        break;
+      case DataType.INTEGER:
+        hasher.putInt((Integer)o);
+        break;
+      case DataType.LONG:
+        hasher.putLong((Long)o);
+        break;
+      case DataType.FLOAT:
+        hasher.putFloat((Float)o);
+        break;
+      case DataType.DOUBLE:
+        hasher.putDouble((Double)o);
+        break;
+      case DataType.CHARARRAY:
+        putString(hasher, (String)o);
+        break;
+      case DataType.BYTEARRAY:
+        byte[] bytes = ((DataByteArray)o).get();
+        hasher.putInt(bytes.length);
+        hasher.putBytes(bytes);
+        break;
+      case DataType.TUPLE:
+        putTuple(hasher, (Tuple)o);
+        break;
+      case DataType.BAG:
+        DataBag bag = (DataBag)o;
+        hasher.putLong(bag.size());
+        for (Tuple t : bag) {
+          putTuple(hasher, t);
+        }
+        break;
+      case DataType.MAP:
+        Map<?,?> map = (Map<?,?>)o;
+        long sum = 0;
+        for (Map.Entry<?,?> entry : map.entrySet()) {
+          Hasher entryHasher = HASH_FUNCTION.newHasher();
+          putField(entryHasher, entry.getKey());
+          putField(entryHasher, entry.getValue());
+          sum += entryHasher.hash().asLong();
+        }
+        hasher.putInt(map.size());
+        hasher.putLong(sum);
+        break;
+      default:
+        putString(hasher, o.toString());
+        break;
+    }
+  }
+
+  private static void putString(Hasher hasher, String s)
+  {
+    hasher.putInt(s.length());
+    hasher.putUnencodedChars(s);
+  }
+}
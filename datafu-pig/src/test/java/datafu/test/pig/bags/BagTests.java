@@ -19,12 +19,17 @@
 
 package datafu.test.pig.bags;
 
+import datafu.pig.bags.AppendToBag;
+import datafu.pig.bags.BagConcat;
 import datafu.pig.bags.CountDistinctUpTo;
 import datafu.pig.bags.CountEach;
 import datafu.pig.bags.DistinctBy;
 import datafu.pig.bags.Enumerate;
 import datafu.pig.bags.FirstTupleFromBag;
+import datafu.pig.bags.PrependToBag;
 import datafu.pig.bags.TupleFromBag;
+import datafu.pig.bags.UnorderedPairs;
+import datafu.pig.bags.ZipBags;
 import datafu.test.pig.PigTests;
 import junit.framework.Assert;
 
@@ -32,12 +37,17 @@ import org.adrianwalker.multilinestring.Multiline;
 import org.apache.pig.Accumulator;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InterSedesFactory;
 import org.apache.pig.data.SortedDataBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -405,6 +415,85 @@ result4 = FOREACH grouped GENERATE group AS a,TupleFromBag(data,0,$emptyTuple).b
   /**
 
 
+  define BagConcat datafu.pig.bags.BagConcat();
+  define AppendToBag datafu.pig.bags.AppendToBag();
+  define PrependToBag datafu.pig.bags.PrependToBag();
+  define ZipBags datafu.pig.bags.ZipBags();
+
+  data = LOAD 'input' AS (k:INT, A: bag{T: tuple(v:INT)}, B: bag{T: tuple(w:INT)}, T: tuple(v:INT));
+
+  data2 = FOREACH data GENERATE k, ZipBags(AppendToBag(PrependToBag(A,T),T), BagConcat(B,B)) as Z;
+
+  -- the views are serialized when grouped
+  data3 = FOREACH (GROUP data2 BY k) GENERATE group, FLATTEN(data2.Z);
+
+  STORE data3 INTO 'output';
+   */
+  @Multiline
+  private String bagViewsTest;
+
+  @Test
+  public void bagViewsTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(bagViewsTest);
+
+    writeLinesToFile("input",
+                     "1\t{(1),(2)}\t{(3),(4)}\t(5)",
+                     "2\t{}\t{(6)}\t(7)");
+
+    test.runScript();
+
+    assertOutput(test, "data3",
+                 "(1,{(5,3),(1,4),(2,3),(5,4)})",
+                 "(2,{(7,6),(7,6)})");
+  }
+
+  @Test
+  public void bagViewsExecTest() throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    bag.add(TupleFactory.getInstance().newTuple((Object)1));
+    bag.add(TupleFactory.getInstance().newTuple((Object)2));
+    Tuple tuple = TupleFactory.getInstance().newTuple((Object)3);
+
+    DataBag prepended = new PrependToBag().exec(TupleFactory.getInstance().newTuple(Arrays.asList(bag, tuple)));
+    DataBag appended = new AppendToBag().exec(TupleFactory.getInstance().newTuple(Arrays.asList(bag, tuple)));
+    DataBag concatenated = new BagConcat().exec(TupleFactory.getInstance().newTuple(Arrays.asList(prepended, appended)));
+
+    // the input bag is not modified, and the views can be read more than once
+    Assert.assertEquals(2, bag.size());
+    Assert.assertEquals(6, concatenated.size());
+    Assert.assertEquals("{(3),(1),(2),(1),(2),(3)}", concatenated.toString());
+    Assert.assertEquals("{(3),(1),(2),(1),(2),(3)}", concatenated.toString());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    concatenated.write(new DataOutputStream(bytes));
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    DataBag copy = (DataBag)InterSedesFactory.getInterSedesInstance().readDatum(in);
+    Assert.assertEquals(concatenated.toString(), copy.toString());
+    Assert.assertEquals(0, concatenated.compareTo(copy));
+
+    // modifying a view copies its tuples first
+    concatenated.add(TupleFactory.getInstance().newTuple((Object)4));
+    Assert.assertEquals(7, concatenated.size());
+    Assert.assertEquals("{(3),(1),(2),(1),(2),(3),(4)}", concatenated.toString());
+    Assert.assertEquals(3, prepended.size());
+
+    DataBag zipped = new ZipBags().exec(TupleFactory.getInstance().newTuple(Arrays.asList(bag, prepended)));
+    Assert.assertEquals(2, zipped.size());
+    Assert.assertEquals("{(1,3),(2,1)}", zipped.toString());
+
+    try {
+      new ZipBags().exec(TupleFactory.getInstance().newTuple(Arrays.asList(prepended, bag)));
+      Assert.fail("Expected an error when the first bag is not the shortest");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+
+
   define UnorderedPairs datafu.pig.bags.UnorderedPairs();
 
   data = LOAD 'input' AS (B: bag {T: tuple(v:INT)});
@@ -492,6 +581,96 @@ result4 = FOREACH grouped GENERATE group AS a,TupleFromBag(data,0,$emptyTuple).b
   /**
 
 
+  define UnorderedPairs datafu.pig.bags.UnorderedPairs('lazy');
+  define CappedPairs datafu.pig.bags.UnorderedPairs('lazy', '3');
+
+  data = LOAD 'input' AS (A:int, B: bag {T: tuple(v:INT)});
+
+  data2 = FOREACH data GENERATE A, UnorderedPairs(B) as P, CappedPairs(B) as C;
+
+  data3 = FOREACH data2 GENERATE A, FLATTEN(P);
+
+  data4 = FOREACH data2 GENERATE A, C;
+
+  STORE data3 INTO 'output';
+
+   */
+  @Multiline
+  private String unorderedPairsLazyTest;
+
+  @Test
+  public void unorderedPairsLazyTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(unorderedPairsLazyTest);
+
+    this.writeLinesToFile("input", "1\t{(1),(2),(3),(4)}", "2\t{(5)}", "3\t{}");
+
+    test.runScript();
+
+    this.assertOutput(test, "data3",
+                      "(1,(1),(2))",
+                      "(1,(1),(3))",
+                      "(1,(1),(4))",
+                      "(1,(2),(3))",
+                      "(1,(2),(4))",
+                      "(1,(3),(4))");
+
+    this.assertOutput(test, "data4",
+                      "(1,{((1),(2)),((1),(3)),((1),(4))})",
+                      "(2,{})",
+                      "(3,{})");
+  }
+
+  @Test
+  public void unorderedPairsSampledTest() throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+
+    DataBag pairs = new UnorderedPairs("lazy", "0", "0.01").exec(input);
+
+    // the same pairs are generated each time the bag is iterated, and the size matches them
+    String first = pairs.toString();
+    Assert.assertEquals(first, pairs.toString());
+    long count = 0;
+    for (Tuple pair : pairs)
+    {
+      Assert.assertTrue((Integer)((Tuple)pair.get(0)).get(0) < (Integer)((Tuple)pair.get(1)).get(0));
+      count++;
+    }
+    Assert.assertEquals(count, pairs.size());
+
+    // 1% of 499500 pairs
+    Assert.assertTrue("Expected about 4995 pairs, got " + count, Math.abs(count - 4995) < 500);
+
+    DataBag capped = new UnorderedPairs("eager", "100", "0.01").exec(input);
+    Assert.assertEquals(100, capped.size());
+  }
+
+  @Test
+  public void unorderedPairsSeededTest() throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+
+    // a seeded UDF samples the same pairs each time it is run, and another seed samples others
+    String sampled = new UnorderedPairs("eager", "0", "0.01", "42").exec(input).toString();
+    Assert.assertEquals(new UnorderedPairs("eager", "0", "0.01", "42").exec(input).toString(), sampled);
+    Assert.assertEquals(new UnorderedPairs("lazy", "0", "0.01", "42").exec(input).toString(), sampled);
+    Assert.assertFalse(new UnorderedPairs("eager", "0", "0.01", "43").exec(input).toString().equals(sampled));
+  }
+
+  /**
+
+
   define BagSplit datafu.pig.bags.BagSplit();
 
   data = LOAD 'input' AS (B:bag{T:tuple(val1:INT,val2:INT)});
@@ -974,6 +1153,117 @@ result4 = FOREACH grouped GENERATE group AS a,TupleFromBag(data,0,$emptyTuple).b
     Assert.assertEquals("(11,51)", iter.next().toString());
   }
 
+  /**
+
+  define DistinctBy datafu.pig.bags.DistinctBy('1', 'fingerprint');
+
+  data = LOAD 'input' AS (data: bag {T: tuple(a:CHARARRAY, b:CHARARRAY, c:INT)});
+
+  data2 = FOREACH data GENERATE DistinctBy(data);
+
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String distinctByFingerprintTest;
+
+  @Test
+  public void distinctByFingerprintTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(distinctByFingerprintTest);
+
+    writeLinesToFile("input",
+                     "({(a,b,1),(b,b,2),(c,,3),(d,c,4),(e,,5),(f,bb,6),(g,c,7)})");
+
+    test.runScript();
+
+    assertOutput(test, "data2",
+                 "({(a,b,1),(c,,3),(d,c,4),(f,bb,6)})");
+  }
+
+  @Test
+  public void distinctByFingerprintSpillTest() throws Exception
+  {
+    DistinctBy distinct = new DistinctBy("0", "fingerprint", "maxFingerprintsInMemory=7");
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)((i * 7) % 50), i)));
+    }
+
+    DataBag result = distinct.exec(TupleFactory.getInstance().newTuple(bag));
+
+    Assert.assertEquals(50, result.size());
+    int i = 0;
+    for (Tuple t : result)
+    {
+      Assert.assertEquals((i * 7) % 50, t.get(0));
+      Assert.assertEquals(i, t.get(1));
+      i++;
+    }
+
+    // do it again to test cleanup
+    result = distinct.exec(TupleFactory.getInstance().newTuple(bag));
+    Assert.assertEquals(50, result.size());
+  }
+
+  @Test
+  public void distinctByFingerprintGrowTest() throws Exception
+  {
+    DistinctBy distinct = new DistinctBy("0", "fingerprint");
+
+    // a large bag, for which the fingerprint set grows, followed by a small one
+    for (int n : new int[] {10000, 3})
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int i=0; i<2*n; i++)
+      {
+        bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)(i % n), i)));
+      }
+
+      DataBag result = distinct.exec(TupleFactory.getInstance().newTuple(bag));
+
+      Assert.assertEquals(n, result.size());
+      int i = 0;
+      for (Tuple t : result)
+      {
+        Assert.assertEquals(i, t.get(0));
+        Assert.assertEquals(i, t.get(1));
+        i++;
+      }
+    }
+  }
+
+  /**
+
+  define DistinctBy datafu.pig.bags.DistinctBy('0', 'fingerprint', 'maxFingerprintsInMemory=2');
+
+  data = LOAD 'input' AS (data: bag {T: tuple(a:tuple(x:CHARARRAY, y:CHARARRAY), b:INT)});
+
+  data2 = FOREACH data GENERATE DistinctBy(data);
+
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String distinctByFingerprintTupleTest;
+
+  @Test
+  public void distinctByFingerprintTupleTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(distinctByFingerprintTupleTest);
+
+    // distinct by a tuple field, spilling after every 2 fingerprints
+    writeLinesToFile("input",
+                     "({((a,b),1),((a,c),2),((a,b),3),((b,a),4),((a,c),5),((b,a),6),((a,),7)})");
+
+    test.runScript();
+
+    assertOutput(test, "data2",
+                 "({((a,b),1),((a,c),2),((b,a),4),((a,),7)})");
+  }
+
   private void firstAccumulateForTests(Accumulator distinct) throws IOException {
 	    DataBag bag;
 	    Tuple input;
@@ -1262,6 +1552,70 @@ result4 = FOREACH grouped GENERATE group AS a,TupleFromBag(data,0,$emptyTuple).b
 
   /**
 
+
+  define CountEach datafu.pig.bags.CountEach($ARGS);
+
+  data = LOAD 'input' AS (key:chararray, v1:chararray);
+
+  data2 = FOREACH (GROUP data BY key) GENERATE group as key, CountEach(data.v1) as counted;
+
+  data3 = FOREACH data2 {
+    ordered = ORDER counted BY count DESC, v1;
+    GENERATE key, ordered;
+  }
+
+  STORE data3 INTO 'output';
+
+   */
+  @Multiline
+  private String countEachAlgebraicTest;
+
+  @Test
+  public void countEachAlgebraicTest() throws Exception
+  {
+    // counting in the combiner, both in memory and spilling after 2 distinct tuples,
+    // and with the default limit, which the algebraic stages must also accept
+    for (String args : new String[] {"'flatten','100000'", "'flatten','2'", "'flatten'"})
+    {
+      PigTest test = createPigTestFromString(countEachAlgebraicTest, "ARGS=" + args);
+
+      writeLinesToFile("input",
+                       "x\tA", "x\tB", "x\tA", "x\tC", "x\tA", "x\tB", "x\tD",
+                       "y\tB", "y\tB", "y\tE");
+
+      test.runScript();
+
+      assertOutput(test, "data3",
+          "(x,{(A,3),(B,2),(C,1),(D,1)})",
+          "(y,{(B,2),(E,1)})");
+    }
+  }
+
+  @Test
+  public void countEachSpillTest() throws Exception
+  {
+    CountEach countEach = new CountEach("flatten", "3");
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)Integer.toString(i % 10)));
+    }
+
+    DataBag output = countEach.exec(TupleFactory.getInstance().newTuple(bag));
+
+    Assert.assertEquals(10, output.size());
+    Set<String> found = new HashSet<String>();
+    for (Tuple t : output)
+    {
+      found.add((String)t.get(0));
+      Assert.assertEquals(100, t.get(1));
+    }
+    Assert.assertEquals(10, found.size());
+  }
+
+  /**
+
   define CountDistinctUpTo3 datafu.pig.bags.CountDistinctUpTo('3');
   define CountDistinctUpTo10 datafu.pig.bags.CountDistinctUpTo('10');
 
@@ -1363,6 +1717,106 @@ result4 = FOREACH grouped GENERATE group AS a,TupleFromBag(data,0,$emptyTuple).b
 
   /**
 
+  define CountDistinctUpTo3 datafu.pig.bags.CountDistinctUpTo('3', 'exact');
+  define CountDistinctUpTo10 datafu.pig.bags.CountDistinctUpTo('10', 'approximate');
+
+  data = LOAD 'input' AS (bag1: bag {T: tuple(t1:chararray, t2:int)});
+
+  data2 = FOREACH data GENERATE CountDistinctUpTo3(bag1) as counted;
+
+  data3 = FOREACH data GENERATE CountDistinctUpTo10(bag1) as counted;
+
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String countDistinctUpToHashedTest;
+
+  @Test
+  public void countDistinctUpToHashedTest() throws Exception {
+    PigTest test = createPigTestFromString(countDistinctUpToHashedTest);
+
+    writeLinesToFile("input", "({(A,0),(B,0),(D,0),(A,0),(C,0),(E,0),(A,0),(B,0),(A,0),(B,0)})");
+    test.runScript();
+
+    assertOutput(test, "data2", "(3)");
+    assertOutput(test, "data3", "(5)");
+
+    writeLinesToFile("input", "({(A,0),(B,2),(D,0),(A,1),(C,3),(E,2),(A,1),(B,2),(A,0),(B,2),(E,0)})");
+    test.runScript();
+
+    assertOutput(test, "data2", "(3)");
+    assertOutput(test, "data3", "(7)");
+  }
+
+  @Test
+  public void countDistinctUpToHashedAccumulatorTest() throws IOException
+  {
+    CountDistinctUpTo distinct = new CountDistinctUpTo("2", "exact");
+
+    firstAccumulateForTests(distinct);
+
+    Assert.assertEquals(2, distinct.getValue().intValue());
+
+    secondAccumulateForTests(distinct);
+
+    Assert.assertEquals(2, distinct.getValue().intValue());
+  }
+
+  @Test
+  public void countDistinctUpToHashedTypesTest() throws IOException
+  {
+    CountDistinctUpTo distinct = new CountDistinctUpTo("10", "exact");
+
+    // these tuples have the same string representation, but are distinct
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"a,b", "c")));
+    bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"a", "b,c")));
+    bag.add(TupleFactory.getInstance().newTuple((Object)"1"));
+    bag.add(TupleFactory.getInstance().newTuple((Object)1));
+    bag.add(TupleFactory.getInstance().newTuple((Object)1));
+
+    Assert.assertEquals(4, distinct.exec(TupleFactory.getInstance().newTuple(bag)).intValue());
+  }
+
+  private int countDistinctUpToHashedAlgebraic(String amount, String mode, int distinct) throws IOException
+  {
+    CountDistinctUpTo.Initial initial = new CountDistinctUpTo.Initial(amount, mode);
+    CountDistinctUpTo.Intermediate intermediate = new CountDistinctUpTo.Intermediate(amount, mode);
+    CountDistinctUpTo.Final finalFunc = new CountDistinctUpTo.Final(amount, mode);
+
+    // several combiner outputs, each merging the initial outputs of a different part of the input
+    DataBag finalBag = BagFactory.getInstance().newDefaultBag();
+    for (int part=0; part<4; part++) {
+      DataBag intermediateBag = BagFactory.getInstance().newDefaultBag();
+      for (int i=part; i<3*distinct; i+=4) {
+        DataBag innerBag = BagFactory.getInstance().newDefaultBag();
+        innerBag.add(TupleFactory.getInstance().newTuple((Object)(i % distinct)));
+        intermediateBag.add(initial.exec(TupleFactory.getInstance().newTuple(innerBag)));
+      }
+      finalBag.add(intermediate.exec(TupleFactory.getInstance().newTuple(intermediateBag)));
+    }
+
+    return finalFunc.exec(TupleFactory.getInstance().newTuple(finalBag));
+  }
+
+  @Test
+  public void countDistinctUpToHashedAlgebraicTest() throws IOException
+  {
+    Assert.assertEquals(20, countDistinctUpToHashedAlgebraic("50", "exact", 20));
+    Assert.assertEquals(5, countDistinctUpToHashedAlgebraic("5", "exact", 20));
+    Assert.assertEquals(20000, countDistinctUpToHashedAlgebraic("100000", "exact", 20000));
+    Assert.assertEquals(3000, countDistinctUpToHashedAlgebraic("3000", "approximate", 20000));
+
+    // below the cutover to a sketch the approximate count is exact
+    Assert.assertEquals(1000, countDistinctUpToHashedAlgebraic("100000", "approximate", 1000));
+
+    int estimate = countDistinctUpToHashedAlgebraic("100000", "approximate", 20000);
+    Assert.assertTrue("Expected an estimate of about 20000 but got " + estimate, Math.abs(estimate - 20000) < 20000 * 0.05);
+  }
+
+  /**
+
 
 
   define BagLeftOuterJoin datafu.pig.bags.BagLeftOuterJoin();
@@ -1458,6 +1912,47 @@ result4 = FOREACH grouped GENERATE group AS a,TupleFromBag(data,0,$emptyTuple).b
         assertEquals(getSortedBag(joined2).toString(),getSortedBag(expectedJoined2, joined2Schema).toString());
     }
     
+    /**
+
+
+     define BagInnerMergeJoin datafu.pig.bags.BagJoin('inner', 'merge');
+     define BagLeftMergeJoin datafu.pig.bags.BagLeftOuterJoin('merge');
+     define BagFullMergeJoin datafu.pig.bags.BagJoin('full', 'merge');
+
+     data = LOAD 'input' AS (outer_key:chararray, bag1:bag{T:tuple(k:chararray,v:chararray)}, bag2:bag{T:tuple(k:chararray,v:chararray)}, bag3:bag{T:tuple(k3:chararray,v3:chararray)});
+
+     data2 = FOREACH data GENERATE
+     outer_key,
+     BagInnerMergeJoin(bag1, 'k', bag2, 'k', bag3, 'k3') as inner_joined,
+     BagLeftMergeJoin(bag1, 'k', bag2, 'k', bag3, 'k3') as left_joined,
+     BagFullMergeJoin(bag1, 'k', bag3, 'k3', bag2, 'k') as full_joined;
+
+     STORE data2 INTO 'output';
+
+     */
+    @Multiline
+    private String bagMergeJoinTest;
+
+    @Test
+    public void bagMergeJoinTest() throws Exception {
+        PigTest test = createPigTestFromString(bagMergeJoinTest);
+
+        writeLinesToFile("input",
+                "1\t{(K1,A1),(K2,B1),(K3,C1)}\t{(K1,A2),(K2,B2),(K2,B22)}\t{(K1,A3),(K3,C3),(K4,D3)}",
+                "2\t{(K1,A1),(K1,A11)}\t{(K1,A2),(K1,A22)}\t{(K0,Z3),(K1,A3)}");
+
+        test.runScript();
+
+        // bags sorted on their keys are joined in key order
+        assertOutput(test, "data2",
+                "(1,{(K1,A1,K1,A2,K1,A3)},"
+                + "{(K1,A1,K1,A2,K1,A3),(K2,B1,K2,B2,,),(K2,B1,K2,B22,,),(K3,C1,,,K3,C3)},"
+                + "{(K1,A1,K1,A3,K1,A2),(K2,B1,,,K2,B2),(K2,B1,,,K2,B22),(K3,C1,K3,C3,,),(,,K4,D3,,)})",
+                "(2,{(K1,A1,K1,A2,K1,A3),(K1,A1,K1,A22,K1,A3),(K1,A11,K1,A2,K1,A3),(K1,A11,K1,A22,K1,A3)},"
+                + "{(K1,A1,K1,A2,K1,A3),(K1,A1,K1,A22,K1,A3),(K1,A11,K1,A2,K1,A3),(K1,A11,K1,A22,K1,A3)},"
+                + "{(,,K0,Z3,,),(K1,A1,K1,A3,K1,A2),(K1,A1,K1,A3,K1,A22),(K1,A11,K1,A3,K1,A2),(K1,A11,K1,A3,K1,A22)})");
+    }
+
     private DataBag getSortedBag(String bagString, String schema) throws Exception {
         Utf8StorageConverter converter = new Utf8StorageConverter();
         ResourceFieldSchema parsedSchema = new ResourceFieldSchema(Utils.parseSchema("the_bag: " + schema).getField("the_bag"));
@@ -39,6 +39,7 @@ import org.testng.annotations.Test;
 
 import datafu.pig.sampling.ReservoirSample;
 import datafu.pig.sampling.SampleByKey;
+import datafu.pig.sampling.StratifiedSampleByKey;
 import datafu.pig.sampling.WeightedSample;
 import datafu.test.pig.PigTests;
 
@@ -142,6 +143,101 @@ public class SamplingTests extends PigTests
   /**
 
 
+  define WeightedSample datafu.pig.sampling.WeightedSample('1','exponential');
+  define WeightedSampleWithReplacement datafu.pig.sampling.WeightedSample('1','alias');
+
+  data = LOAD 'input' AS (A: bag {T: tuple(v1:chararray,v2:INT)});
+
+  data2 = FOREACH data GENERATE SIZE(WeightedSample(A,1,3)), SIZE(WeightedSample(A,1)), SIZE(WeightedSampleWithReplacement(A,1,10));
+
+  STORE data2 INTO 'output';
+   */
+  @Multiline
+  private String weightedSampleMethodsTest;
+
+  @Test
+  public void weightedSampleMethodsTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(weightedSampleMethodsTest);
+
+    writeLinesToFile("input",
+                     "({(a, 100),(b, 1),(c, 5),(d, 2)})",
+                     "({(a, 100)})",
+                     "({})");
+
+    test.runScript();
+
+    assertOutput(test, "data2",
+        "(3,4,10)",
+        "(1,1,10)",
+        "(0,0,0)");
+  }
+
+  @Test
+  public void weightedSampleExponentialExecTest() throws IOException
+  {
+    WeightedSample sampler = new WeightedSample("", "exponential");
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<100; i++)
+    {
+      // the first item outweighs all the others together
+      bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)i, i == 0 ? 1000.0 : 1.0)));
+    }
+
+    int firstChosenFirst = 0;
+    for (int trial=0; trial<1000; trial++)
+    {
+      DataBag result = sampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)bag, 1, 10)));
+      Assert.assertEquals(10, result.size());
+
+      // no repeats
+      Set<Integer> found = new HashSet<Integer>();
+      for (Tuple t : result)
+      {
+        Assert.assertTrue(found.add((Integer)t.get(0)));
+      }
+      if ((Integer)result.iterator().next().get(0) == 0)
+      {
+        firstChosenFirst++;
+      }
+    }
+
+    // the first item is drawn first with probability 1000/1099
+    Assert.assertTrue("Found " + firstChosenFirst, firstChosenFirst > 870 && firstChosenFirst < 950);
+  }
+
+  @Test
+  public void weightedSampleAliasExecTest() throws IOException
+  {
+    WeightedSample sampler = new WeightedSample("7", "alias");
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=1; i<=4; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)i, i)));
+    }
+
+    int numDraws = 100000;
+    DataBag result = sampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)bag, 1, numDraws)));
+    Assert.assertEquals(numDraws, result.size());
+
+    int[] counts = new int[5];
+    for (Tuple t : result)
+    {
+      counts[(Integer)t.get(0)]++;
+    }
+
+    // item i is drawn with probability i/10
+    for (int i=1; i<=4; i++)
+    {
+      Assert.assertEquals(i/10.0, counts[i]/(double)numDraws, 0.01);
+    }
+  }
+
+  /**
+
+
   DEFINE SampleByKey datafu.pig.sampling.SampleByKey('0.5', 'salt2.5');
 
   data = LOAD 'input' AS (A_id:chararray, B_id:chararray, C:int);
@@ -284,6 +380,125 @@ public class SamplingTests extends PigTests
   /**
 
 
+  DEFINE StratifiedSampleByKey datafu.pig.sampling.StratifiedSampleByKey('A=1.0, B=0.0, *=0.5', 'salt2.5');
+  DEFINE SampleByKey datafu.pig.sampling.SampleByKey('0.5', 'salt2.5');
+  DEFINE StratifiedSampleByKeyFromFile datafu.pig.sampling.StratifiedSampleByKey('$RATES', 'salt2.5');
+
+  data = LOAD 'input' AS (stratum:chararray, A_id:chararray, C:int);
+  stratified = FILTER data BY StratifiedSampleByKey(stratum, A_id);
+  stratified_from_file = FILTER data BY StratifiedSampleByKeyFromFile(stratum, A_id);
+
+  -- strata at the default rate are sampled as by SampleByKey
+  sampled = FILTER data BY stratum == 'C' AND SampleByKey(A_id);
+
+  STORE stratified INTO 'output';
+  STORE stratified_from_file INTO 'output_from_file';
+  STORE sampled INTO 'output_sampled';
+   */
+  @Multiline
+  private String stratifiedSampleByKeyTest;
+
+  @Test
+  public void stratifiedSampleByKeyTest() throws Exception
+  {
+    writeLinesToFile("rates",
+                     "A\t1.0",
+                     "B\t0.0",
+                     "*\t0.5");
+
+    PigTest test = createPigTestFromString(stratifiedSampleByKeyTest, "RATES=" + getFile("rates").getAbsolutePath());
+
+    writeLinesToFile("input",
+                     "A\tA1\t1","A\tA2\t2","A\tA3\t3",
+                     "B\tA1\t1","B\tA2\t2",
+                     "C\tA1\t1","C\tA2\t4","C\tA3\t3","C\tA4\t3","C\tA5\t4",
+                     "C\tA6\t3","C\tA7\t39","C\tA8\t4","C\tA9\t92","C\tA10\t7","C\tA4\t29");
+
+    test.runScript();
+
+    List<Tuple> sampled = getLinesForAlias(test, "sampled");
+    List<Tuple> stratified = getLinesForAlias(test, "stratified");
+    List<Tuple> stratifiedFromFile = getLinesForAlias(test, "stratified_from_file");
+
+    Assert.assertEquals(stratified.toString(), stratifiedFromFile.toString());
+    Assert.assertEquals(3 + sampled.size(), stratified.size());
+    Assert.assertEquals(sampled.toString(), stratified.subList(3, stratified.size()).toString());
+    for (int i=0; i<3; i++)
+    {
+      Assert.assertEquals("A", stratified.get(i).get(0));
+    }
+  }
+
+  @Test
+  public void stratifiedSampleByKeyExecTest() throws Exception
+  {
+    for (String hash : Arrays.asList("sha1", "murmur"))
+    {
+      SampleByKey sampler = new SampleByKey("0.3", "thesalt", hash);
+      SampleByKey stratifiedSampler = new StratifiedSampleByKey("s=0.3,t=0.05", "thesalt", hash);
+      SampleByKey sparseSampler = new SampleByKey("0.05", "thesalt", hash);
+
+      for (int i=0; i<10000; i++)
+      {
+        boolean selected = sampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)i)));
+        boolean selectedSparsely = sparseSampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)i)));
+
+        Assert.assertEquals(selected, stratifiedSampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"s", i))).booleanValue());
+        Assert.assertEquals(selectedSparsely, stratifiedSampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"t", i))).booleanValue());
+
+        // a smaller rate selects a subset of the keys
+        Assert.assertTrue(selected || !selectedSparsely);
+
+        // strata that are not listed are not sampled
+        Assert.assertFalse(stratifiedSampler.exec(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"u", i))));
+      }
+    }
+  }
+
+  @Test
+  public void sampleByKeyMurmurExecTest() throws Exception
+  {
+    SampleByKey sampler = new SampleByKey("0.10", "thesalt", "murmur");
+    SampleByKey sameSampler = new SampleByKey("0.10", "thesalt", "murmur");
+    SampleByKey otherSaltSampler = new SampleByKey("0.10", "othersalt", "murmur");
+
+    int sampled = 0;
+    int sampledByBoth = 0;
+
+    // 10,000 keys total, each of a chararray and a long
+    for (int i=0; i<10000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(Arrays.asList((Object)("key" + i), (long)i << 32));
+      boolean selected = sampler.exec(t);
+
+      // every value for the same key gets the same result, even from another instance
+      for (int j=0; j<3; j++)
+      {
+        Tuple copy = TupleFactory.getInstance().newTuple(Arrays.asList((Object)("key" + i), (long)i << 32));
+        Assert.assertEquals(selected, sampler.exec(copy).booleanValue());
+        Assert.assertEquals(selected, sameSampler.exec(copy).booleanValue());
+      }
+
+      if (selected)
+      {
+        sampled++;
+        if (otherSaltSampler.exec(t))
+        {
+          sampledByBoth++;
+        }
+      }
+    }
+
+    // 10% sample, so should have roughly 1000 keys
+    Assert.assertTrue("Found " + sampled, Math.abs(1000-sampled) < 100);
+
+    // a different salt selects keys independently
+    Assert.assertTrue("Found " + sampledByBoth, sampledByBoth < 200);
+  }
+
+  /**
+
+
   DEFINE ReservoirSample datafu.pig.sampling.ReservoirSample('$RESERVOIR_SIZE');
 
   data = LOAD 'input' AS (A_id:chararray, B_id:chararray, C:int);
@@ -520,6 +735,37 @@ public class SamplingTests extends PigTests
     }
   }
 
+  @Test
+  public void reservoirSampleUniformityTest() throws IOException
+  {
+    ReservoirSample sampler = new ReservoirSample("10");
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)i));
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+
+    // items late in the bag must be as likely to be sampled as early ones
+    int numTrials = 2000;
+    int[] countsByDecile = new int[10];
+    for (int trial=0; trial<numTrials; trial++)
+    {
+      DataBag result = sampler.exec(input);
+      Assert.assertEquals(10, result.size());
+      for (Tuple t : result)
+      {
+        countsByDecile[(Integer)t.get(0) / 100]++;
+      }
+    }
+
+    for (int count : countsByDecile)
+    {
+      Assert.assertTrue("Found " + Arrays.toString(countsByDecile), Math.abs(count - numTrials) < numTrials/10);
+    }
+  }
+
   private void prepareDataForSampleByKeysTest() throws IOException {
       writeLinesToFile("input",
         "1\ta\t20140201",
@@ -19,8 +19,20 @@
 
 package datafu.test.pig.sampling;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.util.UDFContext;
 import org.apache.pig.pigunit.PigTest;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import datafu.pig.sampling.SimpleRandomSample;
@@ -223,6 +235,73 @@ public class SimpleRandomSampleTest extends PigTests
                  "(A8,1)",
                  "(A9,2)");
   }
-  
-  
+
+  @Test
+  public void testFinalChoosesLowestScores() throws Exception
+  {
+    testFinalChoosesLowestScores(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testFinalChoosesLowestScoresSpilled() throws Exception
+  {
+    // spill the waitlist to disk as soon as it is checked
+    testFinalChoosesLowestScores(1L);
+  }
+
+  private void testFinalChoosesLowestScores(long memoryBudget) throws Exception
+  {
+    Configuration conf = new Configuration();
+    conf.setLong("datafu.sampling.waitlist.memory.bytes", memoryBudget);
+    UDFContext.getUDFContext().addJobConf(conf);
+    try
+    {
+      TupleFactory tupleFactory = TupleFactory.getInstance();
+      Random random = new Random(1);
+
+      // 10000 items, of which 4900 were selected and 5000 waitlisted with random scores
+      DataBag selected = BagFactory.getInstance().newDefaultBag();
+      for (int i = 0; i < 4900; i++)
+      {
+        selected.add(tupleFactory.newTuple((Object) i));
+      }
+      DataBag waiting = BagFactory.getInstance().newDefaultBag();
+      double[] scores = new double[5000];
+      for (int i = 0; i < 5000; i++)
+      {
+        scores[i] = 0.48 + random.nextInt(1000) * 0.00004;
+        waiting.add(tupleFactory.newTuple(Arrays.asList((Object) scores[i], tupleFactory.newTuple((Object) (4900 + i)))));
+      }
+
+      // split the items over two intermediate tuples
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      bag.add(tupleFactory.newTuple(Arrays.asList((Object) 0.5, 4000L, 4000L, selected, BagFactory.getInstance().newDefaultBag())));
+      bag.add(tupleFactory.newTuple(Arrays.asList((Object) 0.5, 6000L, 6000L, BagFactory.getInstance().newDefaultBag(), waiting)));
+
+      DataBag result = new SimpleRandomSample.Final().exec(tupleFactory.newTuple(bag));
+      Assert.assertEquals(result.size(), 5000);
+
+      // the 100 waitlisted items with the lowest scores are chosen
+      double[] sortedScores = Arrays.copyOf(scores, scores.length);
+      Arrays.sort(sortedScores);
+      Set<Integer> found = new HashSet<Integer>();
+      for (Tuple t : result)
+      {
+        int i = (Integer) t.get(0);
+        Assert.assertTrue(found.add(i));
+        if (i >= 4900)
+        {
+          Assert.assertTrue(scores[i - 4900] <= sortedScores[99]);
+        }
+      }
+      for (int i = 0; i < 4900; i++)
+      {
+        Assert.assertTrue(found.contains(i));
+      }
+    }
+    finally
+    {
+      UDFContext.getUDFContext().addJobConf(null);
+    }
+  }
 }
@@ -227,6 +227,44 @@ public class WeightedReservoirSamplingTests extends PigTests
     verifyNoRepeatAllFound(result, 10, 0, 100);
    }
 
+  @Test
+  public void weightedReservoirSampleDistributionTest() throws IOException
+  {
+    WeightedReservoirSample sampler = new WeightedReservoirSample("1", "1");
+    WeightedReservoirSample.Initial initialSampler = new WeightedReservoirSample.Initial("1", "1");
+
+    // the second half of the items is three times as heavy, so is sampled with probability 3/4
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      bag.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)i, i < 500 ? 1.0 : 3.0)));
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+
+    int numTrials = 4000;
+    int heavySampled = 0;
+    int heavySampledInitial = 0;
+    for (int trial=0; trial<numTrials; trial++)
+    {
+      DataBag result = sampler.exec(input);
+      verifyNoRepeatAllFound(result, 1, 0, 1000);
+      if ((Integer)result.iterator().next().get(0) >= 500)
+      {
+        heavySampled++;
+      }
+
+      DataBag intermediateBag = (DataBag)initialSampler.exec(input).get(0);
+      Assert.assertEquals(1, intermediateBag.size());
+      if ((Integer)((Tuple)intermediateBag.iterator().next().get(1)).get(0) >= 500)
+      {
+        heavySampledInitial++;
+      }
+    }
+
+    Assert.assertEquals(0.75, heavySampled/(double)numTrials, 0.03);
+    Assert.assertEquals(0.75, heavySampledInitial/(double)numTrials, 0.03);
+  }
+
   private void verifyNoRepeatAllFound(DataBag result,
                                       int expectedResultSize,
                                       int left,
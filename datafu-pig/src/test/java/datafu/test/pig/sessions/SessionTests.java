@@ -23,6 +23,7 @@ import static org.testng.Assert.*;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -253,6 +254,105 @@ public class SessionTests extends PigTests
   }
   
 
+  /**
+  
+  define Sessionize datafu.pig.sessions.Sessionize('$TIME_WINDOW', 'deterministic');
+  
+  views = LOAD 'input' AS (time:chararray, user_id:int, value:int);
+  
+  views_grouped = GROUP views BY user_id;
+  view_counts = FOREACH views_grouped {
+    views = ORDER views BY time;
+    GENERATE flatten(Sessionize(views, group)) as (time,user_id,value,session_id);
+  }
+  
+  sessions = FOREACH (GROUP view_counts BY (user_id, session_id)) GENERATE group.user_id, group.session_id, MIN(view_counts.time);
+  
+  sessions = ORDER sessions BY user_id, $2;
+  
+  STORE sessions INTO 'output';
+   */
+  @Multiline private String sessionizeDeterministicTest;
+
+  @Test
+  public void sessionizeDeterministicTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(sessionizeDeterministicTest,
+                                 "TIME_WINDOW=30m");
+
+    this.writeLinesToFile("input", 
+                          inputData);
+    
+    test.runScript();
+
+    List<Tuple> sessions = this.getLinesForAlias(test, "sessions");
+    assertEquals(sessions.size(), 8);
+
+    // the session ids are derived from the user and the start of the session
+    for (Tuple t : sessions)
+    {
+      Sessionize sessionize = new Sessionize("30m", "deterministic");
+      Tuple input = buildInputBag(new DateTime(t.get(2)));
+      input.append(t.get(0));
+      assertEquals(toList(sessionize.exec(input)).get(0).get(1), t.get(1));
+    }
+  }
+
+  @Test
+  public void sessionizeDeterministicExecTest() throws Exception
+  {
+    DateTime dt = new DateTime();
+    Tuple input = buildInputBag(dt, dt.plusMinutes(28), dt.plusMinutes(59));
+    input.append("u1");
+
+    List<Tuple> result = toList(new Sessionize("30m", "deterministic").exec(input));
+    assertEquals(3, result.size());
+    assertEquals(2, result.get(0).size());
+    assertEquals(result.get(0).get(1), result.get(1).get(1));
+    assertNotEquals(result.get(1).get(1), result.get(2).get(1));
+
+    // rerunning produces the same session ids
+    assertEquals(toList(new Sessionize("30m", "deterministic").exec(input)), result);
+
+    // as does sessionizing from the start of a session
+    Tuple laterInput = buildInputBag(dt.plusMinutes(59));
+    laterInput.append("u1");
+    assertEquals(toList(new Sessionize("30m", "deterministic").exec(laterInput)).get(0).get(1), result.get(2).get(1));
+
+    // another key has other session ids
+    input.set(1, "u2");
+    List<Tuple> otherResult = toList(new Sessionize("30m", "deterministic").exec(input));
+    assertNotEquals(otherResult.get(0).get(1), result.get(0).get(1));
+    assertNotEquals(otherResult.get(2).get(1), result.get(2).get(1));
+  }
+
+  @Test
+  public void sessionizeDeterministicTupleKeyTest() throws Exception
+  {
+    DateTime dt = new DateTime();
+
+    // keys with the same string representation have different session ids
+    Tuple input = buildInputBag(dt);
+    input.append(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"a,b", "c")));
+    Tuple otherInput = buildInputBag(dt);
+    otherInput.append(TupleFactory.getInstance().newTuple(Arrays.asList((Object)"a", "b,c")));
+    assertNotEquals(toList(new Sessionize("30m", "deterministic").exec(otherInput)).get(0).get(1),
+                    toList(new Sessionize("30m", "deterministic").exec(input)).get(0).get(1));
+
+    // as do keys of different types
+    input.set(1, "1");
+    otherInput.set(1, 1);
+    assertNotEquals(toList(new Sessionize("30m", "deterministic").exec(otherInput)).get(0).get(1),
+                    toList(new Sessionize("30m", "deterministic").exec(input)).get(0).get(1));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void sessionizeDeterministicWithoutKeyTest() throws Exception
+  {
+    DateTime dt = new DateTime();
+    new Sessionize("30m", "deterministic").exec(buildInputBag(dt, dt.plusMinutes(28)));
+  }
+
   /**
   
 
@@ -19,7 +19,13 @@
 
 package datafu.test.pig.sets;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
 
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.pig.data.BagFactory;
@@ -30,6 +36,8 @@ import org.apache.pig.pigunit.PigTest;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import datafu.pig.sets.IdBitmap;
+import datafu.pig.sets.SetDifference;
 import datafu.pig.sets.SetIntersect;
 import datafu.test.pig.PigTests;
 
@@ -171,6 +179,247 @@ public class SetTests extends PigTests
   }
   
   /**
+
+
+  define SetIntersect datafu.pig.sets.SetIntersect('hash');
+  define SetDifference datafu.pig.sets.SetDifference('hash');
+
+  data = LOAD 'input' AS (B1:bag{T:tuple(val1:int,val2:int)},B2:bag{T:tuple(val1:int,val2:int)});
+
+  data2 = FOREACH data GENERATE SetIntersect(B1,B2), SetDifference(B1,B2);
+
+  STORE data2 INTO 'output';
+   */
+  @Multiline
+  private String setHashTest;
+
+  @Test
+  public void setHashTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(setHashTest);
+
+    writeLinesToFile("input",
+                     "{(6,60),(2,20),(3,30),(1,10),(4,40),(5,50)}\t{(8,80),(4,40),(0,0),(2,20)}",
+                     "{(4,40),(1,10),(3,30),(1,10),(4,40),(3,30),(2,20)}\t{(3,30),(1,10),(9,90)}",
+                     "{}\t{(1,10)}");
+
+    test.runScript();
+
+    // the tuples are output in the order they first appear in the smallest bag, or the first bag for the difference
+    assertOutput(test, "data2",
+                 "({(4,40),(2,20)},{(6,60),(3,30),(1,10),(5,50)})",
+                 "({(3,30),(1,10)},{(4,40),(2,20)})",
+                 "({},{})");
+  }
+
+  @Test
+  public void setOperationModesTest() throws Exception
+  {
+    Random random = new Random(42);
+    for (int trial = 0; trial < 20; trial++)
+    {
+      DataBag[] bags = new DataBag[3];
+      for (int i = 0; i < bags.length; i++)
+      {
+        // bags of very different sizes, with duplicates
+        bags[i] = BagFactory.getInstance().newSortedBag(null);
+        int size = random.nextInt(i == 0 ? 20 : 500);
+        for (int j = 0; j < size; j++)
+        {
+          bags[i].add(TupleFactory.getInstance().newTuple((Object)random.nextInt(100)));
+        }
+      }
+
+      for (int order = 0; order < 3; order++)
+      {
+        DataBag[] ordered = { bags[order], bags[(order + 1) % 3], bags[(order + 2) % 3] };
+        Tuple input = TupleFactory.getInstance().newTuple(Arrays.asList((Object[])ordered));
+
+        String intersection = sorted(new SetIntersect().exec(input));
+        Assert.assertEquals(sorted(new SetIntersect("gallop").exec(input)), intersection);
+        Assert.assertEquals(sorted(new SetIntersect("hash").exec(input)), intersection);
+        Assert.assertEquals(sorted(new SetIntersect("hash", "5").exec(input)), intersection);
+
+        String difference = sorted(new SetDifference().exec(input));
+        Assert.assertEquals(sorted(new SetDifference("gallop").exec(input)), difference);
+        Assert.assertEquals(sorted(new SetDifference("hash").exec(input)), difference);
+        Assert.assertEquals(sorted(new SetDifference("hash", "5").exec(input)), difference);
+        Assert.assertEquals(sorted(new SetDifference("hash", "100").exec(input)), difference);
+      }
+    }
+  }
+
+  @Test
+  public void setOperationGallopBlocksTest() throws Exception
+  {
+    // bags spanning several of the blocks in which gallop mode reads the larger bags
+    Random random = new Random(7);
+    for (int trial = 0; trial < 5; trial++)
+    {
+      DataBag[] bags = new DataBag[3];
+      int[] sizes = { 50, 5000, 8000 };
+      for (int i = 0; i < bags.length; i++)
+      {
+        bags[i] = BagFactory.getInstance().newSortedBag(null);
+        for (int j = 0; j < sizes[i]; j++)
+        {
+          bags[i].add(TupleFactory.getInstance().newTuple((Object)random.nextInt(4000)));
+        }
+      }
+      Tuple input = TupleFactory.getInstance().newTuple(Arrays.asList((Object[])bags));
+
+      Assert.assertEquals(sorted(new SetIntersect("gallop").exec(input)), sorted(new SetIntersect().exec(input)));
+      Assert.assertEquals(sorted(new SetDifference("gallop").exec(input)), sorted(new SetDifference().exec(input)));
+    }
+  }
+
+  /**
+
+
+  define BitmapSetUnion datafu.pig.sets.BitmapSetUnion();
+  define BitmapSetIntersect datafu.pig.sets.BitmapSetIntersect();
+  define BitmapSetDifference datafu.pig.sets.BitmapSetDifference();
+
+  data = LOAD 'input' AS (B1:bag{T:tuple(id:int)},B2:bag{T:tuple(id:int)},B3:bag{T:tuple(id:long)});
+
+  data2 = FOREACH data GENERATE BitmapSetUnion(B1,B2), BitmapSetIntersect(B1,B2), BitmapSetDifference(B1,B2), BitmapSetIntersect(B1,B3);
+
+  STORE data2 INTO 'output';
+   */
+  @Multiline
+  private String bitmapSetTest;
+
+  @Test
+  public void bitmapSetTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(bitmapSetTest);
+
+    writeLinesToFile("input",
+                     "{(6),(2),(3),(1),(4),(5),(3)}\t{(8),(4),(0),(2),(-70000)}\t{(4),(5000000000),(6)}",
+                     "{(1),(2)}\t{}\t",
+                     "{}\t{(1)}\t{}");
+
+    test.runScript();
+
+    assertOutput(test, "data2",
+                 "({(-70000),(0),(1),(2),(3),(4),(5),(6),(8)},{(2),(4)},{(1),(3),(5),(6)},{(4),(6)})",
+                 "({(1),(2)},{},{(1),(2)},{})",
+                 "({(1)},{},{},{})");
+  }
+
+  /**
+
+
+  define IdBitmapUnion datafu.pig.sets.IdBitmapUnion();
+  define BitmapSetUnion datafu.pig.sets.BitmapSetUnion();
+  define BitmapSetIntersect datafu.pig.sets.BitmapSetIntersect();
+
+  members = LOAD 'input' AS (segment:chararray, id:long);
+
+  segments = FOREACH (GROUP members BY segment) GENERATE group AS segment, IdBitmapUnion(members.id) AS members;
+
+  ids = FOREACH (GROUP members BY segment) GENERATE group AS segment, BitmapSetUnion(members.id) AS ids;
+
+  segments2 = FOREACH segments GENERATE segment, members;
+
+  pairs = CROSS segments, segments2;
+
+  overlaps = FOREACH pairs GENERATE $0 AS s1, $2 AS s2, BitmapSetIntersect($1, $3);
+
+  overlaps = ORDER overlaps BY s1, s2;
+
+  STORE overlaps INTO 'output';
+   */
+  @Multiline
+  private String idBitmapUnionTest;
+
+  @Test
+  public void idBitmapUnionTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(idBitmapUnionTest);
+
+    writeLinesToFile("input",
+                     "a\t1",
+                     "a\t2",
+                     "a\t100000",
+                     "b\t2",
+                     "b\t100000",
+                     "b\t3",
+                     "a\t1");
+
+    test.runScript();
+
+    assertOutput(test, "ids",
+                 "(a,{(1),(2),(100000)})",
+                 "(b,{(2),(3),(100000)})");
+
+    assertOutput(test, "overlaps",
+                 "(a,a,{(1),(2),(100000)})",
+                 "(a,b,{(2),(100000)})",
+                 "(b,a,{(2),(100000)})",
+                 "(b,b,{(2),(3),(100000)})");
+  }
+
+  @Test
+  public void idBitmapTest() throws Exception
+  {
+    Random random = new Random(42);
+    for (int trial = 0; trial < 10; trial++)
+    {
+      // dense and sparse ranges, so that both kinds of containers are used
+      TreeSet<Long> expected1 = new TreeSet<Long>();
+      TreeSet<Long> expected2 = new TreeSet<Long>();
+      IdBitmap bitmap1 = new IdBitmap();
+      IdBitmap bitmap2 = new IdBitmap();
+      for (int i = 0; i < 20000; i++)
+      {
+        long id1 = random.nextBoolean() ? random.nextInt(10000) : random.nextLong() >> 30;
+        long id2 = random.nextBoolean() ? random.nextInt(100000) - 50000 : random.nextInt(20);
+        expected1.add(id1);
+        expected2.add(id2);
+        bitmap1.add(id1);
+        bitmap2.add(id2);
+      }
+
+      TreeSet<Long> union = new TreeSet<Long>(expected1);
+      union.addAll(expected2);
+      TreeSet<Long> intersection = new TreeSet<Long>(expected1);
+      intersection.retainAll(expected2);
+      TreeSet<Long> difference = new TreeSet<Long>(expected1);
+      difference.removeAll(expected2);
+
+      assertIds(expected1, IdBitmap.fromBytes(bitmap1.toBytes()));
+      assertIds(union, bitmap1.or(bitmap2));
+      assertIds(intersection, bitmap1.and(bitmap2));
+      assertIds(difference, bitmap1.andNot(bitmap2));
+      assertIds(expected2, bitmap2);
+
+      for (long id = -100; id < 100; id++)
+      {
+        Assert.assertEquals(bitmap2.contains(id), expected2.contains(id));
+      }
+    }
+  }
+
+  private static void assertIds(TreeSet<Long> expected, IdBitmap bitmap)
+  {
+    Assert.assertEquals(bitmap.getCardinality(), expected.size());
+    List<Long> ids = new ArrayList<Long>();
+    for (LongIterator it = bitmap.iterator(); it.hasNext();)
+    {
+      ids.add(it.nextLong());
+    }
+    Assert.assertEquals(ids, new ArrayList<Long>(expected));
+  }
+
+  private static String sorted(DataBag bag)
+  {
+    DataBag sorted = BagFactory.getInstance().newSortedBag(null);
+    sorted.addAll(bag);
+    return sorted.toString();
+  }
+
+  /**
   
 
   define SetUnion datafu.pig.sets.SetUnion();
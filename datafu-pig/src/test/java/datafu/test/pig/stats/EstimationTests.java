@@ -19,13 +19,24 @@
 
 package datafu.test.pig.stats;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.stats.CountMinSketch;
+import datafu.pig.stats.CountMinSketchEstimate;
+import datafu.pig.stats.HyperLogLogPlusPlus;
 import datafu.test.pig.PigTests;
 import static org.testng.Assert.*;
 
@@ -70,4 +81,278 @@ public class EstimationTests extends PigTests
     System.out.println("error: " + error*100.0 + "%");
     assertTrue(error < 0.01);
   }
+  
+  /**
+  
+  
+  define HyperLogLogPlusPlusSketch datafu.pig.stats.HyperLogLogPlusPlusSketch();
+  define HyperLogLogPlusPlusMerge datafu.pig.stats.HyperLogLogPlusPlusMerge();
+  define HyperLogLogPlusPlusEstimate datafu.pig.stats.HyperLogLogPlusPlusEstimate();
+  
+  data_in = LOAD 'input' as (day:int, val:int);
+  
+  daily = FOREACH (GROUP data_in BY day) GENERATE
+    group as day, HyperLogLogPlusPlusSketch(data_in.val) as sketch;
+  
+  daily_out = FOREACH daily GENERATE day, HyperLogLogPlusPlusEstimate(sketch) as cardinality;
+  
+  data_out = FOREACH (GROUP daily ALL) GENERATE
+    HyperLogLogPlusPlusEstimate(HyperLogLogPlusPlusMerge(daily.sketch)) as cardinality;
+    
+  STORE daily_out into 'daily_output';
+  STORE data_out into 'output';
+   */
+  @Multiline private String hyperLogLogSketchTest;
+  
+  @Test
+  public void hyperLogLogSketchTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(hyperLogLogSketchTest);
+
+    // 7 days of 20000 values each, where consecutive days overlap by half
+    int days = 7;
+    int perDay = 20000;
+    String[] input = new String[days*perDay];
+    for (int d=0; d<days; d++)
+    {
+      for (int i=0; i<perDay; i++)
+      {
+        input[d*perDay+i] = d + "\t" + (d*perDay/2 + i);
+      }
+    }
+    
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> daily = getLinesForAlias(test, "daily_out", true);
+    assertEquals(daily.size(),days);
+    for (Tuple t : daily)
+    {
+      double error = Math.abs(perDay-((Long)t.get(1)))/(double)perDay;
+      assertTrue(error < 0.01);
+    }
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    int count = (days+1)*perDay/2;
+    double error = Math.abs(count-((Long)output.get(0).get(0)))/(double)count;
+    System.out.println("error: " + error*100.0 + "%");
+    assertTrue(error < 0.01);
+  }
+  
+  @Test
+  public void hyperLogLogPartialSketchTest() throws Exception
+  {
+    HyperLogLogPlusPlus.Initial initial = new HyperLogLogPlusPlus.Initial("20");
+    HyperLogLogPlusPlus.Intermediate intermediate = new HyperLogLogPlusPlus.Intermediate("20");
+    HyperLogLogPlusPlus.Final finalFunc = new HyperLogLogPlusPlus.Final("20");
+    
+    // one key with few values and one with many, each folded into partial sketches by 4 map tasks
+    for (int count : new int[] {100, 200000})
+    {
+      DataBag all = BagFactory.getInstance().newDefaultBag();
+      DataBag partials = BagFactory.getInstance().newDefaultBag();
+      for (int task=0; task<4; task++)
+      {
+        DataBag hashes = BagFactory.getInstance().newDefaultBag();
+        for (int i=task; i<count; i+=4)
+        {
+          Tuple t = TupleFactory.getInstance().newTuple((Object)i);
+          all.add(t);
+          DataBag single = BagFactory.getInstance().newDefaultBag();
+          single.add(t);
+          hashes.add(initial.exec(TupleFactory.getInstance().newTuple(single)));
+        }
+        Tuple partial = intermediate.exec(TupleFactory.getInstance().newTuple(hashes));
+        if (count == 100)
+        {
+          // sparse partial sketch rather than 2^20 registers
+          assertTrue(((DataByteArray)partial.get(0)).size() < 1000);
+        }
+        partials.add(partial);
+      }
+      
+      DataBag merged = BagFactory.getInstance().newDefaultBag();
+      merged.add(intermediate.exec(TupleFactory.getInstance().newTuple(partials)));
+      
+      Long expected = new HyperLogLogPlusPlus("20").exec(TupleFactory.getInstance().newTuple(all));
+      assertEquals(finalFunc.exec(TupleFactory.getInstance().newTuple(partials)), expected);
+      assertEquals(finalFunc.exec(TupleFactory.getInstance().newTuple(merged)), expected);
+    }
+  }
+  
+  @Test
+  public void countMinSketchTypedItemsTest() throws Exception
+  {
+    // each pair of items has the same string representation, but they are counted separately
+    Object[][] items = {{"a,b", "c"}, {"a", "b,c"}, {"1"}, {1}};
+    int[] counts = {5, 2, 3, 4};
+
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    DataBag initialOutputs = BagFactory.getInstance().newDefaultBag();
+    CountMinSketch.Initial initial = new CountMinSketch.Initial("0.001", "0.99", "7");
+    for (int i=0; i<items.length; i++)
+    {
+      for (int j=0; j<counts[i]; j++)
+      {
+        Tuple t = TupleFactory.getInstance().newTuple(Arrays.asList(items[i]));
+        bag.add(t);
+        DataBag single = BagFactory.getInstance().newDefaultBag();
+        single.add(t);
+        initialOutputs.add(initial.exec(TupleFactory.getInstance().newTuple(single)));
+      }
+    }
+
+    // the sketch built by the accumulator and the one built by the algebraic functions
+    DataByteArray accumulated = new CountMinSketch("0.001", "0.99", "7").exec(TupleFactory.getInstance().newTuple(bag));
+    DataBag intermediateOutputs = BagFactory.getInstance().newDefaultBag();
+    intermediateOutputs.add(new CountMinSketch.Intermediate("0.001", "0.99", "7").exec(TupleFactory.getInstance().newTuple(initialOutputs)));
+    DataByteArray combined = new CountMinSketch.Final("0.001", "0.99", "7").exec(TupleFactory.getInstance().newTuple(intermediateOutputs));
+
+    CountMinSketchEstimate estimate = new CountMinSketchEstimate();
+    for (DataByteArray sketch : new DataByteArray[] {accumulated, combined})
+    {
+      for (int i=0; i<items.length; i++)
+      {
+        List<Object> args = new ArrayList<Object>();
+        args.add(sketch);
+        args.addAll(Arrays.asList(items[i]));
+        assertEquals(estimate.exec(TupleFactory.getInstance().newTuple(args)), Long.valueOf(counts[i]));
+      }
+    }
+  }
+
+  /**
+  
+  
+  define CountMinSketch datafu.pig.stats.CountMinSketch('0.001','0.99','7');
+  define CountMinSketchMerge datafu.pig.stats.CountMinSketchMerge();
+  define CountMinSketchEstimate datafu.pig.stats.CountMinSketchEstimate();
+  
+  data_in = LOAD 'input' as (day:int, val:chararray);
+  
+  daily = FOREACH (GROUP data_in BY day) GENERATE
+    group as day, CountMinSketch(data_in.val) as sketch;
+  
+  total = FOREACH (GROUP daily ALL) GENERATE CountMinSketchMerge(daily.sketch) as sketch;
+  
+  data_out = FOREACH total GENERATE
+    CountMinSketchEstimate(sketch, 'v0') as v0,
+    CountMinSketchEstimate(sketch, 'v1') as v1,
+    CountMinSketchEstimate(sketch, 'v10') as v10,
+    CountMinSketchEstimate(sketch, 'missing') as missing;
+    
+  STORE data_out into 'output';
+   */
+  @Multiline private String countMinSketchTest;
+  
+  @Test
+  public void countMinSketchTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(countMinSketchTest);
+
+    // over 3 days, value vi occurs 3*(1000/(i+1)) times
+    List<String> input = new ArrayList<String>();
+    int total = 0;
+    for (int d=0; d<3; d++)
+    {
+      for (int i=0; i<1000; i++)
+      {
+        for (int j=0; j<1000/(i+1); j++)
+        {
+          input.add(d + "\tv" + i);
+          total++;
+        }
+      }
+    }
+    
+    writeLinesToFile("input", input.toArray(new String[0]));
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    long[] expected = {3000, 1500, 3*(1000/11), 0};
+    for (int i=0; i<expected.length; i++)
+    {
+      long estimate = (Long)output.get(0).get(i);
+      assertTrue(estimate >= expected[i]);
+      assertTrue(estimate <= expected[i] + 0.001*total);
+    }
+  }
+  
+  /**
+  
+  
+  define HeavyHitters datafu.pig.stats.HeavyHitters($ARGS);
+  
+  data_in = LOAD 'input' as (site:chararray, val:chararray);
+  
+  data_out = FOREACH (GROUP data_in BY site) GENERATE
+    group as site, HeavyHitters(data_in.val) as top;
+  
+  data_out = FOREACH data_out GENERATE site, FLATTEN(top);
+    
+  STORE data_out into 'output';
+   */
+  @Multiline private String heavyHittersTest;
+  
+  @Test
+  public void heavyHittersTest() throws Exception
+  {
+    // the one-argument form has a capacity of 10 times k
+    String[][] argsAndCapacities = {{"'3','10'","10"},{"'3','1000000'","1000000"},{"'3'","30"}};
+    for (String[] argsAndCapacity : argsAndCapacities)
+    {
+      int capacity = Integer.parseInt(argsAndCapacity[1]);
+      PigTest test = createPigTestFromString(heavyHittersTest, "ARGS=" + argsAndCapacity[0]);
+      
+      // for each site, value hi occurs 1000/2^i times, mixed in with 2000 values occurring once
+      List<String> input = new ArrayList<String>();
+      for (String site : new String[] {"a","b"})
+      {
+        for (int i=0; i<5; i++)
+        {
+          for (int j=0; j<(1000>>i); j++)
+          {
+            input.add(site + "\th" + i);
+            input.add(site + "\tn" + (input.size() % 4000));
+          }
+        }
+      }
+      Collections.shuffle(input, new Random(1));
+      
+      writeLinesToFile("input", input.toArray(new String[0]));
+          
+      test.runScript();
+      
+      List<Tuple> output = getLinesForAlias(test, "data_out", true);
+      
+      assertEquals(output.size(),6);
+      for (int i=0; i<6; i++)
+      {
+        Tuple t = output.get(i);
+        int rank = i % 3;
+        long expected = 1000>>rank;
+        assertEquals(t.get(0), i < 3 ? "a" : "b");
+        assertEquals(t.get(1), "h" + rank);
+        long count = (Long)t.get(2);
+        long error = (Long)t.get(3);
+        assertTrue(count <= expected && expected <= count + error);
+        if (capacity == 1000000)
+        {
+          // nothing was pruned, so the counts are exact
+          assertEquals(count, expected);
+          assertEquals(error, 0L);
+        }
+        else
+        {
+          assertTrue(error <= (input.size()/2)/(capacity+1));
+        }
+      }
+    }
+  }
 }
@@ -24,10 +24,14 @@ import static org.testng.Assert.*;
 import java.util.Iterator;
 
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.stats.MarkovPairs;
 import datafu.test.pig.PigTests;
 
 public class MarkovPairTests extends PigTests
@@ -127,6 +131,61 @@ public class MarkovPairTests extends PigTests
     assertTuplesMatch(expectedOutput, actualOutput);
   }
   
+  /**
+  
+
+  define markovPairs1 datafu.pig.stats.MarkovPairs('1');
+  define markovPairs2 datafu.pig.stats.MarkovPairs('2');
+  
+  data = load 'input' as (data: bag {t: tuple(val:int)});
+  
+  data_out = foreach data generate markovPairs1(data) as markov_bag1, markovPairs2(data) as markov_bag2;
+  
+  store data_out into 'output';
+   */
+  @Multiline private String markovPairTwoInstances;
+  
+  @Test
+  public void markovPairTwoInstancesTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(markovPairTwoInstances);
+    
+    writeLinesToFile("input", "{(10),(20),(30),(40)}");
+    
+    String[] expectedOutput = {
+        "({((10),(20)),((20),(30)),((30),(40))},{((10),(20)),((10),(30)),((20),(30)),((20),(40)),((30),(40))})"
+      };
+    
+    test.runScript();
+    
+    Iterator<Tuple> actualOutput = test.getAlias("data_out");
+    
+    assertTuplesMatch(expectedOutput, actualOutput);
+  }
+  
+  @Test
+  public void markovPairAccumulateTest() throws Exception
+  {
+    MarkovPairs markovPairs = new MarkovPairs("2");
+    
+    // the window of tuples carries over between chunks of the input
+    for (int chunk=0; chunk<3; chunk++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int i=0; i<2; i++)
+      {
+        bag.add(TupleFactory.getInstance().newTuple((Object)(10*(2*chunk+i+1))));
+      }
+      markovPairs.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    
+    assertEquals(markovPairs.getValue().toString(),
+                 "{((10),(20)),((10),(30)),((20),(30)),((20),(40)),((30),(40)),((30),(50)),((40),(50)),((40),(60)),((50),(60))}");
+    
+    markovPairs.cleanup();
+    assertEquals(markovPairs.getValue().size(), 0);
+  }
+  
   private void assertTuplesMatch(String[] expectedOutput, Iterator<Tuple> actualOutput)
   {
     Iterator<Tuple> tuples = actualOutput;
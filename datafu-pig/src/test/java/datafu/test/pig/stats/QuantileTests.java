@@ -22,6 +22,7 @@ package datafu.test.pig.stats;
 import static org.testng.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import junit.framework.Assert;
@@ -29,12 +30,18 @@ import junit.framework.Assert;
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.stats.Quantile;
+import datafu.pig.stats.QuantileSketch;
+import datafu.pig.stats.QuantileSketchEstimate;
+import datafu.pig.stats.QuantileSketchMerge;
 import datafu.pig.stats.QuantileUtil;
+import datafu.pig.stats.SelectQuantile;
 import datafu.pig.stats.StreamingQuantile;
 import datafu.test.pig.PigTests;
 
@@ -271,6 +278,88 @@ public class QuantileTests  extends PigTests
   
   /**
   
+  
+  define Quantile datafu.pig.stats.SelectQuantile($QUANTILES);
+  
+  data_in = LOAD 'input' as (val:int);
+  
+  data_out = GROUP data_in ALL;
+  
+  data_out = FOREACH data_out GENERATE Quantile(data_in.val) as quantiles;
+  
+  data_out = FOREACH data_out GENERATE FLATTEN(quantiles);
+  
+  STORE data_out into 'output';
+   */
+  @Multiline private String selectQuantileTest;
+  
+  @Test
+  public void selectQuantileTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(selectQuantileTest,
+                                 "QUANTILES='0.0','0.25','0.5','0.75','1.0'");
+
+    String[] input = {"9","10","2","3","5","8","1","4","6","7"};
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(1.0,3.0,5.5,8.0,10.0)");
+  }
+  
+  @Test
+  public void selectQuantileLimitTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(selectQuantileTest,
+                                 "QUANTILES='0.0','0.25','0.5','0.75','1.0','maxValuesInMemory=3'");
+
+    String[] input = {"9","10","2","3","5","8","1","4","6","7"};
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(1.0,3.0,5.5,8.0,10.0)");
+  }
+  
+  @Test
+  public void selectQuantileSpillTest() throws Exception
+  {
+    Quantile sorted = new Quantile("0.0","0.1","0.5","0.99","0.999","1.0");
+    SelectQuantile unsorted = new SelectQuantile("0.0","0.1","0.5","0.99","0.999","1.0");
+    SelectQuantile external = new SelectQuantile("0.0","0.1","0.5","0.99","0.999","1.0","maxValuesInMemory=100");
+    
+    // scrambled values with many duplicates
+    int n = 20011;
+    List<Integer> values = new ArrayList<Integer>();
+    for (int i=0; i<n; i++)
+    {
+      values.add(((i * 7919) % n) / 3);
+    }
+    DataBag unsortedBag = BagFactory.getInstance().newDefaultBag();
+    for (int v : values)
+    {
+      unsortedBag.add(TupleFactory.getInstance().newTuple((Object)v));
+    }
+    Collections.sort(values);
+    DataBag sortedBag = BagFactory.getInstance().newDefaultBag();
+    for (int v : values)
+    {
+      sortedBag.add(TupleFactory.getInstance().newTuple((Object)v));
+    }
+    
+    Tuple expected = sorted.call(sortedBag);
+    Assert.assertEquals(expected, unsorted.call(unsortedBag));
+    Assert.assertEquals(expected, external.call(unsortedBag));
+  }
+  
+  /**
+  
 
   define Quantile datafu.pig.stats.StreamingQuantile($QUANTILES);
   
@@ -512,6 +601,125 @@ public class QuantileTests  extends PigTests
     Assert.assertEquals(20.0, result.get(3));
   }
   
+  @Test
+  public void streamingQuantileAlgebraicTest() throws Exception {
+    StreamingQuantile.Initial initial = new StreamingQuantile.Initial("0.0","0.5","0.9","1.0");
+    StreamingQuantile.Intermediate intermediate = new StreamingQuantile.Intermediate("0.0","0.5","0.9","1.0");
+    StreamingQuantile.Final finalFunc = new StreamingQuantile.Final("0.0","0.5","0.9","1.0");
+    
+    // values 0..99999 in a scrambled order, split across 10 combiners
+    int n = 100000;
+    DataBag partials = BagFactory.getInstance().newDefaultBag();
+    for (int split=0; split<10; split++)
+    {
+      DataBag initialOutputs = BagFactory.getInstance().newDefaultBag();
+      for (int i=split; i<n; i+=10)
+      {
+        DataBag single = BagFactory.getInstance().newDefaultBag();
+        single.add(TupleFactory.getInstance().newTuple((Object)((i * 7919) % n)));
+        initialOutputs.add(initial.exec(TupleFactory.getInstance().newTuple(single)));
+      }
+      partials.add(intermediate.exec(TupleFactory.getInstance().newTuple(initialOutputs)));
+    }
+    
+    Tuple result = finalFunc.exec(TupleFactory.getInstance().newTuple(partials));
+    Assert.assertEquals(4, result.size());
+    Assert.assertEquals(0.0, result.get(0));
+    assertTrue(Math.abs((Double)result.get(1) - 0.5*n) < 0.01*n);
+    assertTrue(Math.abs((Double)result.get(2) - 0.9*n) < 0.01*n);
+    Assert.assertEquals(n-1.0, result.get(3));
+  }
+  
+  @Test
+  public void streamingQuantileAlgebraicSmallTest() throws Exception {
+    StreamingQuantile.Intermediate intermediate = new StreamingQuantile.Intermediate("4");
+    StreamingQuantile.Final finalFunc = new StreamingQuantile.Final("4");
+    
+    // merging partial estimators of small inputs is exact
+    DataBag partials = BagFactory.getInstance().newDefaultBag();
+    for (int split=0; split<2; split++)
+    {
+      DataBag values = BagFactory.getInstance().newDefaultBag();
+      for (int i=1+split; i<=10; i+=2)
+      {
+        values.add(TupleFactory.getInstance().newTuple((Object)i));
+      }
+      partials.add(intermediate.exec(TupleFactory.getInstance().newTuple(values)));
+    }
+    
+    Tuple result = finalFunc.exec(TupleFactory.getInstance().newTuple(partials));
+    Assert.assertEquals(4, result.size());
+    Assert.assertEquals(1.0, result.get(0));
+    Assert.assertEquals(4.0, result.get(1));
+    Assert.assertEquals(7.0, result.get(2));
+    Assert.assertEquals(10.0, result.get(3));
+  }
+  
+  /**
+  
+  
+  define QuantileSketch datafu.pig.stats.QuantileSketch('0.01');
+  define QuantileSketchMerge datafu.pig.stats.QuantileSketchMerge();
+  define QuantileSketchEstimate datafu.pig.stats.QuantileSketchEstimate($QUANTILES);
+  
+  data_in = LOAD 'input' as (grp:int, val:int);
+  
+  sketches = FOREACH (GROUP data_in BY grp) GENERATE group AS grp, QuantileSketch(data_in.val) AS sketch;
+  
+  merged = FOREACH (GROUP sketches ALL) GENERATE QuantileSketchMerge(sketches.sketch) AS sketch;
+  
+  data_out = FOREACH merged GENERATE FLATTEN(QuantileSketchEstimate(sketch));
+  
+  STORE data_out into 'output';
+   */
+  @Multiline private String quantileSketchTest;
+  
+  @Test
+  public void quantileSketchTest() throws Exception {
+    PigTest test = createPigTestFromString(quantileSketchTest,
+                                 "QUANTILES='0.0','0.5','1.0'");
+
+    String[] input = {"1\t1","1\t2","1\t3","1\t4","2\t10","2\t5","3\t6","3\t7","3\t8","3\t9"};
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(1.0,5.0,10.0)");
+  }
+  
+  @Test
+  public void quantileSketchMergeTest() throws Exception {
+    QuantileSketch sketch = new QuantileSketch("0.01");
+    QuantileSketchEstimate estimate = new QuantileSketchEstimate("0.99","0.5","0.0","0.9");
+    
+    // values 0..99999 in a scrambled order, sketched in 10 separate groups
+    int n = 100000;
+    DataBag sketches = BagFactory.getInstance().newDefaultBag();
+    for (int split=0; split<10; split++)
+    {
+      DataBag values = BagFactory.getInstance().newDefaultBag();
+      for (int i=split; i<n; i+=10)
+      {
+        values.add(TupleFactory.getInstance().newTuple((Object)((i * 7919) % n)));
+      }
+      sketches.add(TupleFactory.getInstance().newTuple(sketch.exec(TupleFactory.getInstance().newTuple(values))));
+    }
+    sketches.add(TupleFactory.getInstance().newTuple((Object)null));
+    
+    DataByteArray merged = new QuantileSketchMerge().exec(TupleFactory.getInstance().newTuple(sketches));
+    Tuple result = estimate.exec(TupleFactory.getInstance().newTuple(merged));
+    Assert.assertEquals(4, result.size());
+    assertTrue(Math.abs((Double)result.get(0) - 0.99*n) < 0.01*n);
+    assertTrue(Math.abs((Double)result.get(1) - 0.5*n) < 0.01*n);
+    Assert.assertEquals(0.0, result.get(2));
+    assertTrue(Math.abs((Double)result.get(3) - 0.9*n) < 0.01*n);
+    
+    Assert.assertNull(estimate.exec(TupleFactory.getInstance().newTuple((Object)null)));
+  }
+  
   @Test
   public void quantileParamsTest() throws Exception {
     List<Double> quantiles = QuantileUtil.getQuantilesFromParams("5");
@@ -38,6 +38,7 @@ import datafu.pig.stats.DoubleVAR;
 import datafu.pig.stats.FloatVAR;
 import datafu.pig.stats.IntVAR;
 import datafu.pig.stats.LongVAR;
+import datafu.pig.stats.Moments;
 import datafu.pig.stats.VAR;
 import datafu.test.pig.PigTests;
 
@@ -518,4 +519,111 @@ public class VARTests  extends PigTests
     
     Assert.assertTrue("Expected about 83333.25 but found " + result,Math.abs(83333.25 - result) < 0.0001);
   }
- }
+ 
+  // values far from zero relative to their spread lose all precision with average(x^2) - average(x)^2
+  @Test
+  public void varLargeOffsetAlgebraicTest() throws Exception {
+    DoubleVAR.Initial initialVar = new DoubleVAR.Initial();
+    DoubleVAR.Intermediate intermediateVar = new DoubleVAR.Intermediate();
+    DoubleVAR.Final finalVar = new DoubleVAR.Final();
+    
+    DataBag finalBag = BagFactory.getInstance().newDefaultBag();
+    DataBag intermediateBag = BagFactory.getInstance().newDefaultBag();
+    
+    for (int i=1; i<=1000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(1);
+      t.set(0, 1e9 + i);
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      bag.add(t);
+      intermediateBag.add(initialVar.exec(TupleFactory.getInstance().newTuple(bag)));
+      if (i % 100 == 0)
+      {
+        finalBag.add(intermediateVar.exec(TupleFactory.getInstance().newTuple(intermediateBag)));
+        intermediateBag = BagFactory.getInstance().newDefaultBag();
+      }
+    }
+     
+    Double result = finalVar.exec(TupleFactory.getInstance().newTuple(finalBag));
+    
+    Assert.assertTrue("Expected about 83333.25 but found " + result,Math.abs(83333.25 - result) < 0.0001);
+  }
+  
+  /**
+  
+
+  define Moments datafu.pig.stats.Moments();
+  
+  data_in = LOAD 'input' as (key:chararray, val:$VAL_TYPE);
+  data_out = GROUP data_in BY key;
+  data_out = FOREACH data_out GENERATE group AS key, FLATTEN(Moments(data_in.val)); 
+  
+  --describe data_out;
+  STORE data_out into 'output';
+   */
+  @Multiline private String momentsTest;
+  
+  @Test
+  public void momentsTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(momentsTest,
+                                           "VAL_TYPE=int");
+
+    String[] input = {"a\t1","a\t2","a\t3","a\t4","a\t10","a\t5","a\t6","a\t7","a\t8","a\t9",
+                      "b\t3","b\t3","b\tnull",
+                      "c\t1","c\t1","c\t1","c\t5",
+                      "d\tnull"};
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),4);
+    
+    assertEquals(output.get(0).get(0), "a");
+    assertEquals(output.get(0).get(1), 10L);
+    assertEquals((Double)output.get(0).get(2), 5.5, 1e-9);
+    assertEquals((Double)output.get(0).get(3), 8.25, 1e-9);
+    assertEquals((Double)output.get(0).get(4), Math.sqrt(8.25), 1e-9);
+    assertEquals((Double)output.get(0).get(5), 0.0, 1e-9);
+    assertEquals((Double)output.get(0).get(6), -1.2242424242424244, 1e-9);
+    
+    // no spread, so skewness and kurtosis are undefined
+    assertEquals(output.get(1).toString(), "(b,2,3.0,0.0,0.0,,)");
+    
+    // 1,1,1,5: mean 2, second, third and fourth central moments 3, 6 and 21
+    assertEquals(output.get(2).get(1), 4L);
+    assertEquals((Double)output.get(2).get(3), 3.0, 1e-9);
+    assertEquals((Double)output.get(2).get(5), 6.0/Math.pow(3.0, 1.5), 1e-9);
+    assertEquals((Double)output.get(2).get(6), 21.0/9.0 - 3.0, 1e-9);
+    
+    assertEquals(output.get(3).toString(), "(d,)");
+  }
+  
+  @Test
+  public void momentsAccumulateTest() throws Exception
+  {
+    Moments moments = new Moments();
+    
+    for (int i=1; i<=1000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(1);
+      t.set(0, (double)i);
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      bag.add(t);
+      moments.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    
+    Tuple result = moments.getValue();
+    assertEquals(result.get(0), 1000L);
+    assertEquals((Double)result.get(1), 500.5, 1e-9);
+    assertEquals((Double)result.get(2), 83333.25, 1e-6);
+    assertEquals((Double)result.get(4), 0.0, 1e-9);
+    // excess kurtosis of a discrete uniform distribution is -6(n^2+1)/5(n^2-1)
+    assertEquals((Double)result.get(5), -6.0*(1e6+1)/(5.0*(1e6-1)), 1e-9);
+    
+    moments.cleanup();
+    Assert.assertNull(moments.getValue());
+  }
+}
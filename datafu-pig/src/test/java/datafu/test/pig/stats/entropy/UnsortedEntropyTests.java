@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.test.pig.stats.entropy;
+
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.pigunit.PigTest;
+import org.testng.annotations.Test;
+
+/*
+ * Expected values are the same as those of the sorted Entropy and CondEntropy tests,
+ * which were computed with R's entropy and infotheo libraries
+ */
+public class UnsortedEntropyTests extends AbstractEntropyTests
+{
+  /**
+
+  define UnsortedEntropy datafu.pig.stats.entropy.UnsortedEntropy('$type','$base');
+  
+  data = load 'input' as (val:double);
+  --describe data;
+  data_grouped = GROUP data ALL;
+  data_out = FOREACH data_grouped GENERATE UnsortedEntropy(data);
+  store data_out into 'output';
+   */
+  @Multiline private String entropy;
+  
+  @Test
+  public void dupValEmpiricalEntropoyTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(entropy, "type=empirical", "base=log");
+    
+    writeLinesToFile("input",
+                     "98.94791",
+                     "38.61010",
+                     "97.10575",
+                     "62.28313",
+                     "38.61010",
+                     "32.05370",
+                     "96.10962",
+                     "38.61010",
+                     "96.10962",
+                     "20.41135");
+        
+    test.runScript();
+    
+    List<Double> expectedOutput = new ArrayList<Double>();
+    expectedOutput.add(1.834372);
+    
+    List<Tuple> output = this.getLinesForAlias(test, "data_out");
+    verifyEqualEntropyOutput(expectedOutput, output, 5);
+  }
+
+  @Test
+  public void uniqValChaoShenEntropoyTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(entropy, "type=chaosh", "base=log");
+    
+    writeLinesToFile("input",
+                     "98.94791",
+                     "38.61010",
+                     "97.10575",
+                     "62.28313",
+                     "38.83960",
+                     "32.05370",
+                     "96.10962",
+                     "28.72388",
+                     "96.65888",
+                     "20.41135");
+        
+    test.runScript();
+    
+    List<Double> expectedOutput = new ArrayList<Double>();
+    expectedOutput.add(4.816221);
+    
+    List<Tuple> output = this.getLinesForAlias(test, "data_out");
+    verifyEqualEntropyOutput(expectedOutput, output, 5);
+  }
+
+  /**
+
+  define UnsortedCondEntropy datafu.pig.stats.entropy.UnsortedCondEntropy();
+  
+  data = load 'input' as (valX1:chararray, valX2:chararray, valY:chararray);
+  data = foreach data generate (valX1, valX2) as X, valY as Y;
+  --describe data;
+  data_grouped = GROUP data ALL;
+  data_out = FOREACH data_grouped GENERATE UnsortedCondEntropy(data);
+  store data_out into 'output';
+   */
+  @Multiline private String pairCondEntropy;
+ 
+  @Test
+  public void dupPairValEmpiricalCondEntropoyTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(pairCondEntropy);
+    
+    writeLinesToFile("input",
+                     "hadoop	bigdata	click",
+                     "hadoop	pig	view",
+                     "hadoop	datafu	click",
+                     "datafu	pig	click",
+                     "bigdata	pig	view",
+                     "datafu	pig	click",
+                     "datafu	pig	view",
+                     "hadoop	bigdata	view",
+                     "pig	datafu	view",
+                     "pig	datafu	view");
+        
+    test.runScript();
+
+    List<Double> expectedOutput = new ArrayList<Double>();
+    expectedOutput.add(0.3295837);
+    
+    List<Tuple> output = this.getLinesForAlias(test, "data_out");
+    verifyEqualEntropyOutput(expectedOutput, output, 5); 
+  }
+
+  /**
+
+  define UnsortedEntropy datafu.pig.stats.entropy.UnsortedEntropy();
+  
+  data = load 'input' using PigStorage('|') as (val1:chararray, val2:chararray);
+  data_grouped = GROUP data ALL;
+  data_out = FOREACH data_grouped GENERATE UnsortedEntropy(data);
+  store data_out into 'output';
+   */
+  @Multiline private String tupleEntropy;
+
+  @Test
+  public void sameStringDifferentTuplesEntropyTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(tupleEntropy);
+
+    // both tuples are written (a,b,c), but they are distinct samples
+    writeLinesToFile("input",
+                     "a,b|c",
+                     "a|b,c");
+
+    test.runScript();
+
+    List<Double> expectedOutput = new ArrayList<Double>();
+    expectedOutput.add(Math.log(2));
+
+    List<Tuple> output = this.getLinesForAlias(test, "data_out");
+    verifyEqualEntropyOutput(expectedOutput, output, 5);
+  }
+
+  /**
+
+  define Entropy datafu.pig.stats.entropy.Entropy($ARGS);
+  define CondEntropy datafu.pig.stats.entropy.CondEntropy($ARGS);
+  define UnsortedEntropy datafu.pig.stats.entropy.UnsortedEntropy($ARGS);
+  define UnsortedCondEntropy datafu.pig.stats.entropy.UnsortedCondEntropy($ARGS);
+  
+  data = load 'input' as (grp:int, valX:int, valY:int);
+  --describe data;
+  data_grouped = GROUP data BY grp;
+  sorted = FOREACH data_grouped {
+                     x_ordered = ORDER data.valX BY $0;
+                     xy_ordered = ORDER data.(valX, valY) BY *;
+                     GENERATE group, Entropy(x_ordered), CondEntropy(xy_ordered);
+             };
+  unsorted = FOREACH data_grouped GENERATE group, UnsortedEntropy(data.valX), UnsortedCondEntropy(data.(valX, valY));
+  store sorted into 'sorted';
+  store unsorted into 'unsorted';
+   */
+  @Multiline private String compareEntropy;
+  
+  @Test
+  public void matchesSortedEntropyTest() throws Exception
+  {
+    // the one-argument form uses the default base, and must also be accepted by the algebraic stages
+    for (String args : new String[] {"'empirical','log2'", "'chaosh','log2'", "'chaosh'"})
+    {
+      PigTest test = createPigTestFromString(compareEntropy, "ARGS=" + args);
+      
+      Random random = new Random(1);
+      String[] input = new String[3000];
+      for (int i=0; i<input.length; i++)
+      {
+        int x = random.nextInt(50);
+        input[i] = (i % 3) + "\t" + x + "\t" + (x + random.nextInt(5)) / 4;
+      }
+      writeLinesToFile("input", input);
+      
+      test.runScript();
+      
+      List<Tuple> sorted = this.getLinesForAlias(test, "sorted", true);
+      List<Tuple> unsorted = this.getLinesForAlias(test, "unsorted", true);
+      assertEquals(unsorted.size(), 3);
+      assertEquals(unsorted.size(), sorted.size());
+      for (int i=0; i<sorted.size(); i++)
+      {
+        assertEquals(unsorted.get(i).get(0), sorted.get(i).get(0));
+        assertEquals((Double)unsorted.get(i).get(1), (Double)sorted.get(i).get(1), 1e-9);
+        assertEquals((Double)unsorted.get(i).get(2), (Double)sorted.get(i).get(2), 1e-9);
+      }
+    }
+  }
+}
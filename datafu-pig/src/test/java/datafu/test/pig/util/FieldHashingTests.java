@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.test.pig.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import datafu.pig.util.FieldHashing;
+import datafu.test.pig.PigTests;
+
+public class FieldHashingTests extends PigTests
+{
+  private static final TupleFactory tf = TupleFactory.getInstance();
+
+  @Test
+  public void sameStringDifferentFieldsTest() throws Exception
+  {
+    // each pair has the same string representation
+    Object[][] pairs = {
+      {tf.newTuple(Arrays.asList((Object)"a,b", "c")), tf.newTuple(Arrays.asList((Object)"a", "b,c"))},
+      {tf.newTuple((Object)"1"), tf.newTuple((Object)1)},
+      {tf.newTuple((Object)1), tf.newTuple((Object)1L)},
+      {tf.newTuple((Object)tf.newTuple((Object)"a")), tf.newTuple((Object)"(a)")},
+      {tf.newTuple(Arrays.asList((Object)"", null)), tf.newTuple(Arrays.asList(null, (Object)""))},
+      {new DataByteArray("x"), "x"}
+    };
+    for (Object[] pair : pairs)
+    {
+      Assert.assertEquals(pair[0].toString(), pair[1].toString());
+      Assert.assertNotEquals(FieldHashing.hash64(pair[0]), FieldHashing.hash64(pair[1]));
+    }
+  }
+
+  @Test
+  public void equalValuesTest() throws Exception
+  {
+    Map<String,Object> a = new HashMap<String,Object>();
+    Map<String,Object> b = new HashMap<String,Object>(64);
+    for (int i=0; i<20; i++)
+    {
+      a.put("k" + i, i);
+      b.put("k" + (19 - i), 19 - i);
+    }
+    Assert.assertEquals(FieldHashing.hash64(a), FieldHashing.hash64(b));
+
+    DataBag bagA = BagFactory.getInstance().newDefaultBag();
+    DataBag bagB = BagFactory.getInstance().newDefaultBag();
+    bagA.add(tf.newTuple(Arrays.asList((Object)"x", 1, a)));
+    bagB.add(tf.newTuple(Arrays.asList((Object)"x", 1, b)));
+    Assert.assertEquals(FieldHashing.hash64(bagA), FieldHashing.hash64(bagB));
+    Assert.assertEquals(FieldHashing.hash64(null), FieldHashing.hash64(null));
+  }
+}